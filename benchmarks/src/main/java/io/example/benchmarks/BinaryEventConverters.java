@@ -0,0 +1,90 @@
+package io.example.benchmarks;
+
+import io.example.domain.EventType;
+import io.example.domain.User;
+import io.example.domain.UserEvent;
+import io.example.domain.friend.Friend;
+import io.example.domain.friend.FriendEvent;
+import io.example.domain.user.UserEventType;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.event.FriendEventCodec;
+import io.example.event.FriendEventRecord;
+import io.example.event.UserEventCodec;
+import io.example.event.UserEventRecord;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * The binary event converters of the friend and user services, registered as their {@code EventCodecConfiguration}s
+ * register them. Both services declare that configuration as {@code io.example.config.EventCodecConfiguration}, so only
+ * one of them is visible on the benchmark classpath.
+ */
+final class BinaryEventConverters {
+
+    private BinaryEventConverters() {
+    }
+
+    /**
+     * @return the converter of the friend service, for the friend events it produces and the user events it consumes.
+     */
+    static BinaryEventMessageConverter friendService() {
+        return new BinaryEventMessageConverter()
+                .register(FriendEvent.class, FriendEventCodec.INSTANCE,
+                        event -> new FriendEventRecord(event.getEventType().name(), event.getSubject().getUserId(),
+                                event.getSubject().getFriendId(), millis(event.getSubject().getCreatedAt()),
+                                millis(event.getSubject().getUpdatedAt())),
+                        record -> {
+                            Friend friend = new Friend(record.getUserId(), record.getFriendId());
+                            friend.setCreatedAt(timestamp(record.getCreatedAt()));
+                            friend.setUpdatedAt(timestamp(record.getUpdatedAt()));
+                            return new FriendEvent(friend,
+                                    io.example.domain.friend.EventType.valueOf(record.getEventType()));
+                        })
+                .register(io.example.domain.user.UserEvent.class, UserEventCodec.INSTANCE,
+                        event -> new UserEventRecord(event.getEventType().name(), event.getSubject().getId(),
+                                event.getSubject().getFirstName(), event.getSubject().getLastName(),
+                                millis(event.getSubject().getCreatedAt()),
+                                millis(event.getSubject().getLastModified()), event.getVersion()),
+                        record -> {
+                            io.example.domain.user.UserEvent event = new io.example.domain.user.UserEvent(
+                                    new io.example.domain.user.User(record.getUserId(), record.getFirstName(),
+                                            record.getLastName(), date(record.getCreatedAt()),
+                                            date(record.getLastModified())),
+                                    UserEventType.valueOf(record.getEventType()));
+                            event.setVersion(record.getVersion());
+                            return event;
+                        });
+    }
+
+    /**
+     * @return the converter of the user service, for the user events it produces.
+     */
+    static BinaryEventMessageConverter userService() {
+        return new BinaryEventMessageConverter()
+                .register(UserEvent.class, UserEventCodec.INSTANCE,
+                        event -> new UserEventRecord(event.getEventType().name(), event.getSubject().getId(),
+                                event.getSubject().getFirstName(), event.getSubject().getLastName(),
+                                millis(event.getSubject().getCreatedAt()),
+                                millis(event.getSubject().getLastModified()), event.getVersion()),
+                        record -> {
+                            User user = new User(record.getUserId(), record.getFirstName(), record.getLastName());
+                            user.setCreatedAt(timestamp(record.getCreatedAt()));
+                            user.setLastModified(timestamp(record.getLastModified()));
+                            user.setVersion(record.getVersion());
+                            return new UserEvent(user, EventType.valueOf(record.getEventType()));
+                        });
+    }
+
+    private static Long millis(Date date) {
+        return date == null ? null : date.getTime();
+    }
+
+    private static Timestamp timestamp(Long millis) {
+        return millis == null ? null : new Timestamp(millis);
+    }
+
+    private static Date date(Long millis) {
+        return millis == null ? null : new Date(millis);
+    }
+}
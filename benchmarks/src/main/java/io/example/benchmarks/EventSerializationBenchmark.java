@@ -0,0 +1,119 @@
+package io.example.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.domain.EventType;
+import io.example.domain.User;
+import io.example.domain.UserEvent;
+import io.example.domain.friend.Friend;
+import io.example.domain.friend.FriendEvent;
+import io.example.event.BinaryEventMessageConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of the domain events that are written to the outbox, and the deserialization of a user
+ * event into the projection that the friend service consumes from the user topic, with both the JSON codec and the
+ * binary event codec. The encoded size of each event is printed at setup. Run with {@code -prof gc} to see the
+ * allocation rate of each codec path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventSerializationBenchmark {
+
+    private ObjectMapper objectMapper;
+    private FriendEvent friendEvent;
+    private UserEvent userEvent;
+    private byte[] friendEventJson;
+    private byte[] userEventJson;
+    private BinaryEventMessageConverter friendServiceConverter;
+    private BinaryEventMessageConverter userServiceConverter;
+    private byte[] friendEventBinary;
+    private byte[] userEventBinary;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        Friend friend = new Friend(1L, 1L, 2L);
+        friend.setCreatedAt(now);
+        friend.setUpdatedAt(now);
+        friendEvent = new FriendEvent(friend, io.example.domain.friend.EventType.FRIEND_ADDED);
+
+        User user = new User(1L, "Jane", "Doe");
+        user.setCreatedAt(now);
+        user.setLastModified(now);
+        user.setVersion(1L);
+        userEvent = new UserEvent(user, EventType.USER_CREATED);
+        friendEventJson = objectMapper.writeValueAsBytes(friendEvent);
+        userEventJson = objectMapper.writeValueAsBytes(userEvent);
+
+        friendServiceConverter = BinaryEventConverters.friendService();
+        userServiceConverter = BinaryEventConverters.userService();
+        friendEventBinary = friendServiceConverter.encode(friendEvent);
+        userEventBinary = userServiceConverter.encode(userEvent);
+
+        System.out.printf("%nFriendEvent: %d bytes as JSON, %d bytes as binary%n",
+                friendEventJson.length, friendEventBinary.length);
+        System.out.printf("UserEvent: %d bytes as JSON, %d bytes as binary%n", userEventJson.length,
+                userEventBinary.length);
+    }
+
+    @Benchmark
+    public byte[] serializeFriendEvent() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(friendEvent);
+    }
+
+    @Benchmark
+    public byte[] serializeUserEvent() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(userEvent);
+    }
+
+    @Benchmark
+    public io.example.domain.user.UserEvent deserializeUserEvent() throws IOException {
+        return objectMapper.readValue(userEventJson, io.example.domain.user.UserEvent.class);
+    }
+
+    @Benchmark
+    public FriendEvent deserializeFriendEvent() throws IOException {
+        return objectMapper.readValue(friendEventJson, FriendEvent.class);
+    }
+
+    @Benchmark
+    public byte[] encodeFriendEvent() {
+        return friendServiceConverter.encode(friendEvent);
+    }
+
+    @Benchmark
+    public byte[] encodeUserEvent() {
+        return userServiceConverter.encode(userEvent);
+    }
+
+    @Benchmark
+    public io.example.domain.user.UserEvent decodeUserEvent() {
+        return friendServiceConverter.decode(userEventBinary, io.example.domain.user.UserEvent.class);
+    }
+
+    @Benchmark
+    public FriendEvent decodeFriendEvent() {
+        return friendServiceConverter.decode(friendEventBinary, FriendEvent.class);
+    }
+}
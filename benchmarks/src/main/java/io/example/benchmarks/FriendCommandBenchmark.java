@@ -0,0 +1,110 @@
+package io.example.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.domain.friend.Friend;
+import io.example.domain.friend.FriendAdjacencyCache;
+import io.example.domain.friend.FriendController;
+import io.example.domain.friend.FriendService;
+import io.example.domain.user.UserIndex;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.idempotency.IdempotencyStore;
+import io.example.metrics.CommandMetrics;
+import io.example.outbox.OutboxService;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Mono;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.example.benchmarks.StubConnectionFactory.row;
+
+/**
+ * Measures the reactive pipeline of the add friend command, from the existence checks against the user index, through
+ * the insert, to the domain event that the controller appends to the outbox. The database is an in-memory stand-in,
+ * so the results reflect the cost of the pipeline itself rather than Postgres.
+ * <p>
+ * The user index is primed with both users, as it would be once the service has replayed the user topic, so the
+ * {@link StubUserClient} is only there to satisfy the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendCommandBenchmark {
+
+    private static final Long USER_ID = 1L;
+    private static final Long FRIEND_ID = 2L;
+    private static final String REPLAYED_KEY = "replayed";
+
+    private FriendService friendService;
+    private FriendController friendController;
+
+    @Setup
+    public void setup() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        StubConnectionFactory database = new StubConnectionFactory()
+                .when("INSERT INTO friend", () -> List.of(row("id", 1L, "user_id", USER_ID, "friend_id", FRIEND_ID,
+                        "created_at", now, "updated_at", now)))
+                .when("INSERT INTO outbox", () -> List.of(row("id", 1L)))
+                .whenUpdate("INSERT INTO idempotent_request", 1);
+        ShardRouter shards = new ShardRouter(database, List.of());
+
+        UserIndex userIndex = new UserIndex(new StubUserClient(meterRegistry), meterRegistry);
+        userIndex.add(USER_ID);
+        userIndex.add(FRIEND_ID);
+
+        FriendAdjacencyCache adjacencyCache = new FriendAdjacencyCache(meterRegistry, false, 0, Duration.ZERO);
+        friendService = new FriendService(shards, userIndex, adjacencyCache,
+                new CommandMetrics(meterRegistry), 1000, 500, 1000, 500);
+        friendController = new FriendController(new OutboxService(shards, objectMapper,
+                BinaryEventConverters.friendService(), BinaryEventMessageConverter.CONTENT_TYPE, ""), friendService,
+                new IdempotencyStore(shards, objectMapper, meterRegistry, 10000, Duration.ofHours(24),
+                        Duration.ofMinutes(10)));
+
+        // Record the response of the replayed command, which is then answered from the in-memory cache
+        friendController.addFriend(USER_ID, FRIEND_ID, REPLAYED_KEY).block();
+    }
+
+    /**
+     * The add friend command as the controller runs it, including the outbox append.
+     */
+    @Benchmark
+    public Object addFriend() {
+        return friendController.addFriend(USER_ID, FRIEND_ID, null).block();
+    }
+
+    /**
+     * A retry of the add friend command with the {@code Idempotency-Key} of a recorded command.
+     */
+    @Benchmark
+    public Object addFriendReplayed() {
+        return friendController.addFriend(USER_ID, FRIEND_ID, REPLAYED_KEY).block();
+    }
+
+    /**
+     * The {@link FriendService#create} pipeline on its own, with a callback that does nothing.
+     */
+    @Benchmark
+    public Friend createFriend() {
+        return friendService.create(new Friend(USER_ID, FRIEND_ID), friend -> Mono.empty()).block();
+    }
+}
@@ -0,0 +1,114 @@
+package io.example.benchmarks;
+
+import io.example.outbox.BinderEventPublisher;
+import io.example.outbox.EventPublisher;
+import io.example.outbox.KafkaEventPublisher;
+import io.example.outbox.OutboxRelay;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+import reactor.kafka.sender.internals.ProducerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.example.benchmarks.StubConnectionFactory.row;
+
+/**
+ * Measures how fast the {@link OutboxRelay} drains one batch of domain events, including the advisory lock, the
+ * claim, the per-aggregate ordering and the delete of the published events. The {@code binder} producer sends to the
+ * {@link StubSource} from the bounded elastic scheduler, and the {@code kafka} producer sends through a reactive Kafka
+ * sender to a {@link MockProducer} that acknowledges every record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutboxRelayBenchmark {
+
+    @Param({"100"})
+    private int batchSize;
+
+    @Param({"10"})
+    private int aggregates;
+
+    @Param({"binder", "kafka"})
+    private String producer;
+
+    private OutboxRelay relay;
+    private KafkaSender<byte[], byte[]> sender;
+
+    @Setup
+    public void setup() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        byte[] payload = "{\"subject\":{\"userId\":1,\"friendId\":2},\"eventType\":\"FRIEND_ADDED\"}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+        for (long id = 1; id <= batchSize; id++) {
+            batch.add(row("id", id, "aggregate_id", id % aggregates, "event_type", "FRIEND_ADDED",
+                    "content_type", MediaType.APPLICATION_JSON_VALUE, "payload", payload, "created_at", now));
+        }
+
+        StubConnectionFactory database = new StubConnectionFactory()
+                .when("SELECT pg_try_advisory_xact_lock", () -> List.of(row("pg_try_advisory_xact_lock", true)))
+                .when("UPDATE outbox SET claimed_until = NOW()", () -> batch)
+                .whenUpdate("DELETE", batchSize);
+
+        // A batch size of one more than the stubbed batch makes each drain relay exactly one batch
+        relay = new OutboxRelay(new ShardRouter(database, List.of()), publisher(), new SimpleMeterRegistry(),
+                batchSize + 1, aggregates, Duration.ofMillis(250), Duration.ofSeconds(30), Duration.ofMinutes(2));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (sender != null) {
+            sender.close();
+        }
+    }
+
+    @Benchmark
+    public void drain() {
+        relay.drain().block();
+    }
+
+    private EventPublisher publisher() {
+        if (producer.equals("binder")) {
+            return new BinderEventPublisher(new StubSource(), Duration.ofSeconds(30));
+        }
+
+        sender = KafkaSender.create(new ProducerFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Producer<K, V> createProducer(SenderOptions<K, V> senderOptions) {
+                return (Producer<K, V>) new MockProducer<>(true, new ByteArraySerializer(),
+                        new ByteArraySerializer());
+            }
+        }, SenderOptions.<byte[], byte[]>create().maxInFlight(1024));
+        return new KafkaEventPublisher(sender, "friend");
+    }
+}
@@ -0,0 +1,273 @@
+package io.example.benchmarks;
+
+import io.r2dbc.spi.ColumnMetadata;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Nullability;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory stand-in for the Postgres {@link ConnectionFactory}, which lets a real {@code R2dbcEntityTemplate} run
+ * without a database. Each statement is answered by the first responder whose SQL prefix matches it.
+ * <p>
+ * The connection, statement, result and row types are dynamic proxies that only answer the methods that Spring's
+ * {@code DatabaseClient}, {@code R2dbcEntityTemplate} and {@code R2dbcTransactionManager} call, which keeps this
+ * stand-in independent of the R2DBC SPI version. Every other method that returns a {@link Publisher} completes empty.
+ */
+public class StubConnectionFactory implements ConnectionFactory {
+
+    private final List<Responder> responders = new ArrayList<>();
+    private final Connection connection = proxy(Connection.class, this::answerConnection);
+
+    /**
+     * Answers statements that start with the supplied SQL prefix with rows.
+     *
+     * @param sqlPrefix is the start of the SQL statements to answer, compared case-insensitively.
+     * @param rows      supplies the rows of each result, as maps of column name to value in column order.
+     * @return this {@link StubConnectionFactory}.
+     */
+    public StubConnectionFactory when(String sqlPrefix, Supplier<List<Map<String, Object>>> rows) {
+        responders.add(new Responder(sqlPrefix, rows, -1));
+        return this;
+    }
+
+    /**
+     * Answers statements that start with the supplied SQL prefix with an update count.
+     *
+     * @param sqlPrefix   is the start of the SQL statements to answer, compared case-insensitively.
+     * @param rowsUpdated is the number of rows that each statement reports as updated.
+     * @return this {@link StubConnectionFactory}.
+     */
+    public StubConnectionFactory whenUpdate(String sqlPrefix, int rowsUpdated) {
+        responders.add(new Responder(sqlPrefix, Collections::emptyList, rowsUpdated));
+        return this;
+    }
+
+    /**
+     * Creates a row for a stubbed result.
+     *
+     * @param namesAndValues are alternating column names and values, in column order.
+     * @return the row as a map of column name to value.
+     */
+    public static Map<String, Object> row(Object... namesAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            row.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return row;
+    }
+
+    @Override
+    public Publisher<? extends Connection> create() {
+        return Mono.just(connection);
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        // The dialect of the R2dbcEntityTemplate is resolved from this name
+        return () -> "PostgreSQL";
+    }
+
+    private Object answerConnection(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "createStatement":
+                return statement((String) args[0]);
+            case "getMetadata":
+                return proxy(ConnectionMetadata.class, (metadata, m, a) -> "PostgreSQL");
+            case "isAutoCommit":
+                return true;
+            case "getTransactionIsolationLevel":
+                return IsolationLevel.READ_COMMITTED;
+            case "validate":
+                return Mono.just(true);
+            default:
+                return empty(method);
+        }
+    }
+
+    private Statement statement(String sql) {
+        Responder responder = responders.stream()
+                .filter(candidate -> sql.regionMatches(true, 0, candidate.sqlPrefix, 0, candidate.sqlPrefix.length()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No stub response for SQL: " + sql));
+
+        return proxy(Statement.class, (statement, method, args) -> {
+            if (method.getName().equals("execute")) {
+                return Mono.just(result(responder));
+            }
+            // Bindings, fetch sizes and generated value requests do not change the stubbed result
+            return method.getReturnType().equals(Statement.class) ? statement : empty(method);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Result result(Responder responder) {
+        List<Map<String, Object>> rows = responder.rows.get();
+
+        return proxy(Result.class, (result, method, args) -> {
+            switch (method.getName()) {
+                case "getRowsUpdated":
+                    return Mono.just(responder.rowsUpdated >= 0 ? responder.rowsUpdated : rows.size());
+                case "map":
+                    if (args[0] instanceof BiFunction) {
+                        BiFunction<Row, RowMetadata, ?> mapper = (BiFunction<Row, RowMetadata, ?>) args[0];
+                        return Flux.fromIterable(rows).map(values -> {
+                            StubRow row = new StubRow(values);
+                            return mapper.apply(row.row, row.metadata);
+                        });
+                    }
+                    Function<Object, ?> mapper = (Function<Object, ?>) args[0];
+                    return Flux.fromIterable(rows).map(values -> mapper.apply(new StubRow(values).row));
+                case "filter":
+                    return result;
+                default:
+                    return empty(method);
+            }
+        });
+    }
+
+    private static Object empty(Method method) {
+        if (Publisher.class.isAssignableFrom(method.getReturnType())) {
+            return Mono.empty();
+        }
+        throw new UnsupportedOperationException("Not supported by the stub: " + method);
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Stub" + type.getSimpleName();
+                        default:
+                            return handler.invoke(proxy, method, args);
+                    }
+                }));
+    }
+
+    private static class Responder {
+
+        private final String sqlPrefix;
+        private final Supplier<List<Map<String, Object>>> rows;
+        private final int rowsUpdated;
+
+        private Responder(String sqlPrefix, Supplier<List<Map<String, Object>>> rows, int rowsUpdated) {
+            this.sqlPrefix = sqlPrefix;
+            this.rows = rows;
+            this.rowsUpdated = rowsUpdated;
+        }
+    }
+
+    private static class StubRow {
+
+        private final List<String> names;
+        private final List<Object> values;
+        private final List<ColumnMetadata> columns;
+        private final Row row;
+        private final RowMetadata metadata;
+
+        private StubRow(Map<String, Object> row) {
+            this.names = new ArrayList<>(row.keySet());
+            this.values = new ArrayList<>(row.values());
+            this.columns = new ArrayList<>(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                columns.add(column(names.get(i), values.get(i)));
+            }
+            this.metadata = proxy(RowMetadata.class, this::answerMetadata);
+            this.row = proxy(Row.class, this::answerRow);
+        }
+
+        private Object answerRow(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "get":
+                    Object value = values.get(index(args[0]));
+                    return args.length == 1 ? value : convert(value, (Class<?>) args[1]);
+                case "getMetadata":
+                    return metadata;
+                default:
+                    return empty(method);
+            }
+        }
+
+        private Object answerMetadata(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getColumnMetadata":
+                    return columns.get(index(args[0]));
+                case "getColumnMetadatas":
+                    return columns;
+                case "getColumnNames":
+                    return names;
+                case "contains":
+                    return names.stream().anyMatch(name -> name.equalsIgnoreCase((String) args[0]));
+                default:
+                    return empty(method);
+            }
+        }
+
+        private int index(Object column) {
+            if (column instanceof Integer) {
+                return (Integer) column;
+            }
+
+            for (int i = 0; i < names.size(); i++) {
+                if (names.get(i).equalsIgnoreCase((String) column)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+
+        private static ColumnMetadata column(String name, Object value) {
+            return proxy(ColumnMetadata.class, (column, method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return name;
+                    case "getJavaType":
+                        return value == null ? Object.class : value.getClass();
+                    case "getNullability":
+                        return Nullability.UNKNOWN;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private static Object convert(Object value, Class<?> type) {
+            if (value == null || type.isInstance(value)) {
+                return value;
+            }
+            if (value instanceof Number && (type == Long.class || type == long.class)) {
+                return ((Number) value).longValue();
+            }
+            if (value instanceof Number && (type == Integer.class || type == int.class)) {
+                return ((Number) value).intValue();
+            }
+            return type.cast(value);
+        }
+    }
+}
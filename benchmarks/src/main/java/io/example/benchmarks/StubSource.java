@@ -0,0 +1,30 @@
+package io.example.benchmarks;
+
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.messaging.MessageChannel;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory stand-in for the Kafka {@link Source} binding that acknowledges every message it is sent.
+ */
+public class StubSource implements Source {
+
+    private final LongAdder sent = new LongAdder();
+    private final MessageChannel output = (message, timeout) -> {
+        sent.increment();
+        return true;
+    };
+
+    @Override
+    public MessageChannel output() {
+        return output;
+    }
+
+    /**
+     * @return the number of messages that have been sent to the output channel.
+     */
+    public long sent() {
+        return sent.sum();
+    }
+}
@@ -0,0 +1,26 @@
+package io.example.benchmarks;
+
+import io.example.domain.user.User;
+import io.example.domain.user.UserClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * An in-memory stand-in for the {@link UserClient} that answers every lookup with a user, instead of calling the user
+ * service.
+ */
+public class StubUserClient extends UserClient {
+
+    public StubUserClient(MeterRegistry meterRegistry) {
+        super(WebClient.builder(), meterRegistry, false, 0, Duration.ZERO, Duration.ZERO, false, Duration.ZERO, 0,
+                0);
+    }
+
+    @Override
+    public Mono<User> getUser(Long userId) {
+        return Mono.just(new User(userId, "Jane", "Doe"));
+    }
+}
@@ -0,0 +1,135 @@
+package io.example.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.domain.User;
+import io.example.domain.UserController;
+import io.example.domain.UserNameIndex;
+import io.example.domain.UserService;
+import io.example.domain.UserVersions;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.idempotency.IdempotencyStore;
+import io.example.metrics.CommandMetrics;
+import io.example.outbox.OutboxService;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import reactor.core.publisher.Mono;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.example.benchmarks.StubConnectionFactory.row;
+
+/**
+ * Measures the reactive pipeline of the create user command, from the insert to the domain event that the controller
+ * appends to the outbox. The database is an in-memory stand-in, so the results reflect the cost of the pipeline
+ * itself rather than Postgres. The name index of the prefix search is loaded with {@value #INDEXED_USERS} generated
+ * users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserCommandBenchmark {
+
+    private static final Long USER_ID = 1L;
+    private static final int INDEXED_USERS = 100000;
+    private static final String[] FIRST_NAMES = {"Jane", "Jack", "James", "Janet", "John", "Julia", "Mary", "Mark"};
+    private static final String[] LAST_NAMES = {"Doe", "Dorsey", "Smith", "Jones", "Johnson", "Miller", "Davis"};
+
+    private UserService userService;
+    private UserController userController;
+    private String currentVersion;
+
+    @Setup
+    public void setup() {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        StubConnectionFactory database = new StubConnectionFactory()
+                .when("INSERT INTO users", () -> List.of(row("id", 1L, "first_name", "Jane", "last_name", "Doe",
+                        "created_at", now, "updated_at", now, "version", 1L)))
+                .when("INSERT INTO outbox", () -> List.of(row("id", 1L)))
+                .when("WITH stored", () -> List.of(row("id", 1L)))
+                .when("SELECT", () -> List.of(row("id", USER_ID, "first_name", "Jane", "last_name", "Doe",
+                        "created_at", now, "updated_at", now, "version", 1L)));
+        R2dbcEntityTemplate template = new R2dbcEntityTemplate(database);
+        ShardRouter shards = new ShardRouter(database, List.of());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UserVersions userVersions = new UserVersions(meterRegistry, 100000);
+        UserNameIndex userNameIndex = new UserNameIndex(template, meterRegistry, 100);
+        for (int i = 0; i < INDEXED_USERS; i++) {
+            User user = new User((long) i + 2, FIRST_NAMES[i % FIRST_NAMES.length] + (i % 97),
+                    LAST_NAMES[i % LAST_NAMES.length]);
+            user.setVersion(1L);
+            userNameIndex.index(user);
+        }
+
+        userService = new UserService(template, new R2dbcTransactionManager(database),
+                new CommandMetrics(meterRegistry), userVersions, userNameIndex, 1000);
+        userController = new UserController(new OutboxService(shards, objectMapper,
+                BinaryEventConverters.userService(), BinaryEventMessageConverter.CONTENT_TYPE, "user_event"),
+                userService, new IdempotencyStore(shards, objectMapper, meterRegistry, 10000, Duration.ofHours(24),
+                        Duration.ofMinutes(10)), userVersions, userNameIndex, 1000);
+        currentVersion = UserVersions.etag(now);
+
+        // Learn the version of the user, as the first read of the user does
+        userController.getUser(USER_ID, null).block();
+    }
+
+    /**
+     * The create user command as the controller runs it, including the outbox append.
+     */
+    @Benchmark
+    public User createUser() {
+        return userController.createUser(Mono.just(new User("Jane", "Doe")), null).block();
+    }
+
+    /**
+     * The {@link UserService#create} pipeline on its own, with a callback that does nothing.
+     */
+    @Benchmark
+    public User createUserWithoutEvent() {
+        return userService.create(new User("Jane", "Doe"), user -> Mono.empty()).block();
+    }
+
+    /**
+     * An unconditional read of a user, which queries the database.
+     */
+    @Benchmark
+    public Object getUser() {
+        return userController.getUser(USER_ID, null).block();
+    }
+
+    /**
+     * A conditional read of an unchanged user, which is answered from the user versions.
+     */
+    @Benchmark
+    public Object getUserNotModified() {
+        return userController.getUser(USER_ID, currentVersion).block();
+    }
+
+    /**
+     * A typeahead search with two prefixes, which is answered from the name index.
+     */
+    @Benchmark
+    public Object searchUsers() {
+        return userController.searchUsers("ja do", 10).collectList().block();
+    }
+}
@@ -0,0 +1,54 @@
+package io.example.event;
+
+import java.util.List;
+
+/**
+ * The base class of the event codecs, which writes and checks the schema header, and maps the names of the event
+ * types to the one byte codes that are written in their place.
+ *
+ * @param <R> is the type of the record that holds the fields of the event.
+ */
+abstract class AbstractEventCodec<R> implements EventCodec<R> {
+
+    private final int schemaId;
+    private final int version;
+    private final List<String> eventTypes;
+
+    AbstractEventCodec(int schemaId, int version, List<String> eventTypes) {
+        this.schemaId = schemaId;
+        this.version = version;
+        this.eventTypes = eventTypes;
+    }
+
+    EventWriter writeHeader(int capacity) {
+        return new EventWriter(capacity).writeByte(schemaId).writeByte(version);
+    }
+
+    EventReader readHeader(byte[] bytes) {
+        EventReader reader = new EventReader(bytes);
+        int id = reader.readByte();
+        if (id != schemaId) {
+            throw new EventFormatException(String.format("Expected an event of schema %d, but found schema %d",
+                    schemaId, id));
+        }
+        if (reader.readByte() < 1) {
+            throw new EventFormatException("The schema version must be at least 1");
+        }
+        return reader;
+    }
+
+    int eventTypeCode(String eventType) {
+        int index = eventTypes.indexOf(eventType);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown event type: " + eventType);
+        }
+        return index + 1;
+    }
+
+    String eventType(int code) {
+        if (code < 1 || code > eventTypes.size()) {
+            throw new EventFormatException("Unknown event type code: " + code);
+        }
+        return eventTypes.get(code - 1);
+    }
+}
@@ -0,0 +1,135 @@
+package io.example.event;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A {@link org.springframework.messaging.converter.MessageConverter} for the binary event format, which Spring Cloud
+ * Stream selects for a binding, or for a single message, with a {@code contentType} of {@value #CONTENT_TYPE}.
+ * <p>
+ * Each service registers the domain event classes that it produces or consumes, together with the {@link EventCodec}
+ * of their topic and the functions that map them to and from the fields of the codec. A payload that is already
+ * encoded is passed through, so events that were encoded when they were appended to an outbox are sent as they are.
+ */
+public class BinaryEventMessageConverter extends AbstractMessageConverter {
+
+    public static final String CONTENT_TYPE = "application/x-domain-event";
+    public static final MimeType MIME_TYPE = MimeType.valueOf(CONTENT_TYPE);
+
+    private final Map<Class<?>, Mapping<?, ?>> mappings = new LinkedHashMap<>();
+
+    public BinaryEventMessageConverter() {
+        super(MIME_TYPE);
+        // Without a content type header, a message is left to the converters of the binding's default content type
+        setStrictContentTypeMatch(true);
+    }
+
+    /**
+     * Registers a domain event class.
+     *
+     * @param eventClass is the domain event class.
+     * @param codec      is the codec of the topic that the event is sent to.
+     * @param toRecord   maps a domain event to the fields of the codec.
+     * @param fromRecord maps the fields of the codec to a domain event.
+     * @return this converter.
+     */
+    public <T, R> BinaryEventMessageConverter register(Class<T> eventClass, EventCodec<R> codec,
+                                                       Function<T, R> toRecord, Function<R, T> fromRecord) {
+        mappings.put(eventClass, new Mapping<>(codec, toRecord, fromRecord));
+        return this;
+    }
+
+    /**
+     * @param eventClass is a domain event class.
+     * @return true if the domain event class has been registered.
+     */
+    public boolean canEncode(Class<?> eventClass) {
+        return mappings.containsKey(eventClass);
+    }
+
+    /**
+     * Encodes a domain event of a registered class.
+     *
+     * @param event is the domain event to encode.
+     * @return the encoded event.
+     */
+    public byte[] encode(Object event) {
+        return mapping(event.getClass()).encode(event);
+    }
+
+    /**
+     * Decodes an event into a domain event of a registered class.
+     *
+     * @param bytes      is the encoded event.
+     * @param eventClass is the domain event class to decode into.
+     * @return the domain event.
+     */
+    public <T> T decode(byte[] bytes, Class<T> eventClass) {
+        return eventClass.cast(mapping(eventClass).decode(bytes));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == byte[].class || mappings.containsKey(clazz);
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (!(message.getPayload() instanceof byte[])) {
+            return null;
+        }
+
+        byte[] payload = (byte[]) message.getPayload();
+        if (targetClass == byte[].class) {
+            return payload;
+        }
+
+        try {
+            return decode(payload, targetClass);
+        } catch (IllegalArgumentException ex) {
+            throw new MessageConversionException(message, "Failed to decode a binary domain event", ex);
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        return payload instanceof byte[] ? payload : encode(payload);
+    }
+
+    private Mapping<?, ?> mapping(Class<?> eventClass) {
+        Mapping<?, ?> mapping = mappings.get(eventClass);
+        if (mapping == null) {
+            throw new IllegalArgumentException("No binary codec is registered for " + eventClass.getName());
+        }
+        return mapping;
+    }
+
+    private static class Mapping<T, R> {
+
+        private final EventCodec<R> codec;
+        private final Function<T, R> toRecord;
+        private final Function<R, T> fromRecord;
+
+        private Mapping(EventCodec<R> codec, Function<T, R> toRecord, Function<R, T> fromRecord) {
+            this.codec = codec;
+            this.toRecord = toRecord;
+            this.fromRecord = fromRecord;
+        }
+
+        @SuppressWarnings("unchecked")
+        private byte[] encode(Object event) {
+            return codec.encode(toRecord.apply((T) event));
+        }
+
+        private T decode(byte[] bytes) {
+            return fromRecord.apply(codec.decode(bytes));
+        }
+    }
+}
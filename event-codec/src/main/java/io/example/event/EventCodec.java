@@ -0,0 +1,36 @@
+package io.example.event;
+
+/**
+ * Encodes one kind of domain event to, and decodes it from, the compact binary format that is used on the Kafka
+ * topics. Every encoded event starts with a two byte header: the ID of the schema, which identifies the kind of event,
+ * and the version of the schema that it was written with.
+ * <p>
+ * A new version of a schema may only append fields. A reader reads the fields of the versions it knows and ignores
+ * the rest, so producers can be upgraded before consumers.
+ *
+ * @param <R> is the type of the record that holds the fields of the event.
+ */
+public interface EventCodec<R> {
+
+    /**
+     * @return the type of the record that this codec encodes.
+     */
+    Class<R> getRecordType();
+
+    /**
+     * Encodes an event with the current version of the schema.
+     *
+     * @param record is the event to encode.
+     * @return the encoded event.
+     */
+    byte[] encode(R record);
+
+    /**
+     * Decodes an event that was written with any version of the schema.
+     *
+     * @param bytes is the encoded event.
+     * @return the decoded event.
+     * @throws EventFormatException if the bytes are not an event of this schema.
+     */
+    R decode(byte[] bytes);
+}
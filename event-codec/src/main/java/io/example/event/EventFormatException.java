@@ -0,0 +1,11 @@
+package io.example.event;
+
+/**
+ * Thrown when an encoded event cannot be decoded, because it is truncated, malformed, or of a different schema.
+ */
+public class EventFormatException extends IllegalArgumentException {
+
+    public EventFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,54 @@
+package io.example.event;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of an encoded event in the order that the {@link EventWriter} wrote them.
+ */
+class EventReader {
+
+    private final byte[] buffer;
+    private int position;
+
+    EventReader(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    int readByte() {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    long readLong() {
+        long value = readUnsignedLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    String readString() {
+        long length = readUnsignedLong();
+        if (length > buffer.length - position) {
+            throw new EventFormatException("The string length exceeds the encoded event");
+        }
+        String value = new String(buffer, position, (int) length, StandardCharsets.UTF_8);
+        position += (int) length;
+        return value;
+    }
+
+    private long readUnsignedLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EventFormatException("A variable-length integer is longer than 10 bytes");
+    }
+
+    private void require(int length) {
+        if (position + length > buffer.length) {
+            throw new EventFormatException("The encoded event is truncated");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package io.example.event;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the fields of an encoded event into a growable byte array. Integers are written as variable-length
+ * quantities, so small IDs and enum codes take a single byte, and signed values are zigzag-encoded first.
+ */
+class EventWriter {
+
+    private byte[] buffer;
+    private int position;
+
+    EventWriter(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    EventWriter writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    EventWriter writeLong(long value) {
+        return writeUnsignedLong((value << 1) ^ (value >> 63));
+    }
+
+    EventWriter writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeUnsignedLong(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private EventWriter writeUnsignedLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+        }
+    }
+}
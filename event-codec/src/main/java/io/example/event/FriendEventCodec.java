@@ -0,0 +1,64 @@
+package io.example.event;
+
+import java.util.List;
+
+/**
+ * The codec of the friend topic, schema 1. Version 1 of the schema is laid out as follows, after the header:
+ * <pre>
+ * flags       byte    bit 0: createdAt is present, bit 1: updatedAt is present
+ * eventType   byte    1: FRIEND_ADDED, 2: FRIEND_REMOVED
+ * userId      varlong
+ * friendId    varlong
+ * createdAt   varlong if present
+ * updatedAt   varlong if present
+ * </pre>
+ */
+public final class FriendEventCodec extends AbstractEventCodec<FriendEventRecord> {
+
+    public static final int SCHEMA_ID = 1;
+    public static final int VERSION = 1;
+    public static final FriendEventCodec INSTANCE = new FriendEventCodec();
+
+    private static final int CREATED_AT = 1;
+    private static final int UPDATED_AT = 1 << 1;
+
+    private FriendEventCodec() {
+        super(SCHEMA_ID, VERSION, List.of("FRIEND_ADDED", "FRIEND_REMOVED"));
+    }
+
+    @Override
+    public Class<FriendEventRecord> getRecordType() {
+        return FriendEventRecord.class;
+    }
+
+    @Override
+    public byte[] encode(FriendEventRecord record) {
+        int flags = (record.getCreatedAt() != null ? CREATED_AT : 0) |
+                (record.getUpdatedAt() != null ? UPDATED_AT : 0);
+
+        EventWriter writer = writeHeader(48)
+                .writeByte(flags)
+                .writeByte(eventTypeCode(record.getEventType()))
+                .writeLong(record.getUserId())
+                .writeLong(record.getFriendId());
+        if (record.getCreatedAt() != null) {
+            writer.writeLong(record.getCreatedAt());
+        }
+        if (record.getUpdatedAt() != null) {
+            writer.writeLong(record.getUpdatedAt());
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public FriendEventRecord decode(byte[] bytes) {
+        EventReader reader = readHeader(bytes);
+        int flags = reader.readByte();
+        String eventType = eventType(reader.readByte());
+        long userId = reader.readLong();
+        long friendId = reader.readLong();
+        Long createdAt = (flags & CREATED_AT) != 0 ? reader.readLong() : null;
+        Long updatedAt = (flags & UPDATED_AT) != 0 ? reader.readLong() : null;
+        return new FriendEventRecord(eventType, userId, friendId, createdAt, updatedAt);
+    }
+}
@@ -0,0 +1,71 @@
+package io.example.event;
+
+import java.util.Objects;
+
+/**
+ * The fields of an event on the friend topic. Timestamps are milliseconds since the epoch, and are null when unknown.
+ */
+public final class FriendEventRecord {
+
+    private final String eventType;
+    private final long userId;
+    private final long friendId;
+    private final Long createdAt;
+    private final Long updatedAt;
+
+    public FriendEventRecord(String eventType, long userId, long friendId, Long createdAt, Long updatedAt) {
+        this.eventType = Objects.requireNonNull(eventType, "The event type must not be null");
+        this.userId = userId;
+        this.friendId = friendId;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getFriendId() {
+        return friendId;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "FriendEventRecord{" +
+                "eventType='" + eventType + '\'' +
+                ", userId=" + userId +
+                ", friendId=" + friendId +
+                ", createdAt=" + createdAt +
+                ", updatedAt=" + updatedAt +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FriendEventRecord that = (FriendEventRecord) o;
+        return userId == that.userId &&
+                friendId == that.friendId &&
+                eventType.equals(that.eventType) &&
+                Objects.equals(createdAt, that.createdAt) &&
+                Objects.equals(updatedAt, that.updatedAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(eventType, userId, friendId, createdAt, updatedAt);
+    }
+}
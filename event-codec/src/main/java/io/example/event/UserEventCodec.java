@@ -0,0 +1,86 @@
+package io.example.event;
+
+import java.util.List;
+
+/**
+ * The codec of the user topic, schema 2. Version 1 of the schema is laid out as follows, after the header:
+ * <pre>
+ * flags        byte    bit 0: firstName, bit 1: lastName, bit 2: createdAt, bit 3: lastModified is present
+ * eventType    byte    1: USER_CREATED, 2: USER_UPDATED
+ * userId       varlong
+ * firstName    varint length and UTF-8 bytes, if present
+ * lastName     varint length and UTF-8 bytes, if present
+ * createdAt    varlong if present
+ * lastModified varlong if present
+ * </pre>
+ * Version 2 appends the version of the user, and flags its presence with bit 4:
+ * <pre>
+ * version      varlong if present
+ * </pre>
+ */
+public final class UserEventCodec extends AbstractEventCodec<UserEventRecord> {
+
+    public static final int SCHEMA_ID = 2;
+    public static final int VERSION = 2;
+    public static final UserEventCodec INSTANCE = new UserEventCodec();
+
+    private static final int FIRST_NAME = 1;
+    private static final int LAST_NAME = 1 << 1;
+    private static final int CREATED_AT = 1 << 2;
+    private static final int LAST_MODIFIED = 1 << 3;
+    private static final int USER_VERSION = 1 << 4;
+
+    private UserEventCodec() {
+        super(SCHEMA_ID, VERSION, List.of("USER_CREATED", "USER_UPDATED"));
+    }
+
+    @Override
+    public Class<UserEventRecord> getRecordType() {
+        return UserEventRecord.class;
+    }
+
+    @Override
+    public byte[] encode(UserEventRecord record) {
+        int flags = (record.getFirstName() != null ? FIRST_NAME : 0) |
+                (record.getLastName() != null ? LAST_NAME : 0) |
+                (record.getCreatedAt() != null ? CREATED_AT : 0) |
+                (record.getLastModified() != null ? LAST_MODIFIED : 0) |
+                (record.getVersion() != null ? USER_VERSION : 0);
+
+        EventWriter writer = writeHeader(64)
+                .writeByte(flags)
+                .writeByte(eventTypeCode(record.getEventType()))
+                .writeLong(record.getUserId());
+        if (record.getFirstName() != null) {
+            writer.writeString(record.getFirstName());
+        }
+        if (record.getLastName() != null) {
+            writer.writeString(record.getLastName());
+        }
+        if (record.getCreatedAt() != null) {
+            writer.writeLong(record.getCreatedAt());
+        }
+        if (record.getLastModified() != null) {
+            writer.writeLong(record.getLastModified());
+        }
+        if (record.getVersion() != null) {
+            writer.writeLong(record.getVersion());
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public UserEventRecord decode(byte[] bytes) {
+        EventReader reader = readHeader(bytes);
+        int flags = reader.readByte();
+        String eventType = eventType(reader.readByte());
+        long userId = reader.readLong();
+        String firstName = (flags & FIRST_NAME) != 0 ? reader.readString() : null;
+        String lastName = (flags & LAST_NAME) != 0 ? reader.readString() : null;
+        Long createdAt = (flags & CREATED_AT) != 0 ? reader.readLong() : null;
+        Long lastModified = (flags & LAST_MODIFIED) != 0 ? reader.readLong() : null;
+        // Version 1 never sets the flag of the version
+        Long version = (flags & USER_VERSION) != 0 ? reader.readLong() : null;
+        return new UserEventRecord(eventType, userId, firstName, lastName, createdAt, lastModified, version);
+    }
+}
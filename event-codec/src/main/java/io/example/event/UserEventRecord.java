@@ -0,0 +1,90 @@
+package io.example.event;
+
+import java.util.Objects;
+
+/**
+ * The fields of an event on the user topic. Timestamps are milliseconds since the epoch, and are null when unknown.
+ * The version is the version of the user after the event, and is null for events that were written before users were
+ * versioned.
+ */
+public final class UserEventRecord {
+
+    private final String eventType;
+    private final long userId;
+    private final String firstName;
+    private final String lastName;
+    private final Long createdAt;
+    private final Long lastModified;
+    private final Long version;
+
+    public UserEventRecord(String eventType, long userId, String firstName, String lastName, Long createdAt,
+                           Long lastModified, Long version) {
+        this.eventType = Objects.requireNonNull(eventType, "The event type must not be null");
+        this.userId = userId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.createdAt = createdAt;
+        this.lastModified = lastModified;
+        this.version = version;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getLastModified() {
+        return lastModified;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "UserEventRecord{" +
+                "eventType='" + eventType + '\'' +
+                ", userId=" + userId +
+                ", firstName='" + firstName + '\'' +
+                ", lastName='" + lastName + '\'' +
+                ", createdAt=" + createdAt +
+                ", lastModified=" + lastModified +
+                ", version=" + version +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserEventRecord that = (UserEventRecord) o;
+        return userId == that.userId &&
+                eventType.equals(that.eventType) &&
+                Objects.equals(firstName, that.firstName) &&
+                Objects.equals(lastName, that.lastName) &&
+                Objects.equals(createdAt, that.createdAt) &&
+                Objects.equals(lastModified, that.lastModified) &&
+                Objects.equals(version, that.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(eventType, userId, firstName, lastName, createdAt, lastModified, version);
+    }
+}
@@ -0,0 +1,82 @@
+package io.example.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FriendEventCodecTest {
+
+    private final FriendEventCodec codec = FriendEventCodec.INSTANCE;
+
+    @Test
+    public void decodeReturnsTheEncodedRecord() {
+        FriendEventRecord record = new FriendEventRecord("FRIEND_ADDED", 1L, Long.MAX_VALUE, 1_600_000_000_000L,
+                1_600_000_000_001L);
+
+        assertEquals(record, codec.decode(codec.encode(record)));
+    }
+
+    @Test
+    public void decodeReturnsTheEncodedRecordWithoutTimestamps() {
+        FriendEventRecord record = new FriendEventRecord("FRIEND_REMOVED", 0L, -1L, null, null);
+
+        assertEquals(record, codec.decode(codec.encode(record)));
+    }
+
+    @Test
+    public void encodeWritesTheSchemaHeader() {
+        byte[] bytes = codec.encode(new FriendEventRecord("FRIEND_ADDED", 1L, 2L, null, null));
+
+        assertEquals(FriendEventCodec.SCHEMA_ID, bytes[0]);
+        assertEquals(FriendEventCodec.VERSION, bytes[1]);
+    }
+
+    @Test
+    public void decodeAcceptsANewerVersionOfTheSchema() {
+        FriendEventRecord record = new FriendEventRecord("FRIEND_ADDED", 1L, 2L, 3L, null);
+        byte[] bytes = codec.encode(record);
+        bytes[1] = FriendEventCodec.VERSION + 1;
+
+        assertEquals(record, codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeRejectsAnotherSchema() {
+        byte[] bytes = UserEventCodec.INSTANCE.encode(new UserEventRecord("USER_CREATED", 1L, "Jane", "Doe", null,
+                null, 1L));
+
+        assertThrows(EventFormatException.class, () -> codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeRejectsVersionZero() {
+        byte[] bytes = codec.encode(new FriendEventRecord("FRIEND_ADDED", 1L, 2L, null, null));
+        bytes[1] = 0;
+
+        assertThrows(EventFormatException.class, () -> codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeRejectsAnUnknownEventTypeCode() {
+        byte[] bytes = codec.encode(new FriendEventRecord("FRIEND_ADDED", 1L, 2L, null, null));
+        bytes[3] = 3;
+
+        assertThrows(EventFormatException.class, () -> codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeRejectsATruncatedEvent() {
+        byte[] bytes = codec.encode(new FriendEventRecord("FRIEND_ADDED", 1L, 2L, 3L, 4L));
+
+        assertThrows(EventFormatException.class, () -> codec.decode(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    public void encodeRejectsAnUnknownEventType() {
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new FriendEventRecord("FRIEND_UPDATED", 1L,
+                2L, null, null)));
+    }
+}
@@ -0,0 +1,71 @@
+package io.example.event;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class UserEventCodecTest {
+
+    private final UserEventCodec codec = UserEventCodec.INSTANCE;
+
+    @Test
+    public void decodeReturnsTheEncodedRecord() {
+        UserEventRecord record = new UserEventRecord("USER_UPDATED", 42L, "Zoë", "Ångström", 1_600_000_000_000L,
+                1_600_000_000_001L, 7L);
+
+        assertEquals(record, codec.decode(codec.encode(record)));
+    }
+
+    @Test
+    public void decodeReturnsTheEncodedRecordWithoutOptionalFields() {
+        UserEventRecord record = new UserEventRecord("USER_CREATED", 1L, null, null, null, null, null);
+
+        assertEquals(record, codec.decode(codec.encode(record)));
+    }
+
+    @Test
+    public void decodeReturnsEmptyNames() {
+        UserEventRecord record = new UserEventRecord("USER_CREATED", 1L, "", "", null, null, 1L);
+
+        assertEquals(record, codec.decode(codec.encode(record)));
+    }
+
+    @Test
+    public void decodeReadsVersionOneEventsWithoutAUserVersion() {
+        // Version 1 of the schema has the same layout without the version of the user
+        UserEventRecord record = new UserEventRecord("USER_CREATED", 1L, "Jane", "Doe", 2L, 3L, null);
+        byte[] bytes = codec.encode(record);
+        bytes[1] = 1;
+
+        UserEventRecord decoded = codec.decode(bytes);
+
+        assertEquals(record, decoded);
+        assertNull(decoded.getVersion());
+    }
+
+    @Test
+    public void encodeWritesTheSchemaHeader() {
+        byte[] bytes = codec.encode(new UserEventRecord("USER_CREATED", 1L, null, null, null, null, null));
+
+        assertEquals(UserEventCodec.SCHEMA_ID, bytes[0]);
+        assertEquals(UserEventCodec.VERSION, bytes[1]);
+    }
+
+    @Test
+    public void decodeRejectsAnotherSchema() {
+        byte[] bytes = FriendEventCodec.INSTANCE.encode(new FriendEventRecord("FRIEND_ADDED", 1L, 2L, null, null));
+
+        assertThrows(EventFormatException.class, () -> codec.decode(bytes));
+    }
+
+    @Test
+    public void decodeRejectsANameLongerThanTheEvent() {
+        byte[] bytes = codec.encode(new UserEventRecord("USER_CREATED", 1L, "Jane", null, null, null, null));
+        // The length of the first name follows the header, the flags, the event type and the one byte user ID
+        bytes[5] = 100;
+
+        assertThrows(EventFormatException.class, () -> codec.decode(bytes));
+    }
+}
@@ -1,9 +1,17 @@
 package io.example.config;
 
+import io.example.metrics.TimedConnectionFactory;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionFactory;
 import io.r2dbc.spi.ConnectionFactory;
+import liquibase.integration.spring.SpringLiquibase;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.r2dbc.ConnectionPoolMetrics;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.boot.autoconfigure.liquibase.LiquibaseDataSource;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -14,14 +22,25 @@ import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
 import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.transaction.ReactiveTransactionManager;
+import reactor.util.Logger;
+import reactor.util.Loggers;
 
 import javax.sql.DataSource;
 import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class configures reactive database access using R2DBC with Postgres. Since R2DBC does not allow using JPA
  * repositories, schema creation must be handled manually or using a tool, like Liquibase. This class configures R2DBC
  * while also configuring Liquibase to be able to manage the schema creation and migration.
+ * <p>
+ * The friend data can be hash-partitioned across several Postgres databases. The database configured by
+ * {@code postgres.host} is shard 0, and {@code postgres.shards} lists the {@code host:port} of any additional shards,
+ * which share its database name and credentials.
  *
  * @author Kenny Bastani
  */
@@ -42,10 +61,38 @@ public class DataSourceConfiguration extends AbstractR2dbcConfiguration {
 	@Value("${spring.application.name}")
 	private String applicationName;
 
+	@Value("${postgres.shards:}")
+	private String[] shardAddresses;
+
+	@Value("${spring.liquibase.enabled:true}")
+	private boolean liquibaseEnabled;
+
+	@Value("${spring.liquibase.contexts:}")
+	private String liquibaseContexts;
+
+	@Value("${postgres.pool.initial-size:10}")
+	private Integer poolInitialSize;
+
+	@Value("${postgres.pool.min-idle:10}")
+	private Integer poolMinIdle;
+
+	@Value("${postgres.pool.max-size:20}")
+	private Integer poolMaxSize;
+
+	@Value("${postgres.pool.max-idle-time:30m}")
+	private Duration poolMaxIdleTime;
+
+	@Value("${postgres.pool.max-acquire-time:5s}")
+	private Duration poolMaxAcquireTime;
+
+	private final Logger logger = Loggers.getLogger(DataSourceConfiguration.class);
+
 	private DataSourceProperties dataSourceProperties;
+	private MeterRegistry meterRegistry;
 
-	DataSourceConfiguration(DataSourceProperties dataSourceProperties) {
+	DataSourceConfiguration(DataSourceProperties dataSourceProperties, MeterRegistry meterRegistry) {
 		this.dataSourceProperties = dataSourceProperties;
+		this.meterRegistry = meterRegistry;
 	}
 
 	@Bean
@@ -53,18 +100,69 @@ public class DataSourceConfiguration extends AbstractR2dbcConfiguration {
 		return new R2dbcEntityTemplate(connectionFactory);
 	}
 
+	/**
+	 * The reactive transaction manager of shard 0. Declaring it here keeps the JDBC {@link DataSource}, which is only
+	 * used by Liquibase, from contributing a blocking transaction manager under the same name.
+	 */
 	@Bean
+	public ReactiveTransactionManager transactionManager(ConnectionFactory connectionFactory) {
+		return new R2dbcTransactionManager(connectionFactory);
+	}
+
+	/**
+	 * A pool of Postgres connections, so that reactive queries reuse open connections instead of paying for a TCP and
+	 * authentication handshake each time. The pool is warmed up to its initial size at startup, and the actuator
+	 * binds the {@code r2dbc.pool.*} gauges for it. The {@code r2dbc.pool.acquire} timer records how long callers wait
+	 * for a connection.
+	 */
+	@Bean(destroyMethod = "dispose")
 	public ConnectionFactory connectionFactory() {
-		return getPostgresqlConnectionFactory();
+		return new TimedConnectionFactory(getConnectionPool(applicationName, postgresHost, postgresPort),
+				meterRegistry, "connectionFactory");
+	}
+
+	/**
+	 * Routes the friend data to shard 0, which is the {@link #connectionFactory()}, or to one of the additional shards.
+	 * Each additional shard has a connection pool of its own that is configured like the one of shard 0.
+	 */
+	@Bean(destroyMethod = "dispose")
+	public ShardRouter shardRouter(ConnectionFactory connectionFactory) {
+		List<ConnectionFactory> secondaries = new ArrayList<>();
+		for (String address : shardAddresses) {
+			String name = "shard" + (secondaries.size() + 1);
+			ConnectionPool pool = getConnectionPool(applicationName + "-" + name, host(address), port(address));
+			new ConnectionPoolMetrics(pool, name, Tags.empty()).bindTo(meterRegistry);
+			secondaries.add(new TimedConnectionFactory(pool, meterRegistry, name));
+		}
+		return new ShardRouter(connectionFactory, secondaries);
+	}
+
+	private ConnectionPool getConnectionPool(String name, String host, int port) {
+		ConnectionPool pool = new ConnectionPool(ConnectionPoolConfiguration.builder(
+						getPostgresqlConnectionFactory(host, port))
+				.name(name)
+				.initialSize(poolInitialSize)
+				.minIdle(poolMinIdle)
+				.maxSize(poolMaxSize)
+				.maxIdleTime(poolMaxIdleTime)
+				.maxAcquireTime(poolMaxAcquireTime)
+				.build());
+
+		pool.warmup().subscribe(
+				warmed -> logger.info(String.format("Warmed up %d Postgres connections to %s:%d", warmed, host, port)),
+				ex -> logger.warn(String.format("Failed to warm up the Postgres connection pool of %s:%d", host, port),
+						ex));
+
+		return pool;
 	}
 
 	@NotNull
-	private PostgresqlConnectionFactory getPostgresqlConnectionFactory() {
+	private PostgresqlConnectionFactory getPostgresqlConnectionFactory(String host, int port) {
 		return new PostgresqlConnectionFactory(PostgresqlConnectionConfiguration.builder()
 				.applicationName(applicationName)
 				.database(databaseName)
-				.host(postgresHost)
-				.port(postgresPort)
+				.host(host)
+				.port(port)
 				.username(dataSourceProperties.getUsername())
 				.password(dataSourceProperties.getPassword()).build());
 	}
@@ -76,4 +174,37 @@ public class DataSourceConfiguration extends AbstractR2dbcConfiguration {
 		return new SimpleDriverDataSource(new org.postgresql.Driver(), properties.getUrl(),
 				properties.getUsername(), properties.getPassword());
 	}
+
+	/**
+	 * Migrates the schema of every shard, which replaces the Liquibase migration that Spring Boot would otherwise run
+	 * on shard 0 only. Shard 0 is migrated through the {@code spring.liquibase} connection settings.
+	 */
+	@Bean
+	public SpringLiquibase liquibase(@Value("${spring.liquibase.url:${spring.datasource.url}}") String url,
+			@Value("${spring.liquibase.user:${spring.datasource.username:}}") String user,
+			@Value("${spring.liquibase.password:${spring.datasource.password:}}") String password) {
+		List<DataSource> shards = new ArrayList<>();
+		shards.add(new SimpleDriverDataSource(new org.postgresql.Driver(), url, user, password));
+		for (String address : shardAddresses) {
+			shards.add(new SimpleDriverDataSource(new org.postgresql.Driver(),
+					String.format("jdbc:postgresql://%s:%d/%s", host(address), port(address), databaseName),
+					user, password));
+		}
+
+		ShardedLiquibase liquibase = new ShardedLiquibase(shards);
+		liquibase.setChangeLog("classpath:/db/changelog/db.changelog-master.yaml");
+		liquibase.setContexts(liquibaseContexts.isEmpty() ? null : liquibaseContexts);
+		liquibase.setShouldRun(liquibaseEnabled);
+		return liquibase;
+	}
+
+	private static String host(String address) {
+		int separator = address.lastIndexOf(':');
+		return (separator < 0 ? address : address.substring(0, separator)).trim();
+	}
+
+	private int port(String address) {
+		int separator = address.lastIndexOf(':');
+		return separator < 0 ? postgresPort : Integer.parseInt(address.substring(separator + 1).trim());
+	}
 }
\ No newline at end of file
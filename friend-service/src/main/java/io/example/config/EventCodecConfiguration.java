@@ -0,0 +1,67 @@
+package io.example.config;
+
+import io.example.domain.friend.EventType;
+import io.example.domain.friend.Friend;
+import io.example.domain.friend.FriendEvent;
+import io.example.domain.user.User;
+import io.example.domain.user.UserEvent;
+import io.example.domain.user.UserEventType;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.event.FriendEventCodec;
+import io.example.event.FriendEventRecord;
+import io.example.event.UserEventCodec;
+import io.example.event.UserEventRecord;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Registers the domain events of this service with the binary event format. Spring Cloud Stream uses the converter
+ * for the messages of any binding, or any single message, with a content type of
+ * {@value BinaryEventMessageConverter#CONTENT_TYPE}: the {@link FriendEvent}s that the outbox relays to the friend
+ * topic, and the {@link UserEvent}s that are consumed from the user topic.
+ */
+@Configuration
+public class EventCodecConfiguration {
+
+	@Bean
+	public BinaryEventMessageConverter binaryEventMessageConverter() {
+		return new BinaryEventMessageConverter()
+				.register(FriendEvent.class, FriendEventCodec.INSTANCE,
+						event -> new FriendEventRecord(event.getEventType().name(), event.getSubject().getUserId(),
+								event.getSubject().getFriendId(), millis(event.getSubject().getCreatedAt()),
+								millis(event.getSubject().getUpdatedAt())),
+						record -> {
+							Friend friend = new Friend(record.getUserId(), record.getFriendId());
+							friend.setCreatedAt(timestamp(record.getCreatedAt()));
+							friend.setUpdatedAt(timestamp(record.getUpdatedAt()));
+							return new FriendEvent(friend, EventType.valueOf(record.getEventType()));
+						})
+				.register(UserEvent.class, UserEventCodec.INSTANCE,
+						event -> new UserEventRecord(event.getEventType().name(), event.getSubject().getId(),
+								event.getSubject().getFirstName(), event.getSubject().getLastName(),
+								millis(event.getSubject().getCreatedAt()),
+								millis(event.getSubject().getLastModified()), event.getVersion()),
+						record -> {
+							UserEvent event = new UserEvent(new User(record.getUserId(), record.getFirstName(),
+									record.getLastName(), date(record.getCreatedAt()), date(record.getLastModified())),
+									UserEventType.valueOf(record.getEventType()));
+							event.setVersion(record.getVersion());
+							return event;
+						});
+	}
+
+	private static Long millis(Date date) {
+		return date == null ? null : date.getTime();
+	}
+
+	private static Timestamp timestamp(Long millis) {
+		return millis == null ? null : new Timestamp(millis);
+	}
+
+	private static Date date(Long millis) {
+		return millis == null ? null : new Date(millis);
+	}
+}
@@ -0,0 +1,41 @@
+package io.example.config;
+
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link SpringLiquibase} that applies the same change log to the database of every shard, one after another. Each
+ * migration is passed the {@code shard.index} and {@code shard.count} change log parameters, which the change log uses
+ * to interleave the friend ID sequences of the shards.
+ */
+public class ShardedLiquibase extends SpringLiquibase {
+
+	private final List<DataSource> shards;
+
+	public ShardedLiquibase(List<DataSource> shards) {
+		this.shards = List.copyOf(shards);
+	}
+
+	@Override
+	public void afterPropertiesSet() throws LiquibaseException {
+		if (!shouldRun) {
+			return;
+		}
+
+		for (int index = 0; index < shards.size(); index++) {
+			SpringLiquibase shard = new SpringLiquibase();
+			shard.setDataSource(shards.get(index));
+			shard.setChangeLog(getChangeLog());
+			shard.setContexts(getContexts());
+			shard.setResourceLoader(getResourceLoader());
+			shard.setChangeLogParameters(Map.of(
+					"shard.index", String.valueOf(index),
+					"shard.count", String.valueOf(shards.size())));
+			shard.afterPropertiesSet();
+		}
+	}
+}
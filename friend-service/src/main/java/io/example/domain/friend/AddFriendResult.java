@@ -0,0 +1,94 @@
+package io.example.domain.friend;
+
+import org.springframework.http.HttpStatus;
+
+import java.util.Objects;
+
+/**
+ * The outcome of adding a single friend as part of a bulk {@code addFriends} command.
+ *
+ * @see FriendController#addFriends(Long, java.util.List)
+ */
+public class AddFriendResult {
+
+	private Long friendId;
+	private HttpStatus status;
+	private String message;
+	private Friend friend;
+
+	public AddFriendResult() {
+	}
+
+	public AddFriendResult(Long friendId, HttpStatus status, String message, Friend friend) {
+		this.friendId = friendId;
+		this.status = status;
+		this.message = message;
+		this.friend = friend;
+	}
+
+	public static AddFriendResult created(Friend friend) {
+		return new AddFriendResult(friend.getFriendId(), HttpStatus.CREATED, null, friend);
+	}
+
+	public static AddFriendResult rejected(Long friendId, HttpStatus status, String message) {
+		return new AddFriendResult(friendId, status, message, null);
+	}
+
+	public Long getFriendId() {
+		return friendId;
+	}
+
+	public void setFriendId(Long friendId) {
+		this.friendId = friendId;
+	}
+
+	public HttpStatus getStatus() {
+		return status;
+	}
+
+	public void setStatus(HttpStatus status) {
+		this.status = status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public Friend getFriend() {
+		return friend;
+	}
+
+	public void setFriend(Friend friend) {
+		this.friend = friend;
+	}
+
+	@Override
+	public String toString() {
+		return "AddFriendResult{" +
+				"friendId=" + friendId +
+				", status=" + status +
+				", message='" + message + '\'' +
+				", friend=" + friend +
+				'}';
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		AddFriendResult that = (AddFriendResult) o;
+		return Objects.equals(friendId, that.friendId) &&
+				status == that.status &&
+				Objects.equals(message, that.message) &&
+				Objects.equals(friend, that.friend);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(friendId, status, message, friend);
+	}
+}
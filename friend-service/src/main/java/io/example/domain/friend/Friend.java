@@ -30,6 +30,9 @@ public class Friend {
 	@Column(value = "updated_at")
 	private Timestamp updatedAt;
 
+	@Column(value = "version")
+	private Long version;
+
 	public Friend() {
 	}
 
@@ -84,6 +87,14 @@ public class Friend {
 		this.updatedAt = updatedAt;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	@Override
 	public String toString() {
 		return "Friend{" +
@@ -92,6 +103,7 @@ public class Friend {
 				", friendId=" + friendId +
 				", createdAt=" + createdAt +
 				", updatedAt=" + updatedAt +
+				", version=" + version +
 				'}';
 	}
 
@@ -104,12 +116,13 @@ public class Friend {
 				Objects.equals(userId, friend.userId) &&
 				Objects.equals(friendId, friend.friendId) &&
 				Objects.equals(createdAt, friend.createdAt) &&
-				Objects.equals(updatedAt, friend.updatedAt);
+				Objects.equals(updatedAt, friend.updatedAt) &&
+				Objects.equals(version, friend.version);
 	}
 
 	@Override
 	public int hashCode() {
 
-		return Objects.hash(id, userId, friendId, createdAt, updatedAt);
+		return Objects.hash(id, userId, friendId, createdAt, updatedAt, version);
 	}
 }
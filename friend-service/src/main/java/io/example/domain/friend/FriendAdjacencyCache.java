@@ -0,0 +1,157 @@
+package io.example.domain.friend;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.example.transaction.Transactions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * An optional read-through cache of the friend IDs of each user. The friend IDs of a user are kept as one sorted
+ * {@code long[]} block, and the cache is bounded by the total number of friend IDs across all of its blocks.
+ * <p>
+ * When this service adds or removes friendships, the affected blocks are updated in place once the transaction has
+ * committed, so the cache does not need to be reloaded from the database. Changes that are made by other instances of
+ * the service are picked up when a block expires.
+ */
+@Component
+public class FriendAdjacencyCache {
+
+    // The approximate cost of a cache entry apart from its friend IDs: the array header, key, future and cache node
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final AsyncCache<Long, long[]> adjacency;
+
+    public FriendAdjacencyCache(MeterRegistry meterRegistry,
+                                @Value("${friend.cache.enabled:false}") boolean enabled,
+                                @Value("${friend.cache.maximum-entries:1000000}") long maximumEntries,
+                                @Value("${friend.cache.ttl:10m}") Duration ttl) {
+        if (!enabled) {
+            this.adjacency = null;
+            return;
+        }
+
+        this.adjacency = Caffeine.newBuilder()
+                .maximumWeight(maximumEntries)
+                .weigher((Long userId, long[] friendIds) -> Math.max(friendIds.length, 1))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, adjacency.synchronous(), "friends");
+        Gauge.builder("friend.cache.hit.ratio", adjacency, cache -> cache.synchronous().stats().hitRate())
+                .description("The ratio of friend list reads that were served from the cache")
+                .register(meterRegistry);
+        Gauge.builder("friend.cache.entries", adjacency, this::entries)
+                .description("The number of friend IDs held by the cache")
+                .register(meterRegistry);
+        Gauge.builder("friend.cache.memory", adjacency, cache -> entries(cache) * Long.BYTES +
+                        cache.synchronous().estimatedSize() * ENTRY_OVERHEAD_BYTES)
+                .description("An estimate of the heap used by the cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Gets the sorted friend IDs of a user, loading them on a miss. Concurrent misses for the same user share one load.
+     *
+     * @param userId is the ID of the user to get the friend IDs of.
+     * @param loader is a function that loads the sorted friend IDs of a user from the database.
+     * @return a {@link Mono<long[]>} that emits the sorted friend IDs, which must not be modified.
+     */
+    public Mono<long[]> get(Long userId, Function<Long, Mono<long[]>> loader) {
+        if (adjacency == null) {
+            return loader.apply(userId);
+        }
+
+        CompletableFuture<long[]> friendIds = adjacency.get(userId, (key, executor) -> loader.apply(key).toFuture());
+        // Subscribe to a dependent future so that a cancelled subscriber does not cancel the shared load
+        return Mono.fromFuture(friendIds.thenApply(Function.identity()));
+    }
+
+    /**
+     * Adds the friendships to the cached blocks of their users after the current transaction commits.
+     *
+     * @param friends are the friendships that were created.
+     * @return a {@link Mono<Void>} that completes once the update has been scheduled.
+     */
+    public Mono<Void> added(Collection<Friend> friends) {
+        return afterCommit(() -> friends.forEach(friend ->
+                update(friend.getUserId(), friendIds -> insert(friendIds, friend.getFriendId()))));
+    }
+
+    /**
+     * Removes the friendship from the cached block of its user after the current transaction commits.
+     *
+     * @param friend is the friendship that was removed.
+     * @return a {@link Mono<Void>} that completes once the update has been scheduled.
+     */
+    public Mono<Void> removed(Friend friend) {
+        return afterCommit(() -> update(friend.getUserId(), friendIds -> remove(friendIds, friend.getFriendId())));
+    }
+
+    /**
+     * Discards every cached block after the current transaction commits, for changes that cannot be applied in place.
+     *
+     * @return a {@link Mono<Void>} that completes once the invalidation has been scheduled.
+     */
+    public Mono<Void> invalidateAll() {
+        return afterCommit(() -> adjacency.synchronous().invalidateAll());
+    }
+
+    private Mono<Void> afterCommit(Runnable update) {
+        if (adjacency == null) {
+            return Mono.empty();
+        }
+
+        return Transactions.afterCommit(update);
+    }
+
+    private void update(Long userId, UnaryOperator<long[]> change) {
+        // A pending load is updated when it completes, so a load that raced with the commit still sees the change
+        adjacency.asMap().computeIfPresent(userId, (key, friendIds) -> friendIds.thenApply(change));
+    }
+
+    private long entries(AsyncCache<Long, long[]> cache) {
+        return cache.synchronous().policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    static long[] insert(long[] friendIds, long friendId) {
+        int index = Arrays.binarySearch(friendIds, friendId);
+        if (index >= 0) {
+            return friendIds;
+        }
+
+        int insertAt = -index - 1;
+        long[] result = new long[friendIds.length + 1];
+        System.arraycopy(friendIds, 0, result, 0, insertAt);
+        result[insertAt] = friendId;
+        System.arraycopy(friendIds, insertAt, result, insertAt + 1, friendIds.length - insertAt);
+        return result;
+    }
+
+    static long[] remove(long[] friendIds, long friendId) {
+        int index = Arrays.binarySearch(friendIds, friendId);
+        if (index < 0) {
+            return friendIds;
+        }
+
+        long[] result = new long[friendIds.length - 1];
+        System.arraycopy(friendIds, 0, result, 0, index);
+        System.arraycopy(friendIds, index + 1, result, index, friendIds.length - index - 1);
+        return result;
+    }
+}
@@ -1,40 +1,43 @@
 package io.example.domain.friend;
 
-import org.springframework.cloud.stream.messaging.Source;
+import io.example.idempotency.IdempotencyStore;
+import io.example.outbox.OutboxService;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.HttpClientErrorException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 import reactor.util.Logger;
 import reactor.util.Loggers;
 
 import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
- * Controller responsible for exposing REST API interface for managing {@link Friend} entities.
+ * Controller responsible for exposing REST API interface for managing {@link Friend} entities. Transactions are not
+ * demarcated here, since the {@link FriendService} runs each command in a transaction on the shard of its user.
  *
  * @author Kenny Bastani
  */
 @RestController
 @RequestMapping("/v1")
-@Transactional("transactionManager")
 @Validated
 public class FriendController {
 
     private final Logger logger = Loggers.getLogger(FriendController.class);
-    private final Source messageBroker;
+    private final OutboxService outboxService;
     private final FriendService friendService;
+    private final IdempotencyStore idempotencyStore;
 
-    public FriendController(Source messageBroker, FriendService friendService) {
-        this.messageBroker = messageBroker;
+    public FriendController(OutboxService outboxService, FriendService friendService,
+                            IdempotencyStore idempotencyStore) {
+        this.outboxService = outboxService;
         this.friendService = friendService;
+        this.idempotencyStore = idempotencyStore;
     }
 
     /**
@@ -61,88 +64,173 @@ public class FriendController {
     }
 
     /**
-     * Adds a friend. This is a reactive application-level dual-write which requires that two external systems
-     * cooperate in a single transaction that must be rolled back if either the database fails or message broker fails.
+     * Finds the IDs of a user's friends, in ascending order. This is the cheapest way to read a user's adjacency, and
+     * is served from memory when the friend cache is enabled.
      *
-     * @param userId   is the ID of the user
-     * @param friendId is the ID of the friend
+     * @param userId is the FK relationship to the user stored in the user service.
+     * @return a {@link Flux<Long>} containing the IDs of the user's friends.
+     */
+    @GetMapping(path = "/users/{userId}/friends/ids")
+    public Flux<Long> getFriendIds(@PathVariable Long userId) {
+        return friendService.findUserFriendIds(userId);
+    }
+
+    /**
+     * Finds a page of a user's friends, ordered by friend ID. Pass the {@code next} cursor of a page to fetch the page
+     * that follows it.
+     *
+     * @param userId is the FK relationship to the user stored in the user service.
+     * @param limit  is the maximum number of friends on the page.
+     * @param cursor is the {@code next} cursor of the previous page, or absent for the first page.
+     * @return a {@link Mono<FriendPage>} containing up to {@code limit} {@link Friend} entities and the next cursor.
+     */
+    @GetMapping(path = "/users/{userId}/friends", params = "limit")
+    public Mono<FriendPage> getFriends(@PathVariable Long userId, @RequestParam("limit") int limit,
+                                       @RequestParam(name = "cursor", required = false) String cursor) {
+        return friendService.findUserFriends(userId, limit, cursor);
+    }
+
+    /**
+     * Streams a user's friends as newline-delimited JSON. Each {@link Friend} is written to the response as it is read
+     * from the database, so the response is never buffered in memory.
+     *
+     * @param userId is the FK relationship to the user stored in the user service.
+     * @return a {@link Flux<Friend>} containing a sequence of {@link Friend} entities 0..Many.
+     */
+    @GetMapping(path = "/users/{userId}/friends", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Friend> streamFriends(@PathVariable Long userId) {
+        return friendService.streamUserFriends(userId);
+    }
+
+    /**
+     * Adds a friend. The {@link FriendEvent} is appended to the transactional outbox in the same database transaction
+     * as the new {@link Friend}, so the domain event is committed if, and only if, the friendship is committed. The
+     * {@link io.example.outbox.OutboxRelay} publishes the event to the message broker after the commit.
+     * <p>
+     * A retry that repeats the {@code Idempotency-Key} of a committed command is answered with the original
+     * {@link Friend}, without writing to the database or the outbox again.
+     *
+     * @param userId         is the ID of the user
+     * @param friendId       is the ID of the friend
+     * @param idempotencyKey is an optional client-generated key that identifies retries of the same command
      * @return a {@link ResponseEntity} indicating the result of the delete operation.
      */
     @PostMapping(path = "/users/{userId}/commands/addFriend")
     @ResponseStatus(code = HttpStatus.CREATED)
     public Mono<?> addFriend(@NotNull(message = "UserId must not equal null") @PathVariable Long userId,
                              @NotNull(message = "FriendId must not equal null")
-                             @RequestParam("friendId") Long friendId) {
-
-        // Take the producer mono and flat map it to a sequence of steps to create a new user
-        return friendService.exists(userId, friendId).flatMap(exists -> {
-            if (exists) {
-                return Mono.error(new HttpClientErrorException(HttpStatus.CONFLICT, "The friendship already exists"));
-            } else {
-                var friend = new Friend(userId, friendId);
-
-                // Execute a dual-write to the local database and the shared Kafka cluster using an atomic commit
-                return friendService.create(friend, entity -> Mono.fromRunnable(() -> {
-                    // If the database operation fails, a domain event should not be sent to the message broker
-                    logger.info(String.format("Database request is pending transaction commit to broker: %s",
+                             @RequestParam("friendId") Long friendId,
+                             @RequestHeader(name = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+
+        var friend = new Friend(userId, friendId);
+        var request = String.format("addFriend:%d:%d", userId, friendId);
+
+        // Write the friendship and its domain event to the local database in a single transaction. An existing
+        // friendship is detected by the unique constraint on (user_id, friend_id) and is rejected with a conflict.
+        return idempotencyStore.execute(userId, idempotencyKey, request, Friend.class,
+                () -> friendService.create(friend, entity -> {
+                    logger.info(String.format("Database request is pending transaction commit to outbox: %s",
                             entity.toString()));
-                    try {
-                        FriendEvent event = new FriendEvent(entity, EventType.FRIEND_ADDED);
-                        // Set the entity payload after it has been updated in the database, but before committed
-                        event.setSubject(entity);
-                        // Attempt to perform a reactive dual-write to message broker by sending a domain event
-                        messageBroker.output().send(MessageBuilder.withPayload(event).build(), 30000L);
-                        // The application dual-write was a success and the database transaction can commit
-                    } catch (Exception ex) {
-                        logger.error(String.format("A dual-write transaction to the message broker has failed: %s",
-                                entity.toString()), ex);
-                        // This error will cause the database transaction to be rolled back
-                        throw new HttpClientErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
-                                "A transactional error occurred");
-                    }
-                    // since we don't want to block threads in reactors default thread pool,
-                    // we have to run blocking stuff in separate pool
-                }).subscribeOn(Schedulers.elastic()).then());
+                    FriendEvent event = new FriendEvent(entity, EventType.FRIEND_ADDED);
+                    // If the outbox write fails, the exception will cause the database transaction to be rolled back
+                    return outboxService.append(entity.getUserId(), event.getEventType(), event)
+                            .then(idempotencyStore.record(userId, idempotencyKey, request, entity));
+                }));
+    }
+
+    /**
+     * Adds a list of friends for a user in one command. The friend IDs are validated in one pass and the new
+     * friendships are inserted with multi-row statements. The {@link FriendEvent}s are appended to the transactional
+     * outbox as one batch in the same database transaction.
+     *
+     * @param userId    is the ID of the user
+     * @param friendIds are the IDs of the users to befriend
+     * @return a {@link Flux<AddFriendResult>} that streams the result for each distinct friend ID.
+     */
+    @PostMapping(path = "/users/{userId}/commands/addFriends", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<AddFriendResult> addFriends(@NotNull(message = "UserId must not equal null") @PathVariable Long userId,
+                                            @NotNull(message = "FriendIds must not equal null")
+                                            @RequestBody List<Long> friendIds) {
+
+        // Write the friendships and their domain events to the local database in a single transaction
+        return friendService.createAll(userId, friendIds, friends -> {
+            logger.info(String.format("Database request is pending transaction commit to outbox: %d friends of %s",
+                    friends.size(), userId));
+            List<FriendEvent> events = friends.stream()
+                    .map(entity -> new FriendEvent(entity, EventType.FRIEND_ADDED))
+                    .collect(Collectors.toList());
+            // If the outbox write fails, the exception will cause the database transaction to be rolled back
+            return outboxService.appendAll(EventType.FRIEND_ADDED, events, event -> event.getSubject().getUserId());
+        });
+    }
+
+    /**
+     * Updates a friendship. A payload with the {@code version} of the friendship that the client read is only applied
+     * if the friendship is still at that version, and is answered with {@code 409 Conflict} otherwise; the client can
+     * then read the friendship again and retry. A payload without a version overwrites the friendship unconditionally.
+     * <p>
+     * A friendship that is moved to another pair of users is published as the removal of the previous friendship and
+     * the addition of the new one, in the same database transaction as the update.
+     *
+     * @param id     is the unique identifier of the {@link Friend} entity.
+     * @param friend is the {@link Friend} with the updated user IDs, and optionally the version it was read at.
+     * @return a {@link Mono<Friend>} that emits the updated {@link Friend}.
+     */
+    @PutMapping(path = "/friends/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Friend> updateFriend(@PathVariable Long id, @RequestBody Friend friend) {
+        Assert.state(friend != null, "Friend payload must not equal null");
+        Assert.state(friend.getId() == null || friend.getId().equals(id),
+                "The id supplied in the URI path does not match the payload");
+        friend.setId(id);
+
+        // Write the update and its domain events to the local database in a single transaction
+        return friendService.update(friend, (previous, entity) -> {
+            logger.info(String.format("Database request is pending transaction commit to outbox: %s",
+                    entity.toString()));
+            if (previous.getUserId().equals(entity.getUserId()) &&
+                    previous.getFriendId().equals(entity.getFriendId())) {
+                return Mono.empty();
             }
+
+            FriendEvent removed = new FriendEvent(previous, EventType.FRIEND_REMOVED);
+            FriendEvent added = new FriendEvent(entity, EventType.FRIEND_ADDED);
+            // If the outbox write fails, the exception will cause the database transaction to be rolled back
+            return outboxService.append(previous.getUserId(), removed.getEventType(), removed)
+                    .then(outboxService.append(entity.getUserId(), added.getEventType(), added));
         });
     }
 
     /**
-     * Removes a friend. This is an application-level dual-write, which means that blocking is necessary to make sure
-     * that transactional rollback occurs if either the database write fails or the message broker fails.
+     * Removes a friend. The {@link FriendEvent} is appended to the transactional outbox in the same database
+     * transaction as the delete, and is published to the message broker after the commit. A retry that repeats the
+     * {@code Idempotency-Key} of a committed removal succeeds without deleting anything again.
      *
-     * @param userId   is the ID of the user
-     * @param friendId is the ID of the friend
+     * @param userId         is the ID of the user
+     * @param friendId       is the ID of the friend
+     * @param idempotencyKey is an optional client-generated key that identifies retries of the same command
      * @return a {@link ResponseEntity} indicating the result of the delete operation.
      */
     @PostMapping(path = "/users/{userId}/commands/removeFriend")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     // no content requires absense of the body, so it have to be void
-    public Mono<Void> removeFriend(@PathVariable Long userId, @RequestParam("friendId") Long friendId) {
+    public Mono<Void> removeFriend(@PathVariable Long userId, @RequestParam("friendId") Long friendId,
+                                   @RequestHeader(name = IdempotencyStore.HEADER, required = false)
+                                   String idempotencyKey) {
         Assert.state(userId != null, "UserId must not equal null");
         Assert.state(friendId != null, "FriendId must not equal null");
 
-        // Take the producer mono and flat map it to a sequence of steps to create a new user
-        // Execute a dual-write to the local database and the shared Kafka cluster using an atomic commit
-        return friendService.delete(new Friend(userId, friendId), entity -> {
-            // If the database operation fails, a domain event should not be sent to the message broker
-            logger.info(String.format("Database request is pending transaction commit to broker: %s",
-                    entity.toString()));
-            try {
-                FriendEvent event = new FriendEvent(entity, EventType.FRIEND_REMOVED);
-                // Set the entity payload after it has been updated in the database, but before being committed
-                event.setSubject(entity);
-                // Attempt to perform a reactive dual-write to message broker by sending a domain event
-                messageBroker.output().send(MessageBuilder.withPayload(event).build(), 30000L);
-                // The application dual-write was a success and the database transaction can commit
-            } catch (Exception ex) {
-                logger.error(String.format("A dual-write transaction to the message broker has failed: %s",
-                        entity.toString()), ex);
-                // This error will cause the database transaction to be rolled back
-                throw new HttpClientErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "A transactional error occurred");
-            }
-        })
-                .then();
+        var request = String.format("removeFriend:%d:%d", userId, friendId);
+
+        // Write the removal and its domain event to the local database in a single transaction
+        return idempotencyStore.execute(userId, idempotencyKey, request, Void.class,
+                () -> friendService.delete(new Friend(userId, friendId), entity -> {
+                    logger.info(String.format("Database request is pending transaction commit to outbox: %s",
+                            entity.toString()));
+                    FriendEvent event = new FriendEvent(entity, EventType.FRIEND_REMOVED);
+                    // If the outbox write fails, the exception will cause the database transaction to be rolled back
+                    return outboxService.append(entity.getUserId(), event.getEventType(), event)
+                            .then(idempotencyStore.record(userId, idempotencyKey, request, null));
+                }).then());
     }
 }
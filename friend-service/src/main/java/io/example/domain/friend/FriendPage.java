@@ -0,0 +1,100 @@
+package io.example.domain.friend;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A page of a user's friends, ordered by friend ID. The {@code next} cursor is an opaque token that resumes the listing
+ * after the last friend of this page, and is null when there are no more friends.
+ *
+ * @see FriendController#getFriends(Long, int, String)
+ */
+public class FriendPage {
+
+	private List<Friend> friends;
+	private String next;
+
+	public FriendPage() {
+	}
+
+	public FriendPage(List<Friend> friends, String next) {
+		this.friends = friends;
+		this.next = next;
+	}
+
+	/**
+	 * Encodes the friend ID that a page ends with as a cursor token.
+	 *
+	 * @param friendId is the ID of the last friend on a page.
+	 * @return an opaque, URL-safe cursor token.
+	 */
+	public static String encodeCursor(Long friendId) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(friendId).array());
+	}
+
+	/**
+	 * Decodes a cursor token into the friend ID that the next page starts after.
+	 *
+	 * @param cursor is a token that was returned as the {@code next} cursor of a page, or null for the first page.
+	 * @return the friend ID to resume after, or null for the first page.
+	 */
+	public static Long decodeCursor(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+
+		try {
+			byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+			if (bytes.length != Long.BYTES) {
+				throw new IllegalArgumentException("Unexpected cursor length");
+			}
+			return ByteBuffer.wrap(bytes).getLong();
+		} catch (IllegalArgumentException ex) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The supplied cursor is not valid");
+		}
+	}
+
+	public List<Friend> getFriends() {
+		return friends;
+	}
+
+	public void setFriends(List<Friend> friends) {
+		this.friends = friends;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+
+	@Override
+	public String toString() {
+		return "FriendPage{" +
+				"friends=" + friends +
+				", next='" + next + '\'' +
+				'}';
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		FriendPage that = (FriendPage) o;
+		return Objects.equals(friends, that.friends) &&
+				Objects.equals(next, that.next);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(friends, next);
+	}
+}
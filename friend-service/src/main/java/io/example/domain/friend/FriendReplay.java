@@ -0,0 +1,481 @@
+package io.example.domain.friend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.shard.Shard;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuilds the {@code friend} table of every shard from the friend topic, which is the only log of the friend events.
+ * The replay starts from the latest snapshot: the snapshot of every shard is restored into its {@code friend} table,
+ * and each partition of the topic is read from the offset of the snapshot, or from its beginning if there is none, up
+ * to the end offset that it had when the replay started.
+ * <p>
+ * Records are polled in batches of up to {@code friend.replay.batch-size}. Each batch is partitioned into lanes by its
+ * message keys, which are the user IDs, so the events of a friendship always land in the same lane and are applied in
+ * order, and the lanes are reduced in parallel on a fork-join pool of {@code friend.replay.parallelism} threads to the
+ * last event of each friendship. The friendships that were added are then written with multi-row upserts, and the
+ * ones that were removed are deleted, on the shard of their user. The last event of a friendship decides whether it
+ * exists, so a replay can be repeated, or interrupted and started again.
+ * <p>
+ * Every {@code friend.replay.snapshot-interval} events, and at the end of the replay, the friendships that changed
+ * since the previous snapshot are written to the {@code friend_snapshot} table of their shard, and then the offsets of
+ * the replay to the {@code snapshot_checkpoint} table of the primary shard. A replay that stopped between the two
+ * restarts from the previous offsets, and applies the events of the newer snapshot again, which leaves the same
+ * friendships. The {@code friend.replay.events} counter and the {@code friend.replay.remaining} gauge report the
+ * progress of a replay, which is also logged with its rate every {@code friend.replay.progress-interval}.
+ * <p>
+ * A replay from the beginning is only complete if the friend topic retains every event. The binary friend events do
+ * not carry the IDs of the friendships, so the rebuilt friendships are given new IDs by their shard. A rebuild is meant
+ * to run while no commands are accepted, such as with {@code friend.replay.on-startup} on an instance that is not yet
+ * receiving traffic.
+ */
+@Component
+public class FriendReplay implements ApplicationRunner {
+
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final Logger logger = Loggers.getLogger(FriendReplay.class);
+    private final ShardRouter shards;
+    private final ObjectMapper objectMapper;
+    private final BinaryEventMessageConverter binaryConverter;
+    private final KafkaHeaderMapper headerMapper = new DefaultKafkaHeaderMapper();
+    private final Map<String, Object> consumerProperties;
+    private final String topic;
+    private final Counter replayedEvents;
+    private final AtomicLong remainingEvents = new AtomicLong();
+    private final boolean onStartup;
+    private final int parallelism;
+    private final long snapshotInterval;
+    private final Duration progressInterval;
+
+    public FriendReplay(ShardRouter shards, ObjectMapper objectMapper, BinaryEventMessageConverter binaryConverter,
+                        MeterRegistry meterRegistry,
+                        @Value("${spring.cloud.stream.kafka.binder.brokers:localhost}") String[] brokers,
+                        @Value("${spring.cloud.stream.kafka.binder.defaultBrokerPort:9092}") String defaultBrokerPort,
+                        @Value("${spring.cloud.stream.bindings.output.destination}") String topic,
+                        @Value("${friend.replay.on-startup:false}") boolean onStartup,
+                        @Value("${friend.replay.batch-size:5000}") int batchSize,
+                        @Value("${friend.replay.parallelism:0}") int parallelism,
+                        @Value("${friend.replay.snapshot-interval:100000}") long snapshotInterval,
+                        @Value("${friend.replay.progress-interval:10s}") Duration progressInterval) {
+        this.shards = shards;
+        this.objectMapper = objectMapper;
+        this.binaryConverter = binaryConverter;
+        this.consumerProperties = consumerProperties(brokers, defaultBrokerPort, batchSize);
+        this.topic = topic;
+        this.replayedEvents = Counter.builder("friend.replay.events")
+                .description("The number of events that were replayed from the friend topic")
+                .register(meterRegistry);
+        Gauge.builder("friend.replay.remaining", remainingEvents, AtomicLong::get)
+                .description("The number of events of the friend topic that the last replay has yet to read")
+                .register(meterRegistry);
+        this.onStartup = onStartup;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.snapshotInterval = snapshotInterval;
+        this.progressInterval = progressInterval;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (onStartup) {
+            logger.info(String.format("Rebuilt the friend table from the friend topic: %s", rebuild().block()));
+        }
+    }
+
+    /**
+     * Restores the latest snapshot into the {@code friend} table of every shard, and replays the events that were
+     * published after it.
+     *
+     * @return a {@link Mono<FriendReplayResult>} that emits the outcome of the replay once the final snapshot has been
+     * written.
+     */
+    public Mono<FriendReplayResult> rebuild() {
+        return restoreSnapshot()
+                .flatMap(from -> Mono.using(() -> new ForkJoinPool(parallelism),
+                        pool -> replay(from, Schedulers.fromExecutorService(pool, "friend-replay")),
+                        ForkJoinPool::shutdown));
+    }
+
+    private Mono<Map<TopicPartition, Long>> restoreSnapshot() {
+        String prefix = topic + "-";
+        return shards.getPrimary().getTemplate().getDatabaseClient()
+                .sql("SELECT name, position FROM snapshot_checkpoint WHERE name LIKE :prefix")
+                .bind("prefix", prefix + "%")
+                .map(row -> Map.entry(new TopicPartition(topic,
+                                Integer.parseInt(row.get("name", String.class).substring(prefix.length()))),
+                        row.get("position", Long.class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .delayUntil(from -> from.isEmpty() ? Mono.empty() : shards.scatter(shard -> shard.transactional(
+                                shard.getTemplate().getDatabaseClient()
+                                        .sql("INSERT INTO friend (user_id, friend_id, created_at, updated_at) " +
+                                                "SELECT user_id, friend_id, created_at, updated_at " +
+                                                "FROM friend_snapshot " + onConflict("friend"))
+                                        .fetch()
+                                        .rowsUpdated()))
+                        .then())
+                .doOnNext(from -> logger.info(from.isEmpty() ? "Replaying the friend topic from the beginning" :
+                        String.format("Replaying the friend topic from the snapshot at offsets %s", from)));
+    }
+
+    private Mono<FriendReplayResult> replay(Map<TopicPartition, Long> from, Scheduler scheduler) {
+        Replay replay = new Replay(from);
+
+        return read(from)
+                .filter(records -> !records.isEmpty())
+                // The next batch is polled while the current one is applied
+                .concatMap(records -> apply(records, scheduler)
+                        .flatMap(friends -> write("friend", friends.values()).thenReturn(friends))
+                        .flatMap(friends -> {
+                            replay.applied(records, friends);
+                            replayedEvents.increment(records.size());
+                            report(replay);
+                            return replay.eventsSinceSnapshot >= snapshotInterval ? snapshot(replay) : Mono.empty();
+                        }), 1)
+                .then(Mono.defer(() -> snapshot(replay)))
+                .then(Mono.fromCallable(replay::result));
+    }
+
+    /**
+     * Polls the friend topic on a thread of its own, as a Kafka consumer must only be used by one thread, until every
+     * partition has reached the end offset that it had when the consumer was assigned.
+     */
+    private Flux<List<ConsumerRecord<byte[], byte[]>>> read(Map<TopicPartition, Long> from) {
+        Scheduler reader = Schedulers.newSingle("friend-replay-reader");
+        return Flux.using(() -> new TopicReader(from), topicReader -> Flux.<List<ConsumerRecord<byte[], byte[]>>>generate(
+                                sink -> {
+                                    if (topicReader.isCaughtUp()) {
+                                        sink.complete();
+                                        return;
+                                    }
+
+                                    sink.next(topicReader.poll());
+                                }),
+                        TopicReader::close)
+                .subscribeOn(reader)
+                .doFinally(signal -> reader.dispose());
+    }
+
+    /**
+     * Applies a batch of records on the fork-join pool, one lane of users per task.
+     *
+     * @return a {@link Mono} that emits the last event of every friendship that the batch changed.
+     */
+    private Mono<Map<List<Long>, FriendEvent>> apply(List<ConsumerRecord<byte[], byte[]>> records,
+                                                     Scheduler scheduler) {
+        List<List<ConsumerRecord<byte[], byte[]>>> lanes = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            lanes.add(new ArrayList<>());
+        }
+        for (ConsumerRecord<byte[], byte[]> record : records) {
+            lanes.get(Math.floorMod(Arrays.hashCode(record.key()), parallelism)).add(record);
+        }
+
+        return Flux.fromIterable(lanes)
+                .filter(lane -> !lane.isEmpty())
+                .parallel(parallelism)
+                .runOn(scheduler, 1)
+                .map(this::applyLane)
+                .sequential()
+                .<Map<List<Long>, FriendEvent>>reduceWith(HashMap::new, (friends, lane) -> {
+                    friends.putAll(lane);
+                    return friends;
+                });
+    }
+
+    private Map<List<Long>, FriendEvent> applyLane(List<ConsumerRecord<byte[], byte[]>> lane) {
+        Map<List<Long>, FriendEvent> friends = new LinkedHashMap<>();
+        for (ConsumerRecord<byte[], byte[]> record : lane) {
+            FriendEvent event = decode(record);
+            Friend friend = event.getSubject();
+            if (friend != null && friend.getUserId() != null && friend.getFriendId() != null) {
+                friends.put(List.of(friend.getUserId(), friend.getFriendId()), event);
+            }
+        }
+        return friends;
+    }
+
+    private FriendEvent decode(ConsumerRecord<byte[], byte[]> record) {
+        try {
+            if (BinaryEventMessageConverter.MIME_TYPE.isCompatibleWith(contentType(record))) {
+                return binaryConverter.decode(record.value(), FriendEvent.class);
+            }
+
+            JsonNode event = objectMapper.readTree(record.value());
+            JsonNode subject = event.path("subject");
+            return new FriendEvent(subject.isObject() ? objectMapper.treeToValue(subject, Friend.class) : null,
+                    EventType.valueOf(event.path("eventType").asText()));
+        } catch (Exception ex) {
+            throw Exceptions.propagate(ex);
+        }
+    }
+
+    private MimeType contentType(ConsumerRecord<byte[], byte[]> record) {
+        Map<String, Object> headers = new HashMap<>();
+        headerMapper.toHeaders(record.headers(), headers);
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (contentType instanceof byte[]) {
+            contentType = new String((byte[]) contentType, StandardCharsets.UTF_8);
+        }
+
+        // Headers that were written without their JSON type are left quoted by the header mapper
+        return contentType == null ? MimeType.valueOf("application/json") :
+                MimeType.valueOf(contentType.toString().replace("\"", ""));
+    }
+
+    private Mono<Void> snapshot(Replay replay) {
+        if (replay.unsnapshotted.isEmpty()) {
+            return Mono.empty();
+        }
+
+        List<FriendEvent> friends = new ArrayList<>(replay.unsnapshotted.values());
+        Map<TopicPartition, Long> positions = new HashMap<>(replay.positions);
+        Shard primary = shards.getPrimary();
+        // The offsets are only written once the snapshot of every shard has been
+        return write("friend_snapshot", friends)
+                .then(primary.transactional(Flux.fromIterable(positions.entrySet())
+                        .concatMap(position -> primary.getTemplate().getDatabaseClient()
+                                .sql("INSERT INTO snapshot_checkpoint (name, position) VALUES (:name, :position) " +
+                                        "ON CONFLICT (name) DO UPDATE SET position = EXCLUDED.position, " +
+                                        "created_at = NOW()")
+                                .bind("name", position.getKey().toString())
+                                .bind("position", position.getValue())
+                                .then())
+                        .then()))
+                .doOnSuccess(done -> {
+                    replay.unsnapshotted.clear();
+                    replay.eventsSinceSnapshot = 0;
+                    logger.info(String.format("Wrote a snapshot of %d friendships at offsets %s", friends.size(),
+                            positions));
+                });
+    }
+
+    /**
+     * Writes the last events of a set of friendships to a table on the shard of each user, in one transaction per
+     * shard: the friendships that were added are upserted, and the ones that were removed are deleted.
+     */
+    private Mono<Void> write(String table, Collection<FriendEvent> friends) {
+        Map<Shard, List<FriendEvent>> partitions = friends.stream()
+                .collect(Collectors.groupingBy(event -> shards.forUser(event.getSubject().getUserId())));
+
+        return Flux.fromIterable(partitions.entrySet())
+                .flatMap(partition -> partition.getKey().transactional(Flux.fromIterable(partition.getValue())
+                        .buffer(WRITE_BATCH_SIZE)
+                        .concatMap(batch -> {
+                            Map<Boolean, List<Friend>> removed = batch.stream()
+                                    .collect(Collectors.partitioningBy(
+                                            event -> event.getEventType() == EventType.FRIEND_REMOVED,
+                                            Collectors.mapping(FriendEvent::getSubject, Collectors.toList())));
+                            DatabaseClient databaseClient = partition.getKey().getTemplate().getDatabaseClient();
+                            return upsert(databaseClient, table, removed.get(false))
+                                    .then(delete(databaseClient, table, removed.get(true)));
+                        })
+                        .then()))
+                .then();
+    }
+
+    private static Mono<Void> upsert(DatabaseClient databaseClient, String table, List<Friend> friends) {
+        if (friends.isEmpty()) {
+            return Mono.empty();
+        }
+
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < friends.size(); i++) {
+            values.add(String.format("(:userId%1$d, :friendId%1$d, COALESCE(:createdAt%1$d, NOW()), " +
+                    "COALESCE(:updatedAt%1$d, NOW()))", i));
+        }
+
+        DatabaseClient.GenericExecuteSpec upsert = databaseClient
+                .sql("INSERT INTO " + table + " (user_id, friend_id, created_at, updated_at) VALUES " + values + " " +
+                        onConflict(table));
+        for (int i = 0; i < friends.size(); i++) {
+            Friend friend = friends.get(i);
+            upsert = upsert.bind("userId" + i, friend.getUserId())
+                    .bind("friendId" + i, friend.getFriendId());
+            upsert = friend.getCreatedAt() == null ? upsert.bindNull("createdAt" + i, LocalDateTime.class) :
+                    upsert.bind("createdAt" + i, friend.getCreatedAt().toLocalDateTime());
+            upsert = friend.getUpdatedAt() == null ? upsert.bindNull("updatedAt" + i, LocalDateTime.class) :
+                    upsert.bind("updatedAt" + i, friend.getUpdatedAt().toLocalDateTime());
+        }
+
+        return upsert.fetch().rowsUpdated().then();
+    }
+
+    private static Mono<Void> delete(DatabaseClient databaseClient, String table, List<Friend> friends) {
+        if (friends.isEmpty()) {
+            return Mono.empty();
+        }
+
+        StringJoiner pairs = new StringJoiner(", ");
+        for (int i = 0; i < friends.size(); i++) {
+            pairs.add(String.format("(:userId%1$d, :friendId%1$d)", i));
+        }
+
+        DatabaseClient.GenericExecuteSpec delete = databaseClient
+                .sql("DELETE FROM " + table + " WHERE (user_id, friend_id) IN (" + pairs + ")");
+        for (int i = 0; i < friends.size(); i++) {
+            delete = delete.bind("userId" + i, friends.get(i).getUserId())
+                    .bind("friendId" + i, friends.get(i).getFriendId());
+        }
+
+        return delete.fetch().rowsUpdated().then();
+    }
+
+    private void report(Replay replay) {
+        long now = System.nanoTime();
+        if (now - replay.reportedAt >= progressInterval.toNanos()) {
+            replay.reportedAt = now;
+            logger.info(String.format("Replayed %d events of the friend topic, %d remaining (%.0f events/s)",
+                    replay.events, remainingEvents.get(), replay.eventsPerSecond()));
+        }
+    }
+
+    private static String onConflict(String table) {
+        // An existing friendship keeps its ID, and takes the time of the last event that added it
+        return "ON CONFLICT (user_id, friend_id) DO UPDATE SET updated_at = EXCLUDED.updated_at " +
+                "WHERE " + table + ".updated_at < EXCLUDED.updated_at";
+    }
+
+    private static Map<String, Object> consumerProperties(String[] brokers, String defaultBrokerPort, int batchSize) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, Arrays.stream(brokers)
+                .map(broker -> broker.contains(":") ? broker : broker + ":" + defaultBrokerPort)
+                .collect(Collectors.joining(",")));
+        // The partitions are assigned without a consumer group, and the offsets are kept by the snapshots
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchSize);
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        return properties;
+    }
+
+    /**
+     * A consumer that is assigned every partition of the friend topic, positioned at the offsets of a snapshot. It is
+     * only used by the thread of the reader.
+     */
+    private class TopicReader {
+
+        private final KafkaConsumer<byte[], byte[]> consumer;
+        private final Map<TopicPartition, Long> endOffsets;
+
+        private TopicReader(Map<TopicPartition, Long> from) {
+            this.consumer = new KafkaConsumer<>(consumerProperties);
+            List<PartitionInfo> partitionInfos = consumer.partitionsFor(topic);
+            List<TopicPartition> partitions = partitionInfos == null ? List.of() : partitionInfos.stream()
+                    .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+                    .collect(Collectors.toList());
+            consumer.assign(partitions);
+            for (TopicPartition partition : partitions) {
+                if (from.containsKey(partition)) {
+                    consumer.seek(partition, from.get(partition));
+                }
+            }
+            consumer.seekToBeginning(partitions.stream()
+                    .filter(partition -> !from.containsKey(partition))
+                    .collect(Collectors.toList()));
+            this.endOffsets = consumer.endOffsets(partitions);
+        }
+
+        private List<ConsumerRecord<byte[], byte[]>> poll() {
+            List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+            consumer.poll(POLL_TIMEOUT).forEach(records::add);
+            remainingEvents.set(endOffsets.entrySet().stream()
+                    .mapToLong(end -> Math.max(end.getValue() - consumer.position(end.getKey()), 0))
+                    .sum());
+            return records;
+        }
+
+        private boolean isCaughtUp() {
+            return endOffsets.entrySet().stream()
+                    .allMatch(end -> consumer.position(end.getKey()) >= end.getValue());
+        }
+
+        private void close() {
+            consumer.close();
+        }
+    }
+
+    /**
+     * The progress of a replay, which is only accessed by one batch at a time.
+     */
+    private static class Replay {
+
+        private final boolean fromSnapshot;
+        private final long startedAt = System.nanoTime();
+        private final Map<List<Long>, FriendEvent> unsnapshotted = new HashMap<>();
+        private final Map<TopicPartition, Long> positions;
+        private long events;
+        private long friendships;
+        private long eventsSinceSnapshot;
+        private long reportedAt = startedAt;
+
+        private Replay(Map<TopicPartition, Long> from) {
+            this.fromSnapshot = !from.isEmpty();
+            this.positions = new HashMap<>(from);
+        }
+
+        private void applied(List<ConsumerRecord<byte[], byte[]>> records, Map<List<Long>, FriendEvent> changed) {
+            for (ConsumerRecord<byte[], byte[]> record : records) {
+                positions.merge(new TopicPartition(record.topic(), record.partition()), record.offset() + 1,
+                        Math::max);
+            }
+            events += records.size();
+            friendships += changed.size();
+            eventsSinceSnapshot += records.size();
+            unsnapshotted.putAll(changed);
+        }
+
+        private double eventsPerSecond() {
+            long elapsed = System.nanoTime() - startedAt;
+            return elapsed == 0 ? 0 : events * 1e9 / elapsed;
+        }
+
+        private FriendReplayResult result() {
+            return new FriendReplayResult(fromSnapshot, events, friendships, eventsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.example.domain.friend;
+
+import java.util.Objects;
+
+/**
+ * The outcome of a rebuild of the {@code friend} table by the {@link FriendReplay}: whether the replay started from a
+ * snapshot, or from the beginning of the friend topic, the number of events that were replayed and friendships that
+ * were written, and the replay rate.
+ */
+public class FriendReplayResult {
+
+	private boolean fromSnapshot;
+	private long events;
+	private long friendships;
+	private double eventsPerSecond;
+
+	public FriendReplayResult() {
+	}
+
+	public FriendReplayResult(boolean fromSnapshot, long events, long friendships, double eventsPerSecond) {
+		this.fromSnapshot = fromSnapshot;
+		this.events = events;
+		this.friendships = friendships;
+		this.eventsPerSecond = eventsPerSecond;
+	}
+
+	public boolean isFromSnapshot() {
+		return fromSnapshot;
+	}
+
+	public void setFromSnapshot(boolean fromSnapshot) {
+		this.fromSnapshot = fromSnapshot;
+	}
+
+	public long getEvents() {
+		return events;
+	}
+
+	public void setEvents(long events) {
+		this.events = events;
+	}
+
+	public long getFriendships() {
+		return friendships;
+	}
+
+	public void setFriendships(long friendships) {
+		this.friendships = friendships;
+	}
+
+	public double getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	public void setEventsPerSecond(double eventsPerSecond) {
+		this.eventsPerSecond = eventsPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		return "FriendReplayResult{" +
+				"fromSnapshot=" + fromSnapshot +
+				", events=" + events +
+				", friendships=" + friendships +
+				", eventsPerSecond=" + eventsPerSecond +
+				'}';
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		FriendReplayResult that = (FriendReplayResult) o;
+		return fromSnapshot == that.fromSnapshot &&
+				events == that.events &&
+				friendships == that.friendships &&
+				Double.compare(that.eventsPerSecond, eventsPerSecond) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(fromSnapshot, events, friendships, eventsPerSecond);
+	}
+}
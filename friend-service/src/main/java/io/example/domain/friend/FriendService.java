@@ -1,20 +1,36 @@
 package io.example.domain.friend;
 
-import io.example.domain.user.UserClient;
+import io.example.domain.user.UserIndex;
+import io.example.metrics.CommandMetrics;
+import io.example.shard.Shard;
+import io.example.shard.ShardRouter;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.data.relational.core.query.Query;
-import org.springframework.data.relational.core.query.Update;
 import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
-import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.springframework.data.relational.core.query.Criteria.where;
 
@@ -24,18 +40,42 @@ import static org.springframework.data.relational.core.query.Criteria.where;
  * The callback function provides you with a reference to the pre-committed {@link Friend} entity, allowing you to
  * perform a dual-write to a separate application before finalizing the transaction and committing the result to the
  * attached database.
+ * <p>
+ * Friendships are partitioned across the shards of the {@link ShardRouter} by user ID. Every command changes the
+ * friendships of a single user, so it runs as a local transaction on the shard of that user, and the callback joins
+ * that transaction.
  *
  * @author Kenny Bastani
  */
 @Service
 public class FriendService {
 
-    private final R2dbcEntityTemplate template;
-    private final UserClient userClient;
+    private static final String CREATE = "friend.create";
+    private static final String DELETE = "friend.delete";
 
-    public FriendService(R2dbcEntityTemplate template, UserClient userClient) {
-        this.template = template;
-        this.userClient = userClient;
+    private final ShardRouter shards;
+    private final UserIndex userIndex;
+    private final FriendAdjacencyCache adjacencyCache;
+    private final CommandMetrics commandMetrics;
+    private final int bulkMaxSize;
+    private final int bulkBatchSize;
+    private final int pageMaxLimit;
+    private final int streamFetchSize;
+
+    public FriendService(ShardRouter shards, UserIndex userIndex, FriendAdjacencyCache adjacencyCache,
+                         CommandMetrics commandMetrics,
+                         @Value("${friend.bulk.max-size:1000}") int bulkMaxSize,
+                         @Value("${friend.bulk.batch-size:500}") int bulkBatchSize,
+                         @Value("${friend.list.max-limit:1000}") int pageMaxLimit,
+                         @Value("${friend.list.fetch-size:500}") int streamFetchSize) {
+        this.shards = shards;
+        this.userIndex = userIndex;
+        this.adjacencyCache = adjacencyCache;
+        this.commandMetrics = commandMetrics;
+        this.bulkMaxSize = bulkMaxSize;
+        this.bulkBatchSize = bulkBatchSize;
+        this.pageMaxLimit = pageMaxLimit;
+        this.streamFetchSize = streamFetchSize;
     }
 
     /**
@@ -47,25 +87,136 @@ public class FriendService {
      * @return a {@link Mono<Friend>} that emits the result of the transaction in the form of the committed {@link Friend}.
      */
     public Mono<Friend> create(Friend friend, Function<Friend, Publisher<Void>> callback) {
+        Shard shard = shards.forUser(friend.getUserId());
+
+        return shard.transactional(commandMetrics.command(CREATE, () -> commandMetrics.phase(CREATE, "validate",
+                        () -> validate(friend))
+                .then(commandMetrics.phase(CREATE, "insert", () -> insert(shard, friend)))
+                .delayUntil(created -> commandMetrics.phase(CREATE, "callback",
+                        () -> Mono.from(callback.apply(created))))
+                .delayUntil(created -> adjacencyCache.added(List.of(created)))));
+    }
+
+    private Mono<Void> validate(Friend friend) {
 
         // The userId and friendId must not be the same, as users cannot befriend themselves
         return Mono.just(friend).doOnNext((f) -> {
             if (f.getFriendId().equals(f.getUserId()))
-                throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "A user cannot befriend oneself");
-        }).then(Mono.sequenceEqual(userClient.getUser(friend.getUserId()).hasElement(),
-                userClient.getUser(friend.getFriendId()).hasElement(), (a, b) -> a && b).doOnNext(valid -> {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A user cannot befriend oneself");
+        }).then(Mono.zip(userIndex.exists(friend.getUserId()), userIndex.exists(friend.getFriendId()),
+                (a, b) -> a && b).doOnNext(valid -> {
             if (!valid) {
-                throw new HttpClientErrorException(HttpStatus.NOT_FOUND,
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND,
                         "The supplied friends do not exist by the friendId or userId");
             }
-        }).then(template.insert(Friend.class)
-                .using(friend)
-                .map(Friend::getId)
-                .flatMap(id -> template.select(Friend.class)
-                        .matching(Query.query(where("id").is(id)))
-                        .first()
-                        .single()).delayUntil(u -> Mono.fromRunnable(() -> callback.apply(u)))
-                .delayUntil(callback).single()));
+        })).then();
+    }
+
+    private Mono<Friend> insert(Shard shard, Friend friend) {
+        R2dbcEntityTemplate template = shard.getTemplate();
+
+        return template.getDatabaseClient()
+                .sql("INSERT INTO friend (user_id, friend_id) VALUES (:userId, :friendId) " +
+                        "ON CONFLICT (user_id, friend_id) DO NOTHING RETURNING *")
+                .bind("userId", friend.getUserId())
+                .bind("friendId", friend.getFriendId())
+                .map((row, metadata) -> template.getConverter().read(Friend.class, row, metadata))
+                .one()
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.CONFLICT,
+                        "The friendship already exists")));
+    }
+
+    /**
+     * Creates a {@link Friend} for each of the supplied friend IDs in one pass. The friend IDs are validated together
+     * and the new friendships are written with multi-row inserts. Friend IDs that are missing from the inserted rows
+     * conflicted with an existing friendship. The callback receives every {@link Friend} that was created, so that the
+     * domain events can be submitted as one batch before finalizing the commit.
+     *
+     * @param userId    is the ID of the user that is adding friends.
+     * @param friendIds are the IDs of the users to befriend, in the order that the results should be returned.
+     * @param callback  is a {@code Function<List<Friend>, Publisher<Void>>} that will allow you to throw an exception to rollback the TX.
+     * @return a {@link Flux<AddFriendResult>} that emits the result for each distinct friend ID.
+     */
+    public Flux<AddFriendResult> createAll(Long userId, List<Long> friendIds,
+                                           Function<List<Friend>, Publisher<Void>> callback) {
+        Assert.notNull(userId, "User ID must not be null");
+        Assert.notNull(friendIds, "Friend IDs must not be null");
+
+        if (friendIds.size() > bulkMaxSize) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("No more than %d friends can be added at once", bulkMaxSize)));
+        }
+
+        List<Long> requested = friendIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        Shard shard = shards.forUser(userId);
+
+        return shard.transactional(userIndex.exists(userId).flatMapMany(exists -> {
+            if (!exists) {
+                return Flux.error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "The supplied user does not exist by the userId"));
+            }
+
+            return Flux.fromIterable(requested)
+                    .flatMap(friendId -> validate(userId, friendId))
+                    .collectMap(AddFriendResult::getFriendId)
+                    .flatMapMany(rejected -> {
+                        List<Long> valid = requested.stream()
+                                .filter(friendId -> !rejected.containsKey(friendId))
+                                .collect(Collectors.toList());
+
+                        return insertAll(shard, userId, valid)
+                                .collectMap(Friend::getFriendId)
+                                .delayUntil(created -> callback.apply(new ArrayList<>(created.values())))
+                                .delayUntil(created -> adjacencyCache.added(created.values()))
+                                .map(created -> {
+                                    Map<Long, AddFriendResult> results = new HashMap<>(rejected);
+                                    valid.forEach(friendId -> results.put(friendId, created.containsKey(friendId) ?
+                                            AddFriendResult.created(created.get(friendId)) :
+                                            AddFriendResult.rejected(friendId, HttpStatus.CONFLICT,
+                                                    "The friendship already exists")));
+                                    return results;
+                                })
+                                .flatMapMany(results -> Flux.fromIterable(requested).map(results::get));
+                    });
+        }));
+    }
+
+    private Mono<AddFriendResult> validate(Long userId, Long friendId) {
+        if (friendId.equals(userId)) {
+            return Mono.just(AddFriendResult.rejected(friendId, HttpStatus.BAD_REQUEST,
+                    "A user cannot befriend oneself"));
+        }
+
+        return userIndex.exists(friendId)
+                .filter(exists -> !exists)
+                .map(missing -> AddFriendResult.rejected(friendId, HttpStatus.NOT_FOUND,
+                        "The supplied friend does not exist by the friendId"));
+    }
+
+    private Flux<Friend> insertAll(Shard shard, Long userId, List<Long> friendIds) {
+        R2dbcEntityTemplate template = shard.getTemplate();
+
+        return Flux.fromIterable(friendIds)
+                .buffer(bulkBatchSize)
+                .concatMap(batch -> {
+                    StringJoiner values = new StringJoiner(", ");
+                    for (int i = 0; i < batch.size(); i++) {
+                        values.add(String.format("(:userId%d, :friendId%d)", i, i));
+                    }
+
+                    DatabaseClient.GenericExecuteSpec insert = template.getDatabaseClient()
+                            .sql("INSERT INTO friend (user_id, friend_id) VALUES " + values +
+                                    " ON CONFLICT (user_id, friend_id) DO NOTHING RETURNING *");
+                    for (int i = 0; i < batch.size(); i++) {
+                        insert = insert.bind("userId" + i, userId).bind("friendId" + i, batch.get(i));
+                    }
+
+                    return insert.map((row, metadata) -> template.getConverter().read(Friend.class, row, metadata))
+                            .all();
+                });
     }
 
     /**
@@ -75,66 +226,228 @@ public class FriendService {
      * @return a {@link Flux<Friend>} that emits the result of the database lookup.
      */
     public Flux<Friend> findUserFriends(Long userId) {
-        return template.select(Friend.class)
+        return shards.forUser(userId).getTemplate().select(Friend.class)
                 .matching(Query.query(where("user_id").is(userId)))
                 .all();
     }
 
     /**
-     * Uses a non-transactional database client to find a {@link Friend} by ID.
+     * Finds a page of a user's friends, ordered by friend ID. The page is read with a keyset query that seeks past the
+     * cursor on the (user_id, friend_id) index, so the cost of a page does not grow with its position in the list.
+     *
+     * @param userId is the ID of user to find friends for.
+     * @param limit  is the maximum number of friends on the page.
+     * @param cursor is the {@code next} cursor of the previous page, or null for the first page.
+     * @return a {@link Mono<FriendPage>} that emits the page, with a cursor for the next page if there is one.
+     */
+    public Mono<FriendPage> findUserFriends(Long userId, int limit, String cursor) {
+        if (limit < 1 || limit > pageMaxLimit) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The limit must be between 1 and %d", pageMaxLimit)));
+        }
+
+        R2dbcEntityTemplate template = shards.forUser(userId).getTemplate();
+
+        return Mono.fromCallable(() -> Optional.ofNullable(FriendPage.decodeCursor(cursor)))
+                .flatMapMany(after -> template.getDatabaseClient()
+                        .sql("SELECT * FROM friend WHERE user_id = :userId AND friend_id > :after " +
+                                "ORDER BY friend_id LIMIT :limit")
+                        .bind("userId", userId)
+                        .bind("after", after.orElse(Long.MIN_VALUE))
+                        .bind("limit", limit + 1)
+                        .map((row, metadata) -> template.getConverter().read(Friend.class, row, metadata))
+                        .all())
+                .collectList()
+                .map(friends -> friends.size() > limit ?
+                        new FriendPage(friends.subList(0, limit),
+                                FriendPage.encodeCursor(friends.get(limit - 1).getFriendId())) :
+                        new FriendPage(friends, null));
+    }
+
+    /**
+     * Streams all the friends of a user, ordered by friend ID. Rows are fetched from a Postgres cursor a window at a
+     * time and only as fast as the subscriber requests them, so memory stays flat regardless of how many friends the
+     * user has.
+     *
+     * @param userId is the ID of user to find friends for.
+     * @return a {@link Flux<Friend>} that emits the friends as they are read from the database.
+     */
+    public Flux<Friend> streamUserFriends(Long userId) {
+        R2dbcEntityTemplate template = shards.forUser(userId).getTemplate();
+
+        return template.getDatabaseClient()
+                .sql("SELECT * FROM friend WHERE user_id = :userId ORDER BY friend_id")
+                .filter(statement -> statement.fetchSize(streamFetchSize))
+                .bind("userId", userId)
+                .map((row, metadata) -> template.getConverter().read(Friend.class, row, metadata))
+                .all();
+    }
+
+    /**
+     * Finds the IDs of all the friends of a user, in ascending order. The IDs are served from the
+     * {@link FriendAdjacencyCache} when it is enabled.
+     *
+     * @param userId is the ID of user to find friends for.
+     * @return a {@link Flux<Long>} that emits the friend IDs.
+     */
+    public Flux<Long> findUserFriendIds(Long userId) {
+        return adjacencyCache.get(userId, this::loadFriendIds)
+                .flatMapMany(friendIds -> Flux.fromStream(Arrays.stream(friendIds).boxed()));
+    }
+
+    private Mono<long[]> loadFriendIds(Long userId) {
+        return shards.forUser(userId).getTemplate().getDatabaseClient()
+                .sql("SELECT friend_id FROM friend WHERE user_id = :userId ORDER BY friend_id")
+                .bind("userId", userId)
+                .map(row -> row.get("friend_id", Long.class))
+                .all()
+                .collectList()
+                .map(friendIds -> friendIds.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * Uses a non-transactional database client to find a {@link Friend} by ID. The ID does not identify the shard of the
+     * friendship, so every shard is queried in parallel. The shards draw their IDs from interleaved sequences, so at most
+     * one of them has a match.
      *
      * @param id is the ID of the {@link Friend} that should be found.
      * @return a {@link Mono<Friend>} that emits the result of the database lookup.
      */
     public Mono<Friend> find(Long id) {
-        return template.select(Friend.class)
-                .matching(Query.query(where("id").is(id)))
-                .first();
+        return shards.scatter(shard -> shard.getTemplate().select(Friend.class)
+                        .matching(Query.query(where("id").is(id)))
+                        .first())
+                .next();
     }
 
     /**
-     * Updates an existing {@link Friend} entity by its unique ID.
+     * Updates an existing {@link Friend} entity by its unique ID. The ID does not identify the shard of the friendship,
+     * so the stored friendship is found first, and the update runs on its shard. A friendship can be moved to another
+     * user on the same shard, but not to a user on a different shard, which is rejected with {@code 400 Bad Request}.
+     * <p>
+     * If the supplied friend has a version, the update is a compare-and-set: it only applies if the friendship is still
+     * at that version, and fails with {@code 409 Conflict} if it has been updated since. Every update increments the
+     * version. A friendship that does not exist fails with {@code 404 Not Found}.
      *
      * @param friend   is {@link Friend} model that contains the updates to be applied to the existing entity.
-     * @param callback is a {@link Consumer<Friend>} that allows you to either commit or rollback the transaction.
+     * @param callback is a {@code BiFunction<Friend, Friend, Publisher<Void>>} that is passed the friendship before
+     *                 and after the update, and will allow you to throw an exception to rollback the TX.
      * @return a {@link Mono<Friend>} that emits the result of the update transaction.
      */
-    public Mono<Friend> update(Friend friend, Consumer<Friend> callback) {
+    public Mono<Friend> update(Friend friend, BiFunction<Friend, Friend, Publisher<Void>> callback) {
         Assert.notNull(friend.getId(), "Friend ID must not be null");
+        Assert.notNull(friend.getUserId(), "User ID must not be null");
+        Assert.notNull(friend.getFriendId(), "Friend ID of the friendship must not be null");
 
-        AtomicReference<Long> friendId = new AtomicReference<>();
-        friendId.set(friend.getId());
+        return find(friend.getId())
+                .switchIfEmpty(Mono.error(() -> notFound(friend)))
+                .flatMap(stored -> {
+                    Shard shard = shards.forUser(stored.getUserId());
+                    if (shards.forUser(friend.getUserId()).getIndex() != shard.getIndex()) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                "A friendship cannot be moved to a user on another shard"));
+                    }
 
-        return template.update(Friend.class)
-                .matching(Query.query(where("id").is(friend.getId())))
-                .apply(Update.update("friend_id", friend.getId())
-                        .set("user_id", friend.getUserId()))
-                .then(template.selectOne(Query.query(where("id").is(friend.getId())), Friend.class).single())
-                .delayUntil(u -> Mono.fromRunnable(() -> callback.accept(u)))
-                .single();
+                    boolean moved = !stored.getUserId().equals(friend.getUserId()) ||
+                            !stored.getFriendId().equals(friend.getFriendId());
+                    return shard.transactional((moved ? validate(friend) : Mono.<Void>empty())
+                            .then(update(shard, friend))
+                            .delayUntil(change -> callback.apply(change[0], change[1]))
+                            .delayUntil(change -> changed(change[0], change[1]))
+                            .map(change -> change[1]));
+                });
+    }
+
+    /**
+     * Updates a friendship on its shard, and emits the friendship before and after the update. The previous row is
+     * read in the same statement, and locked until the transaction ends, so it is the row that was replaced.
+     */
+    private Mono<Friend[]> update(Shard shard, Friend friend) {
+        R2dbcEntityTemplate template = shard.getTemplate();
+
+        DatabaseClient.GenericExecuteSpec update = template.getDatabaseClient()
+                .sql("UPDATE friend SET user_id = :userId, friend_id = :friendId, updated_at = NOW(), " +
+                        "version = friend.version + 1 " +
+                        "FROM (SELECT id, user_id, friend_id, created_at FROM friend WHERE id = :id FOR UPDATE) AS previous " +
+                        "WHERE friend.id = previous.id" +
+                        (friend.getVersion() != null ? " AND friend.version = :version" : "") +
+                        " RETURNING friend.*, previous.user_id AS previous_user_id, " +
+                        "previous.friend_id AS previous_friend_id, previous.created_at AS previous_created_at")
+                .bind("id", friend.getId())
+                .bind("userId", friend.getUserId())
+                .bind("friendId", friend.getFriendId());
+        if (friend.getVersion() != null) {
+            update = update.bind("version", friend.getVersion());
+        }
+
+        return update.map((row, metadata) -> {
+                    Friend updated = template.getConverter().read(Friend.class, row, metadata);
+                    Friend previous = new Friend(friend.getId(), row.get("previous_user_id", Long.class),
+                            row.get("previous_friend_id", Long.class));
+                    LocalDateTime createdAt = row.get("previous_created_at", LocalDateTime.class);
+                    previous.setCreatedAt(createdAt == null ? null : Timestamp.valueOf(createdAt));
+                    previous.setUpdatedAt(updated.getUpdatedAt());
+                    return new Friend[]{previous, updated};
+                })
+                .one()
+                .switchIfEmpty(Mono.defer(() -> conflict(template, friend)))
+                .switchIfEmpty(Mono.error(() -> notFound(friend)))
+                .onErrorMap(DataIntegrityViolationException.class, ex -> new ResponseStatusException(
+                        HttpStatus.CONFLICT, "The friendship already exists", ex));
+    }
+
+    /**
+     * Moves a friendship between the cached blocks of its users, only if the update changed its users.
+     */
+    private Mono<Void> changed(Friend previous, Friend updated) {
+        if (previous.getUserId().equals(updated.getUserId()) &&
+                previous.getFriendId().equals(updated.getFriendId())) {
+            return Mono.empty();
+        }
+        return adjacencyCache.removed(previous).then(adjacencyCache.added(List.of(updated)));
+    }
+
+    /**
+     * Fails with {@code 409 Conflict} if a friendship that a compare-and-set did not update exists at another version.
+     * A friendship that does not exist completes empty.
+     */
+    private Mono<Friend[]> conflict(R2dbcEntityTemplate template, Friend friend) {
+        return template.getDatabaseClient()
+                .sql("SELECT version FROM friend WHERE id = :id")
+                .bind("id", friend.getId())
+                .map(row -> row.get("version", Long.class))
+                .one()
+                .flatMap(current -> Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                        String.format("Friendship %d is at version %d, not version %d", friend.getId(), current,
+                                friend.getVersion()))));
+    }
+
+    private static ResponseStatusException notFound(Friend friend) {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("Friendship %d does not exist", friend.getId()));
     }
 
     /**
      * Deletes an existing {@link Friend} entity by its unique ID.
      *
      * @param friend   is {@link Friend} model that contains the updates to be applied to the existing entity.
-     * @param callback is a {@link Consumer<Friend>} that allows you to either commit or rollback the transaction.
+     * @param callback is a {@code Function<Friend, Publisher<Void>>} that will allow you to throw an exception to rollback the TX.
      * @return a {@link Mono<Friend>} that emits the result of the update transaction.
      */
-    public Mono<Friend> delete(Friend friend, Consumer<Friend> callback) {
-        return template.select(Friend.class)
-                .matching(Query.query(where("user_id").is(friend.getUserId())
-                        .and(where("friend_id").is(friend.getFriendId()))))
-                .first()
-                .flatMap(f -> {
-                    friend.setId(f.getId());
-                    return template.delete(f);
-                }).single().then(Mono.just(friend))
-                .delayUntil(u -> Mono.fromRunnable(() -> callback.accept(u))).single();
-    }
-
-    public Mono<Boolean> exists(Long userId, Long friendId) {
-        return template.exists(Query.query(where("user_id")
-                .is(userId).and("friend_id").is(friendId)), Friend.class).single();
+    public Mono<Friend> delete(Friend friend, Function<Friend, Publisher<Void>> callback) {
+        Shard shard = shards.forUser(friend.getUserId());
+        R2dbcEntityTemplate template = shard.getTemplate();
+
+        return shard.transactional(commandMetrics.command(DELETE, () -> commandMetrics.phase(DELETE, "delete",
+                        () -> template.getDatabaseClient()
+                                .sql("DELETE FROM friend WHERE user_id = :userId AND friend_id = :friendId RETURNING *")
+                                .bind("userId", friend.getUserId())
+                                .bind("friendId", friend.getFriendId())
+                                .map((row, metadata) -> template.getConverter().read(Friend.class, row, metadata))
+                                .one()
+                                .single())
+                .delayUntil(deleted -> commandMetrics.phase(DELETE, "callback",
+                        () -> Mono.from(callback.apply(deleted))))
+                .delayUntil(adjacencyCache::removed)));
     }
 }
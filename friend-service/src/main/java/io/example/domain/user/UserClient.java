@@ -1,35 +1,203 @@
 package io.example.domain.user;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Client for looking up {@link User} projections from the user service. A missing user is returned as an empty
+ * {@link Mono}.
+ * <p>
+ * When {@code user-client.cache.enabled} is set, users are kept in a bounded cache with a TTL, and users that do not
+ * exist are cached for the shorter {@code user-client.cache.negative-ttl}. Concurrent lookups of the same ID share a
+ * single in-flight request. The cache is exported as the {@code users} cache metrics, and shared requests are counted
+ * by {@code user.client.coalesced}.
+ * <p>
+ * When {@code user-client.batch.enabled} is set, the lookups that are made within {@code user-client.batch.window} of
+ * each other are resolved together with one {@code POST /v1/users/lookup} request of up to
+ * {@code user-client.batch.max-size} IDs, so concurrent validations cost one round trip. The size of each request is
+ * recorded by the {@code user.client.batch.size} distribution summary.
+ */
 @Service
-public class UserClient {
+public class UserClient implements DisposableBean {
+
+	private final WebClient userWebClient;
+	private final AsyncCache<Long, Optional<User>> users;
+	private final Counter coalesced;
+	private final Sinks.Many<PendingLookup> lookups;
+	private final Disposable batcher;
 
-	private final WebClient.Builder userWebClient;
+	public UserClient(WebClient.Builder userWebClient, MeterRegistry meterRegistry,
+					  @Value("${user-client.cache.enabled:false}") boolean cacheEnabled,
+					  @Value("${user-client.cache.maximum-size:10000}") long maximumSize,
+					  @Value("${user-client.cache.ttl:5m}") Duration ttl,
+					  @Value("${user-client.cache.negative-ttl:10s}") Duration negativeTtl,
+					  @Value("${user-client.batch.enabled:false}") boolean batchEnabled,
+					  @Value("${user-client.batch.window:2ms}") Duration batchWindow,
+					  @Value("${user-client.batch.max-size:100}") int batchMaxSize,
+					  @Value("${user-client.batch.concurrency:8}") int batchConcurrency) {
+		this.userWebClient = userWebClient.clone().baseUrl("http://user-service/").build();
+		this.coalesced = Counter.builder("user.client.coalesced")
+				.description("User lookups that joined a request already in flight for the same ID")
+				.register(meterRegistry);
+
+		if (batchEnabled) {
+			DistributionSummary batchSize = DistributionSummary.builder("user.client.batch.size")
+					.description("The number of distinct user IDs that were looked up with one request")
+					.register(meterRegistry);
+			this.lookups = Sinks.many().unicast().onBackpressureBuffer();
+			this.batcher = lookups.asFlux()
+					.bufferTimeout(batchMaxSize, batchWindow)
+					.onBackpressureBuffer()
+					.flatMap(batch -> resolve(batch, batchSize), batchConcurrency)
+					.subscribe();
+		} else {
+			this.lookups = null;
+			this.batcher = null;
+		}
 
-	public UserClient(WebClient.Builder userWebClient) {
-		this.userWebClient = userWebClient;
+		if (cacheEnabled) {
+			this.users = Caffeine.newBuilder()
+					.maximumSize(maximumSize)
+					.expireAfter(new UserExpiry(ttl, negativeTtl))
+					.recordStats()
+					.buildAsync();
+			CaffeineCacheMetrics.monitor(meterRegistry, users.synchronous(), "users");
+		} else {
+			this.users = null;
+		}
 	}
 
 	public Mono<User> getUser(Long userId) {
+		if (users == null) {
+			return lookups == null ? fetchUser(userId) : Mono.defer(() -> Mono.fromFuture(load(userId)))
+					.flatMap(result -> result.map(Mono::just).orElseGet(Mono::empty));
+		}
+
+		return Mono.defer(() -> {
+			AtomicBoolean loaded = new AtomicBoolean();
+			CompletableFuture<Optional<User>> user = users.get(userId, (id, executor) -> {
+				loaded.set(true);
+				return lookups != null ? load(id) :
+						fetchUser(id).map(Optional::of).defaultIfEmpty(Optional.empty()).toFuture();
+			});
+
+			if (!loaded.get() && !user.isDone()) {
+				coalesced.increment();
+			}
 
-		Mono<User> user;
+			// Depend on a copy of the shared future, so that a cancelled caller does not cancel the other callers
+			return Mono.fromFuture(user.thenApply(Function.identity()))
+					.flatMap(result -> result.map(Mono::just).orElseGet(Mono::empty));
+		});
+	}
 
-		try {
-			user = userWebClient.baseUrl("http://user-service/").build().get()
-					.uri("v1/users/{userId}", userId)
-					.accept(MediaType.APPLICATION_JSON)
-					.retrieve()
-					.bodyToMono(User.class)
-					.single()
-					.log();
-		} catch (Exception ex) {
-			throw new RuntimeException("Could not retrieve user", ex);
+	@Override
+	public void destroy() {
+		if (batcher != null) {
+			batcher.dispose();
 		}
+	}
+
+	private CompletableFuture<Optional<User>> load(Long userId) {
+		PendingLookup lookup = new PendingLookup(userId);
+		// Lookups are emitted from many threads at once, so a concurrent emission is retried rather than dropped
+		lookups.emitNext(lookup, (signalType, result) -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED);
+		return lookup.user;
+	}
 
-		return user;
+	private Mono<Void> resolve(List<PendingLookup> batch, DistributionSummary batchSize) {
+		List<Long> ids = batch.stream()
+				.map(lookup -> lookup.userId)
+				.distinct()
+				.collect(Collectors.toList());
+		batchSize.record(ids.size());
+
+		return userWebClient.post()
+				.uri("v1/users/lookup")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.bodyValue(ids)
+				.retrieve()
+				.bodyToFlux(User.class)
+				.collectMap(User::getId)
+				.doOnNext(found -> batch.forEach(lookup ->
+						lookup.user.complete(Optional.ofNullable(found.get(lookup.userId)))))
+				.doOnError(ex -> batch.forEach(lookup -> lookup.user.completeExceptionally(ex)))
+				// A failed request only fails the lookups of its batch
+				.onErrorResume(ex -> Mono.empty())
+				.then();
+	}
+
+	private Mono<User> fetchUser(Long userId) {
+		return userWebClient.get()
+				.uri("v1/users/{userId}", userId)
+				.accept(MediaType.APPLICATION_JSON)
+				.retrieve()
+				.bodyToMono(User.class)
+				.onErrorResume(WebClientResponseException.NotFound.class, ex -> Mono.empty());
+	}
+
+	/**
+	 * A lookup that is waiting for its batch to be resolved.
+	 */
+	private static class PendingLookup {
+
+		private final Long userId;
+		private final CompletableFuture<Optional<User>> user = new CompletableFuture<>();
+
+		PendingLookup(Long userId) {
+			this.userId = userId;
+		}
+	}
+
+	/**
+	 * Expires users that exist after the TTL and users that do not exist after the negative TTL.
+	 */
+	private static class UserExpiry implements Expiry<Long, Optional<User>> {
+
+		private final long ttl;
+		private final long negativeTtl;
+
+		UserExpiry(Duration ttl, Duration negativeTtl) {
+			this.ttl = ttl.toNanos();
+			this.negativeTtl = negativeTtl.toNanos();
+		}
+
+		@Override
+		public long expireAfterCreate(Long userId, Optional<User> user, long currentTime) {
+			return user.isPresent() ? ttl : negativeTtl;
+		}
+
+		@Override
+		public long expireAfterUpdate(Long userId, Optional<User> user, long currentTime, long currentDuration) {
+			return expireAfterCreate(userId, user, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(Long userId, Optional<User> user, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
 	}
 }
@@ -0,0 +1,59 @@
+package io.example.domain.user;
+
+/**
+ * An event that encapsulates a state transition for the {@link User}
+ * domain object.
+ *
+ * @link Kenny Bastani
+ */
+public class UserEvent {
+
+    private User subject;
+    private UserEventType eventType;
+    private Long version;
+
+    public UserEvent() {
+    }
+
+    public UserEvent(User subject, UserEventType eventType) {
+        this.subject = subject;
+        this.eventType = eventType;
+    }
+
+    public User getSubject() {
+        return subject;
+    }
+
+    public void setSubject(User subject) {
+        this.subject = subject;
+    }
+
+    public UserEventType getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(UserEventType eventType) {
+        this.eventType = eventType;
+    }
+
+    /**
+     * @return the version of the user after this event, or null if the event was published before users were
+     * versioned.
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "UserEvent{" +
+                "subject=" + subject +
+                ", eventType=" + eventType +
+                ", version=" + version +
+                '}';
+    }
+}
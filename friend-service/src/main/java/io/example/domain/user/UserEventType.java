@@ -0,0 +1,11 @@
+package io.example.domain.user;
+
+/**
+ * The type of events that affect the state of a {@link User}.
+ *
+ * @author Kenny Bastani
+ */
+public enum UserEventType {
+    USER_CREATED,
+    USER_UPDATED
+}
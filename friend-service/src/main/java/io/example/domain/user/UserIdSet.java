@@ -0,0 +1,119 @@
+package io.example.domain.user;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compact set of user IDs, laid out like a roaring bitmap. The high bits of an ID select a container from a sorted
+ * directory and the low 16 bits select a bit within that container, so a dense range of 65,536 IDs costs 8 KiB, and
+ * empty ranges cost nothing.
+ * <p>
+ * Lookups are lock-free. Bits are set with compare-and-swap, and new containers are published by swapping in a
+ * copied directory, which only happens once per 65,536 IDs.
+ */
+public class UserIdSet {
+
+    private static final int CONTAINER_BITS = 16;
+    private static final int CONTAINER_MASK = (1 << CONTAINER_BITS) - 1;
+    private static final int CONTAINER_WORDS = 1 << (CONTAINER_BITS - 6);
+
+    private final LongAdder size = new LongAdder();
+    private volatile Directory directory = new Directory(new long[0], new AtomicLongArray[0]);
+
+    /**
+     * Checks if an ID is a member of this set.
+     *
+     * @param id is the ID to look up.
+     * @return true if the ID has been added to this set.
+     */
+    public boolean contains(long id) {
+        if (id < 0) {
+            return false;
+        }
+
+        Directory current = directory;
+        int index = Arrays.binarySearch(current.keys, id >>> CONTAINER_BITS);
+        if (index < 0) {
+            return false;
+        }
+
+        int bit = (int) (id & CONTAINER_MASK);
+        return (current.containers[index].get(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Adds an ID to this set.
+     *
+     * @param id is the ID to add, which must not be negative.
+     * @return true if the ID was not already a member of this set.
+     */
+    public boolean add(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("User IDs must not be negative: " + id);
+        }
+
+        AtomicLongArray container = container(id >>> CONTAINER_BITS);
+        int bit = (int) (id & CONTAINER_MASK);
+        long mask = 1L << bit;
+        long word;
+
+        do {
+            word = container.get(bit >>> 6);
+            if ((word & mask) != 0) {
+                return false;
+            }
+        } while (!container.compareAndSet(bit >>> 6, word, word | mask));
+
+        size.increment();
+        return true;
+    }
+
+    /**
+     * @return the number of IDs in this set.
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    private AtomicLongArray container(long key) {
+        Directory current = directory;
+        int index = Arrays.binarySearch(current.keys, key);
+        return index >= 0 ? current.containers[index] : addContainer(key);
+    }
+
+    private synchronized AtomicLongArray addContainer(long key) {
+        Directory current = directory;
+        int index = Arrays.binarySearch(current.keys, key);
+        if (index >= 0) {
+            return current.containers[index];
+        }
+
+        int insertAt = -index - 1;
+        int length = current.keys.length;
+        long[] keys = new long[length + 1];
+        AtomicLongArray[] containers = new AtomicLongArray[length + 1];
+
+        System.arraycopy(current.keys, 0, keys, 0, insertAt);
+        System.arraycopy(current.containers, 0, containers, 0, insertAt);
+        System.arraycopy(current.keys, insertAt, keys, insertAt + 1, length - insertAt);
+        System.arraycopy(current.containers, insertAt, containers, insertAt + 1, length - insertAt);
+
+        keys[insertAt] = key;
+        containers[insertAt] = new AtomicLongArray(CONTAINER_WORDS);
+        directory = new Directory(keys, containers);
+
+        return containers[insertAt];
+    }
+
+    private static final class Directory {
+
+        private final long[] keys;
+        private final AtomicLongArray[] containers;
+
+        private Directory(long[] keys, AtomicLongArray[] containers) {
+            this.keys = keys;
+            this.containers = containers;
+        }
+    }
+}
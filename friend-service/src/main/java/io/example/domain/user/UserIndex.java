@@ -0,0 +1,55 @@
+package io.example.domain.user;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * A local projection of the IDs of every {@link User} that has been announced on the user topic. The
+ * {@link UserIndex} answers existence checks from memory, which takes the user service off the critical path of
+ * friend commands.
+ * <p>
+ * User events are not consumed in the order of their IDs, since the topic is partitioned and the user service
+ * publishes aggregates concurrently. An ID that is missing from the index may therefore belong to a user that the
+ * projection has not caught up with yet, so every miss is looked up with the {@link UserClient}.
+ */
+@Service
+public class UserIndex {
+
+    private final UserIdSet users = new UserIdSet();
+    private final UserClient userClient;
+
+    public UserIndex(UserClient userClient, MeterRegistry meterRegistry) {
+        this.userClient = userClient;
+        Gauge.builder("user.index.size", users, UserIdSet::size)
+                .description("The number of user IDs in the local user projection")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Adds a user ID that was replayed from the user topic.
+     *
+     * @param userId is the ID of the user that was created.
+     */
+    public void add(Long userId) {
+        users.add(userId);
+    }
+
+    /**
+     * Checks if a user exists, falling back to the user service for IDs that are not in the index.
+     *
+     * @param userId is the ID of the user to check.
+     * @return a {@link Mono<Boolean>} that emits true if the user exists.
+     */
+    public Mono<Boolean> exists(Long userId) {
+        if (users.contains(userId)) {
+            return Mono.just(true);
+        }
+
+        return userClient.getUser(userId)
+                .doOnNext(user -> users.add(userId))
+                .map(user -> true)
+                .defaultIfEmpty(false);
+    }
+}
@@ -0,0 +1,30 @@
+package io.example.domain.user;
+
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+
+/**
+ * Message stream listener for {@link User} events. Replays the user topic
+ * into the local {@link UserIndex} that is used to validate friend commands.
+ */
+@Configuration
+@EnableBinding(UserSink.class)
+public class UserProcessor {
+
+    private final UserIndex userIndex;
+
+    public UserProcessor(UserIndex userIndex) {
+        this.userIndex = userIndex;
+    }
+
+    @StreamListener(value = UserSink.INPUT)
+    public void apply(Message<UserEvent> userEvent) {
+        User user = userEvent.getPayload().getSubject();
+
+        if (user != null && user.getId() != null) {
+            userIndex.add(user.getId());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.example.domain.friend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class FriendAdjacencyCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void insertKeepsTheFriendIdsSorted() {
+        long[] friendIds = {};
+        for (long friendId : new long[]{5L, 1L, 9L, 3L}) {
+            friendIds = FriendAdjacencyCache.insert(friendIds, friendId);
+        }
+
+        assertArrayEquals(new long[]{1L, 3L, 5L, 9L}, friendIds);
+    }
+
+    @Test
+    public void insertIgnoresAnExistingFriendId() {
+        long[] friendIds = {1L, 3L};
+
+        assertSame(friendIds, FriendAdjacencyCache.insert(friendIds, 3L));
+    }
+
+    @Test
+    public void removeKeepsTheOtherFriendIds() {
+        assertArrayEquals(new long[]{3L, 5L}, FriendAdjacencyCache.remove(new long[]{1L, 3L, 5L}, 1L));
+        assertArrayEquals(new long[]{1L, 5L}, FriendAdjacencyCache.remove(new long[]{1L, 3L, 5L}, 3L));
+        assertArrayEquals(new long[]{1L, 3L}, FriendAdjacencyCache.remove(new long[]{1L, 3L, 5L}, 5L));
+        assertArrayEquals(new long[]{}, FriendAdjacencyCache.remove(new long[]{1L}, 1L));
+    }
+
+    @Test
+    public void removeIgnoresAMissingFriendId() {
+        long[] friendIds = {1L, 3L};
+
+        assertSame(friendIds, FriendAdjacencyCache.remove(friendIds, 2L));
+    }
+
+    @Test
+    public void getLoadsEachUserOnce() {
+        FriendAdjacencyCache cache = cache(true);
+
+        assertArrayEquals(new long[]{2L, 3L}, cache.get(1L, loader(2L, 3L)).block());
+        assertArrayEquals(new long[]{2L, 3L}, cache.get(1L, loader(4L)).block());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void addedAndRemovedUpdateTheCachedFriendIds() {
+        FriendAdjacencyCache cache = cache(true);
+        cache.get(1L, loader(2L, 5L)).block();
+
+        // Without a transaction the updates apply right away
+        cache.added(List.of(new Friend(1L, 3L), new Friend(1L, 9L), new Friend(7L, 1L))).block();
+        cache.removed(new Friend(1L, 5L)).block();
+
+        assertArrayEquals(new long[]{2L, 3L, 9L}, cache.get(1L, loader()).block());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void addedDoesNotCacheAnUnloadedUser() {
+        FriendAdjacencyCache cache = cache(true);
+
+        cache.added(List.of(new Friend(1L, 3L))).block();
+
+        assertArrayEquals(new long[]{2L}, cache.get(1L, loader(2L)).block());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void disabledCacheLoadsEveryRead() {
+        FriendAdjacencyCache cache = cache(false);
+
+        cache.get(1L, loader(2L)).block();
+        cache.added(List.of(new Friend(1L, 3L))).block();
+
+        assertArrayEquals(new long[]{2L}, cache.get(1L, loader(2L)).block());
+        assertEquals(2, loads.get());
+    }
+
+    private static FriendAdjacencyCache cache(boolean enabled) {
+        return new FriendAdjacencyCache(new SimpleMeterRegistry(), enabled, 1000, Duration.ofMinutes(10));
+    }
+
+    private Function<Long, Mono<long[]>> loader(long... friendIds) {
+        return userId -> Mono.fromSupplier(() -> {
+            loads.incrementAndGet();
+            return friendIds;
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package io.example.domain.friend;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FriendPageTest {
+
+    @Test
+    public void decodeCursorReturnsTheEncodedFriendId() {
+        for (long friendId : new long[]{0L, 1L, 255L, 1L << 40, -1L, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            assertEquals(friendId, FriendPage.decodeCursor(FriendPage.encodeCursor(friendId)));
+        }
+    }
+
+    @Test
+    public void encodeCursorIsUrlSafe() {
+        for (long friendId : new long[]{-1L, Long.MIN_VALUE, 0xfbffL, 0xfffeffffffffL}) {
+            String cursor = FriendPage.encodeCursor(friendId);
+
+            assertTrue(cursor.matches("[A-Za-z0-9_-]+"), cursor);
+        }
+    }
+
+    @Test
+    public void decodeCursorStartsTheFirstPageWithoutACursor() {
+        assertNull(FriendPage.decodeCursor(null));
+        assertNull(FriendPage.decodeCursor(""));
+    }
+
+    @Test
+    public void decodeCursorRejectsATokenThatIsNotBase64() {
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> FriendPage.decodeCursor("not a cursor!"));
+
+        assertEquals(HttpStatus.BAD_REQUEST, ex.getStatus());
+    }
+
+    @Test
+    public void decodeCursorRejectsATokenOfTheWrongLength() {
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(new byte[]{1, 2, 3, 4});
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> FriendPage.decodeCursor(cursor));
+
+        assertEquals(HttpStatus.BAD_REQUEST, ex.getStatus());
+    }
+}
@@ -0,0 +1,127 @@
+package io.example.domain.friend;
+
+import io.example.domain.user.UserIndex;
+import io.example.metrics.CommandMetrics;
+import io.example.r2dbc.StubConnectionFactory;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.example.r2dbc.StubConnectionFactory.row;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FriendServiceTest {
+
+    private final List<Map<String, Object>> inserted = new ArrayList<>();
+    private final List<Map<String, Object>> updated = new ArrayList<>();
+    private final List<Map<String, Object>> versions = new ArrayList<>();
+    private final List<Friend> published = new ArrayList<>();
+    private FriendService friendService;
+
+    @BeforeEach
+    public void setUp() {
+        StubConnectionFactory database = new StubConnectionFactory()
+                .when("INSERT INTO friend", () -> inserted)
+                .when("UPDATE friend", () -> updated)
+                .when("SELECT version", () -> versions)
+                .when("SELECT", () -> List.of(friend(10L, 1L, 2L, 3L)));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UserIndex userIndex = new UserIndex(null, meterRegistry);
+        userIndex.add(1L);
+        userIndex.add(2L);
+
+        friendService = new FriendService(new ShardRouter(database, List.of()), userIndex,
+                new FriendAdjacencyCache(meterRegistry, false, 1000, Duration.ofMinutes(10)),
+                new CommandMetrics(meterRegistry), 1000, 500, 1000, 500);
+    }
+
+    @Test
+    public void createReturnsTheInsertedFriendship() {
+        inserted.add(friend(10L, 1L, 2L, 0L));
+
+        Friend created = friendService.create(new Friend(1L, 2L), this::publish).block();
+
+        assertEquals(10L, created.getId());
+        assertEquals(List.of(created), published);
+    }
+
+    @Test
+    public void createRejectsAnExistingFriendship() {
+        // ON CONFLICT DO NOTHING returns no row for a friendship that already exists
+        assertStatus(HttpStatus.CONFLICT, () -> friendService.create(new Friend(1L, 2L), this::publish).block());
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void createRejectsBefriendingOneself() {
+        assertStatus(HttpStatus.BAD_REQUEST, () -> friendService.create(new Friend(1L, 1L), this::publish).block());
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void updateRejectsAStaleVersion() {
+        // The compare-and-set matches no row, and the friendship is at another version
+        versions.add(row("version", 4L));
+        Friend friend = new Friend(10L, 1L, 2L);
+        friend.setVersion(3L);
+
+        ResponseStatusException ex = assertStatus(HttpStatus.CONFLICT,
+                () -> friendService.update(friend, (previous, next) -> publish(next)).block());
+
+        assertEquals("Friendship 10 is at version 4, not version 3", ex.getReason());
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void updateRejectsAFriendshipThatWasDeletedConcurrently() {
+        Friend friend = new Friend(10L, 1L, 2L);
+        friend.setVersion(3L);
+
+        assertStatus(HttpStatus.NOT_FOUND,
+                () -> friendService.update(friend, (previous, next) -> publish(next)).block());
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void updateReturnsTheNextVersion() {
+        Map<String, Object> row = friend(10L, 1L, 2L, 4L);
+        row.put("previous_user_id", 1L);
+        row.put("previous_friend_id", 2L);
+        row.put("previous_created_at", null);
+        updated.add(row);
+        Friend friend = new Friend(10L, 1L, 2L);
+        friend.setVersion(3L);
+
+        Friend result = friendService.update(friend, (previous, next) -> publish(next)).block();
+
+        assertEquals(4L, result.getVersion());
+        assertEquals(List.of(result), published);
+    }
+
+    private Mono<Void> publish(Friend friend) {
+        return Mono.fromRunnable(() -> published.add(friend));
+    }
+
+    private static Map<String, Object> friend(Long id, Long userId, Long friendId, Long version) {
+        return row("id", id, "user_id", userId, "friend_id", friendId, "created_at", null, "updated_at", null,
+                "version", version);
+    }
+
+    private static ResponseStatusException assertStatus(HttpStatus status, Executable executable) {
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class, executable);
+        assertEquals(status, ex.getStatus());
+        return ex;
+    }
+}
@@ -0,0 +1,79 @@
+package io.example.domain.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserIdSetTest {
+
+    @Test
+    public void containsOnlyTheAddedIds() {
+        UserIdSet users = new UserIdSet();
+
+        assertTrue(users.add(1L));
+        assertTrue(users.add(63L));
+        assertTrue(users.add(64L));
+
+        assertTrue(users.contains(1L));
+        assertTrue(users.contains(63L));
+        assertTrue(users.contains(64L));
+        assertFalse(users.contains(0L));
+        assertFalse(users.contains(2L));
+        assertFalse(users.contains(65L));
+        assertEquals(3, users.size());
+    }
+
+    @Test
+    public void addReturnsFalseForAnExistingId() {
+        UserIdSet users = new UserIdSet();
+
+        assertTrue(users.add(42L));
+        assertFalse(users.add(42L));
+        assertEquals(1, users.size());
+    }
+
+    @Test
+    public void keepsIdsInSeparateContainers() {
+        UserIdSet users = new UserIdSet();
+        long[] ids = {Long.MAX_VALUE, 65_536L, 0L, 65_535L, 1L << 40, 131_071L};
+
+        for (long id : ids) {
+            assertTrue(users.add(id));
+        }
+
+        for (long id : ids) {
+            assertTrue(users.contains(id), "Missing " + id);
+        }
+        assertFalse(users.contains(65_537L));
+        assertFalse(users.contains((1L << 40) + 1));
+        assertFalse(users.contains(Long.MAX_VALUE - 1));
+        assertEquals(ids.length, users.size());
+    }
+
+    @Test
+    public void rejectsNegativeIds() {
+        UserIdSet users = new UserIdSet();
+
+        assertFalse(users.contains(-1L));
+        assertThrows(IllegalArgumentException.class, () -> users.add(-1L));
+        assertEquals(0, users.size());
+    }
+
+    @Test
+    public void addsIdsConcurrently() {
+        UserIdSet users = new UserIdSet();
+
+        // Every ID is added twice, so that concurrent adds race on both the bits and the containers
+        LongStream.range(0, 400_000).parallel().forEach(id -> users.add(id % 200_000 * 3));
+
+        assertEquals(200_000, users.size());
+        for (long id = 0; id < 600_000; id++) {
+            assertEquals(id % 3 == 0, users.contains(id));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.example.config;
+
+import io.example.domain.friend.FriendEvent;
+import io.example.domain.friend.FriendEventType;
+import io.example.domain.friend.FriendMessage;
+import io.example.domain.user.UserEvent;
+import io.example.domain.user.UserEventType;
+import io.example.domain.user.entity.User;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.event.FriendEventCodec;
+import io.example.event.FriendEventRecord;
+import io.example.event.UserEventCodec;
+import io.example.event.UserEventRecord;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Registers the domain events that this service consumes with the binary event format. Spring Cloud Stream uses the
+ * converter for every message on the friend and user topics whose content type header is
+ * {@value BinaryEventMessageConverter#CONTENT_TYPE}, and the JSON converter for the rest, so both formats can be
+ * consumed while the producers are switched over.
+ */
+@Configuration
+public class EventCodecConfiguration {
+
+	@Bean
+	public BinaryEventMessageConverter binaryEventMessageConverter() {
+		return new BinaryEventMessageConverter()
+				.register(FriendEvent.class, FriendEventCodec.INSTANCE,
+						event -> new FriendEventRecord(event.getEventType().name(), event.getSubject().getUserId(),
+								event.getSubject().getFriendId(), millis(event.getSubject().getCreatedAt()),
+								millis(event.getSubject().getUpdatedAt())),
+						record -> new FriendEvent(new FriendMessage(record.getUserId(), record.getFriendId(),
+								timestamp(record.getCreatedAt()), timestamp(record.getUpdatedAt())),
+								FriendEventType.valueOf(record.getEventType())))
+				.register(UserEvent.class, UserEventCodec.INSTANCE,
+						event -> new UserEventRecord(event.getEventType().name(), event.getSubject().getId(),
+								event.getSubject().getFirstName(), event.getSubject().getLastName(),
+								millis(event.getSubject().getCreatedAt()),
+								millis(event.getSubject().getLastModified()), event.getVersion()),
+						record -> {
+							UserEvent event = new UserEvent(new User(record.getUserId(), record.getFirstName(),
+									record.getLastName(), date(record.getCreatedAt()), date(record.getLastModified())),
+									UserEventType.valueOf(record.getEventType()));
+							event.setVersion(record.getVersion());
+							return event;
+						});
+	}
+
+	private static Long millis(Date date) {
+		return date == null ? null : date.getTime();
+	}
+
+	private static Timestamp timestamp(Long millis) {
+		return millis == null ? null : new Timestamp(millis);
+	}
+
+	private static Date date(Long millis) {
+		return millis == null ? null : new Date(millis);
+	}
+}
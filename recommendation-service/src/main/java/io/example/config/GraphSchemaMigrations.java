@@ -0,0 +1,126 @@
+package io.example.config;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the versioned schema and data migrations of the Neo4j projection when the service starts, before its
+ * listeners consume any events. A migration is a {@code V<version>__<description>.cypher} file under
+ * {@code recommendation.schema.locations}, with statements that are separated by semicolons at the end of a line.
+ * <p>
+ * Each statement runs in its own transaction, since Neo4j does not allow schema and data changes in one transaction,
+ * and an applied migration is recorded as a {@code :SchemaMigration} node. On every start the recorded versions are
+ * read and only the pending migrations are applied, in version order. The statements of a migration are written to be
+ * idempotent, so a migration that was interrupted, or that two instances apply at once, is simply applied again.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendation.schema.migrate", havingValue = "true", matchIfMissing = true)
+public class GraphSchemaMigrations implements InitializingBean {
+
+	private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.cypher");
+	private static final Pattern STATEMENT_END = Pattern.compile(";\\s*(\\r?\\n|$)");
+
+	private final Logger log = Logger.getLogger(GraphSchemaMigrations.class.getName());
+	private final Neo4jClient neo4jClient;
+	private final String locations;
+
+	public GraphSchemaMigrations(Neo4jClient neo4jClient,
+			@Value("${recommendation.schema.locations:classpath:db/neo4j/*.cypher}") String locations) {
+		this.neo4jClient = neo4jClient;
+		this.locations = locations;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws IOException {
+		neo4jClient.query("CREATE CONSTRAINT ON (m:SchemaMigration) ASSERT m.version IS UNIQUE").run();
+		Set<Long> applied = new HashSet<>(neo4jClient.query("MATCH (m:SchemaMigration) RETURN m.version AS version")
+				.fetchAs(Long.class)
+				.mappedBy((typeSystem, record) -> record.get("version").asLong())
+				.all());
+
+		List<Migration> pending = migrations().stream()
+				.filter(migration -> !applied.contains(migration.version))
+				.collect(Collectors.toList());
+		for (Migration migration : pending) {
+			for (String statement : migration.statements) {
+				neo4jClient.query(statement).run();
+			}
+			neo4jClient.query("MERGE (m:SchemaMigration {version: $version}) " +
+							"ON CREATE SET m.description = $description, m.appliedAt = timestamp()")
+					.bindAll(Map.of("version", migration.version, "description", migration.description))
+					.run();
+			log.info(String.format("Applied the Neo4j migration V%d %s", migration.version, migration.description));
+		}
+
+		log.info(String.format("The Neo4j schema is up to date: %d migrations were already applied, %d were applied now",
+				applied.size(), pending.size()));
+	}
+
+	private List<Migration> migrations() throws IOException {
+		List<Migration> migrations = new ArrayList<>();
+		for (Resource resource : new PathMatchingResourcePatternResolver().getResources(locations)) {
+			Matcher matcher = FILE_NAME.matcher(String.valueOf(resource.getFilename()));
+			if (!matcher.matches()) {
+				throw new IllegalStateException("The Neo4j migration " + resource.getFilename() +
+						" is not named V<version>__<description>.cypher");
+			}
+
+			String cypher = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+			List<String> statements = Arrays.stream(STATEMENT_END.split(cypher))
+					.map(GraphSchemaMigrations::withoutComments)
+					.filter(statement -> !statement.isEmpty())
+					.collect(Collectors.toList());
+			migrations.add(new Migration(Long.parseLong(matcher.group(1)), matcher.group(2).replace('_', ' '),
+					statements));
+		}
+
+		migrations.sort(Comparator.comparingLong(migration -> migration.version));
+		for (int i = 1; i < migrations.size(); i++) {
+			if (migrations.get(i).version == migrations.get(i - 1).version) {
+				throw new IllegalStateException("There are two Neo4j migrations with version " +
+						migrations.get(i).version);
+			}
+		}
+		return migrations;
+	}
+
+	private static String withoutComments(String statement) {
+		return Arrays.stream(statement.split("\\r?\\n"))
+				.filter(line -> !line.trim().startsWith("//"))
+				.collect(Collectors.joining("\n"))
+				.trim();
+	}
+
+	private static class Migration {
+
+		private final long version;
+		private final String description;
+		private final List<String> statements;
+
+		private Migration(long version, String description, List<String> statements) {
+			this.version = version;
+			this.description = description;
+			this.statements = statements;
+		}
+	}
+}
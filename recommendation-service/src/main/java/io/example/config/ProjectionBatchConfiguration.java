@@ -0,0 +1,75 @@
+package io.example.config;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Configures the Kafka listener containers of the batch projection mode, which is selected with
+ * {@code recommendation.projection.mode=batch}. Each poll returns up to {@code recommendation.projection.batch.max-size}
+ * records, and the broker holds a fetch for up to {@code recommendation.projection.batch.max-wait} until
+ * {@code recommendation.projection.batch.fetch-min-bytes} have accumulated, so batches fill up under load without
+ * delaying events by more than the wait when the topics are quiet.
+ * <p>
+ * Offsets are committed once a batch has been written to Neo4j. A batch that fails to be written because Neo4j is
+ * unavailable is retried from its first record every {@code recommendation.projection.batch.back-off} until it
+ * succeeds, which is safe because the batch writes are idempotent, so an outage of Neo4j stalls the projection instead
+ * of dropping events. A record that no retry can fix, because it cannot be decoded or is rejected by Neo4j, is skipped
+ * once it has failed {@code recommendation.projection.batch.max-attempts} times, and the records before it are
+ * committed.
+ */
+@Configuration
+@ConditionalOnProperty(name = "recommendation.projection.mode", havingValue = "batch")
+public class ProjectionBatchConfiguration {
+
+	@Bean
+	public ConcurrentKafkaListenerContainerFactory<byte[], byte[]> projectionListenerContainerFactory(
+			@Value("${spring.cloud.stream.kafka.binder.brokers:localhost}") String[] brokers,
+			@Value("${spring.cloud.stream.kafka.binder.defaultBrokerPort:9092}") String defaultBrokerPort,
+			@Value("${recommendation.projection.batch.max-size:500}") int maxSize,
+			@Value("${recommendation.projection.batch.max-wait:100ms}") Duration maxWait,
+			@Value("${recommendation.projection.batch.fetch-min-bytes:65536}") int fetchMinBytes,
+			@Value("${recommendation.projection.batch.concurrency:4}") int concurrency,
+			@Value("${recommendation.projection.batch.max-attempts:10}") int maxAttempts,
+			@Value("${recommendation.projection.batch.back-off:1s}") Duration backOff) {
+		Map<String, Object> properties = new HashMap<>();
+		// Brokers without a port connect to the default broker port of the binder, as the stream listeners do
+		properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, Arrays.stream(brokers)
+				.map(broker -> broker.contains(":") ? broker : broker + ":" + defaultBrokerPort)
+				.collect(Collectors.joining(",")));
+		properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+		properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+		properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxSize);
+		properties.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, (int) maxWait.toMillis());
+		properties.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+
+		ConcurrentKafkaListenerContainerFactory<byte[], byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+		factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(properties, new ByteArrayDeserializer(),
+				new ByteArrayDeserializer()));
+		factory.setBatchListener(true);
+		factory.setConcurrency(concurrency);
+		factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+		// Failures to reach Neo4j are handled as a whole batch with the unlimited back off, and records that cannot be
+		// decoded or written are reported with a BatchListenerFailedException, which is handled with the limited back off
+		// of its record and logged when it is skipped
+		DefaultErrorHandler errorHandler = new DefaultErrorHandler(
+				new FixedBackOff(backOff.toMillis(), FixedBackOff.UNLIMITED_ATTEMPTS));
+		errorHandler.setBackOffFunction((record, ex) -> new FixedBackOff(backOff.toMillis(), maxAttempts - 1L));
+		factory.setCommonErrorHandler(errorHandler);
+		return factory;
+	}
+}
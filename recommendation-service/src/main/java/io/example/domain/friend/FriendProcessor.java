@@ -2,6 +2,7 @@ package io.example.domain.friend;
 
 import io.example.domain.user.UserRepository;
 import io.example.domain.user.entity.User;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.context.annotation.Configuration;
@@ -15,10 +16,14 @@ import java.util.logging.Logger;
  * Message stream listener for Friend events. Maps types of events
  * to a graph operation that replicates a connected view of domain data
  * across microservices.
+ * <p>
+ * Applies one event per transaction. With {@code recommendation.projection.mode=batch} the
+ * {@link io.example.domain.projection.ProjectionBatchListener} consumes the topic instead.
  *
  * @author Kenny Bastani
  */
 @Configuration
+@ConditionalOnProperty(name = "recommendation.projection.mode", havingValue = "record", matchIfMissing = true)
 @EnableBinding(FriendSink.class)
 @Transactional
 public class FriendProcessor {
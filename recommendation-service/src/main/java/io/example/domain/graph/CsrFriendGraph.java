@@ -0,0 +1,245 @@
+package io.example.domain.graph;
+
+import io.example.domain.friend.entity.RankedUser;
+import io.example.domain.user.UserRepository;
+import io.example.domain.user.entity.User;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Answers the friend-of-friend queries from a {@link FriendAdjacency} in memory, and is selected with
+ * {@code recommendation.graph.engine=csr}. The friendships are loaded from Neo4j when the service starts, and the
+ * queries are answered by Neo4j until they are. Only the users in a result are then read from Neo4j, by user ID.
+ * <p>
+ * The {@link FriendGraphProcessor} passes every friendship that is added or removed. It consumes the friend topic
+ * without a consumer group, so every instance sees the events of every partition, and not only the partitions that its
+ * projection into Neo4j is assigned. A single writer thread applies the changes every
+ * {@code recommendation.graph.csr.refresh-interval}. It then publishes an immutable snapshot through a volatile field,
+ * so requests read a consistent graph without taking a lock. Once more than
+ * {@code recommendation.graph.csr.compaction-threshold} users have changed rows, the writer rebuilds the compressed
+ * arrays.
+ * <p>
+ * The subscription starts from the earliest retained offset, and the changes that arrive while the graph is loading
+ * are applied after it. Neo4j can lag the topic, so the load may miss recent events, but those are replayed, and since
+ * adding and removing a friendship are idempotent, every friendship ends in the state of its last event. Friendships
+ * whose events are no longer retained are taken from Neo4j.
+ * <p>
+ * Recommendations are weighted by the number of distinct friends in common, where the Cypher query counts
+ * relationships, so the two engines differ for friends that added each other in both directions. The gauges
+ * {@code friend.graph.users}, {@code friend.graph.friendships} and {@code friend.graph.pending} report the size of the
+ * published graph and the number of changes waiting for the writer.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendation.graph.engine", havingValue = "csr")
+public class CsrFriendGraph implements FriendGraph, SmartLifecycle {
+
+    private static final String LOAD_FRIENDS = "MATCH (a:User)-[:FRIEND]->(b:User)\n" +
+            "WHERE a.userId IS NOT NULL AND b.userId IS NOT NULL\n" +
+            "RETURN a.userId AS userId, b.userId AS friendId";
+
+    private final Logger log = Logger.getLogger(CsrFriendGraph.class.getName());
+    private final Neo4jClient neo4jClient;
+    private final UserRepository userRepository;
+    private final Duration refreshInterval;
+    private final int compactionThreshold;
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Published by the writer, and read by requests without a lock
+    private volatile FriendAdjacency snapshot;
+
+    // Only used by the writer
+    private FriendAdjacency working;
+    private ScheduledExecutorService writer;
+
+    public CsrFriendGraph(Neo4jClient neo4jClient, UserRepository userRepository, MeterRegistry meterRegistry,
+                          @Value("${recommendation.graph.csr.refresh-interval:100ms}") Duration refreshInterval,
+                          @Value("${recommendation.graph.csr.compaction-threshold:10000}") int compactionThreshold) {
+        this.neo4jClient = neo4jClient;
+        this.userRepository = userRepository;
+        this.refreshInterval = refreshInterval;
+        this.compactionThreshold = compactionThreshold;
+
+        Gauge.builder("friend.graph.users", this, graph -> graph.size(FriendAdjacency::vertexCount))
+                .description("The number of users in the in-memory friend graph")
+                .register(meterRegistry);
+        Gauge.builder("friend.graph.friendships", this, graph -> graph.size(FriendAdjacency::edgeCount))
+                .description("The number of friendships in the in-memory friend graph")
+                .register(meterRegistry);
+        Gauge.builder("friend.graph.pending", pending, AtomicInteger::get)
+                .description("The number of friendship changes that are waiting to be applied to the friend graph")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public List<User> mutualFriends(Long userId, Long friendId) {
+        FriendAdjacency graph = snapshot;
+        if (graph == null) {
+            return userRepository.mutualFriends(userId, friendId).toList();
+        }
+
+        long[] userIds = graph.mutualFriends(userId, friendId);
+        Map<Long, User> users = users(userIds);
+        return Arrays.stream(userIds)
+                .mapToObj(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<RankedUser> recommendedFriends(Long userId) {
+        FriendAdjacency graph = snapshot;
+        if (graph == null) {
+            return userRepository.recommendedFriends(userId, RankedUser.class).toList();
+        }
+
+        FriendAdjacency.Ranking ranking = graph.recommendedFriends(userId);
+        Map<Long, User> users = users(ranking.userIds);
+        List<RankedUser> ranked = new ArrayList<>(ranking.userIds.length);
+        for (int i = 0; i < ranking.userIds.length; i++) {
+            User user = users.get(ranking.userIds[i]);
+            if (user != null) {
+                ranked.add(new RankedUser(user, ranking.weights[i]));
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * Adds a friendship to the graph with the next refresh.
+     */
+    public void friendAdded(Long userId, Long friendId) {
+        enqueue(new Change(userId, friendId, true));
+    }
+
+    /**
+     * Removes a friendship from the graph with the next refresh.
+     */
+    public void friendRemoved(Long userId, Long friendId) {
+        enqueue(new Change(userId, friendId, false));
+    }
+
+    @Override
+    public void start() {
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "friend-graph-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        writer.shutdownNow();
+        writer = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return writer != null;
+    }
+
+    private void enqueue(Change change) {
+        changes.add(change);
+        pending.incrementAndGet();
+    }
+
+    private void refresh() {
+        // An exception would cancel the schedule, so failures are logged and the next refresh tries again
+        try {
+            if (working == null) {
+                working = load();
+            }
+
+            boolean changed = snapshot == null;
+            for (Change change = changes.poll(); change != null; change = changes.poll()) {
+                pending.decrementAndGet();
+                changed |= change.added ? working.add(change.userId, change.friendId) :
+                        working.remove(change.userId, change.friendId);
+            }
+
+            if (changed) {
+                if (working.changeCount() > compactionThreshold) {
+                    working = working.compacted();
+                }
+                snapshot = working.snapshot();
+            }
+        } catch (RuntimeException ex) {
+            log.log(Level.WARNING, "Failed to refresh the in-memory friend graph", ex);
+        }
+    }
+
+    private FriendAdjacency load() {
+        long started = System.nanoTime();
+        Collection<long[]> friends = neo4jClient.query(LOAD_FRIENDS)
+                .fetchAs(long[].class)
+                .mappedBy((typeSystem, record) -> new long[]{record.get("userId").asLong(),
+                        record.get("friendId").asLong()})
+                .all();
+
+        long[] from = new long[friends.size()];
+        long[] to = new long[friends.size()];
+        int count = 0;
+        for (long[] friend : friends) {
+            from[count] = friend[0];
+            to[count++] = friend[1];
+        }
+
+        FriendAdjacency adjacency = FriendAdjacency.of(from, to, count);
+        log.info(String.format("Loaded %d friendships between %d users from Neo4j in %d ms", adjacency.edgeCount(),
+                adjacency.vertexCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+        return adjacency;
+    }
+
+    private Map<Long, User> users(long[] userIds) {
+        if (userIds.length == 0) {
+            return Map.of();
+        }
+        return userRepository.findAllByUserIdIn(Arrays.stream(userIds).boxed().collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(User::getId, Function.identity(), (user, duplicate) -> user));
+    }
+
+    private double size(ToLongFunction<FriendAdjacency> size) {
+        FriendAdjacency graph = snapshot;
+        return graph == null ? 0 : size.applyAsLong(graph);
+    }
+
+    private static class Change {
+
+        private final long userId;
+        private final long friendId;
+        private final boolean added;
+
+        private Change(long userId, long friendId, boolean added) {
+            this.userId = userId;
+            this.friendId = friendId;
+            this.added = added;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package io.example.domain.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The friend graph as a compressed sparse row adjacency. Users are numbered as vertices, and the friends of vertex
+ * {@code v} are {@code targets[offsets[v]]} to {@code targets[offsets[v + 1] - 1]}, sorted by vertex. Friendships are
+ * directed, like the {@code FRIEND} relationships in Neo4j, so both the outgoing and the incoming rows are kept, and
+ * the friends of a user are the union of the two, as in the undirected Cypher patterns.
+ * <p>
+ * Rows are not changed in place. A friendship that is added or removed replaces the rows of its two users with new
+ * arrays that are kept beside the compacted rows, and new users are numbered after the compacted ones, until
+ * {@link #compacted()} folds the changes into new arrays. Only the writer changes its copy; readers use the immutable
+ * copies that it publishes with {@link #snapshot()}, which share the compacted arrays.
+ */
+final class FriendAdjacency {
+
+    private static final int[] NO_VERTICES = new int[0];
+
+    // Built by the last compaction, and never changed afterwards
+    private final LongIntIndex index;
+    private final int compactedCount;
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] inOffsets;
+    private final int[] inTargets;
+
+    // The changes since the last compaction, which are only mutable in the copy of the writer
+    private final Map<Long, Integer> addedVertices;
+    private final Map<Integer, int[]> changedOut;
+    private final Map<Integer, int[]> changedIn;
+
+    // Shared with the snapshots, which only read the user IDs of the vertices that they count
+    private long[] userIds;
+    private int vertexCount;
+    private long edgeCount;
+
+    private FriendAdjacency(LongIntIndex index, int compactedCount, int[] outOffsets, int[] outTargets,
+                            int[] inOffsets, int[] inTargets, Map<Long, Integer> addedVertices,
+                            Map<Integer, int[]> changedOut, Map<Integer, int[]> changedIn, long[] userIds,
+                            int vertexCount, long edgeCount) {
+        this.index = index;
+        this.compactedCount = compactedCount;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.inOffsets = inOffsets;
+        this.inTargets = inTargets;
+        this.addedVertices = addedVertices;
+        this.changedOut = changedOut;
+        this.changedIn = changedIn;
+        this.userIds = userIds;
+        this.vertexCount = vertexCount;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * Builds a writable adjacency from a list of friendships. Users are numbered in the order of their IDs, and
+     * friendships that are listed more than once are only kept once.
+     *
+     * @param from  are the user IDs of the users that added a friend.
+     * @param to    are the user IDs of the friends, at the same positions.
+     * @param count is the number of friendships in the arrays.
+     */
+    static FriendAdjacency of(long[] from, long[] to, int count) {
+        long[] userIds = new long[count * 2];
+        System.arraycopy(from, 0, userIds, 0, count);
+        System.arraycopy(to, 0, userIds, count, count);
+        Arrays.sort(userIds);
+
+        int vertexCount = 0;
+        for (int i = 0; i < userIds.length; i++) {
+            if (i == 0 || userIds[i] != userIds[i - 1]) {
+                userIds[vertexCount++] = userIds[i];
+            }
+        }
+        LongIntIndex index = index(userIds, vertexCount);
+
+        int[] source = new int[count];
+        int[] target = new int[count];
+        for (int i = 0; i < count; i++) {
+            source[i] = index.get(from[i]);
+            target[i] = index.get(to[i]);
+        }
+        return compacted(index, userIds, vertexCount, source, target, count);
+    }
+
+    /**
+     * @return a writable adjacency with the changes of this one folded into its compacted rows.
+     */
+    FriendAdjacency compacted() {
+        int[] source = new int[Math.toIntExact(edgeCount)];
+        int[] target = new int[source.length];
+        int edges = 0;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            for (int friend : out(vertex)) {
+                source[edges] = vertex;
+                target[edges++] = friend;
+            }
+        }
+        return compacted(index(userIds, vertexCount), userIds, vertexCount, source, target, edges);
+    }
+
+    /**
+     * @return an immutable copy that can be read by other threads once it has been safely published.
+     */
+    FriendAdjacency snapshot() {
+        return new FriendAdjacency(index, compactedCount, outOffsets, outTargets, inOffsets, inTargets,
+                Map.copyOf(addedVertices), Map.copyOf(changedOut), Map.copyOf(changedIn), userIds, vertexCount,
+                edgeCount);
+    }
+
+    /**
+     * Adds a friendship to a writable adjacency, and numbers users that are new to it.
+     *
+     * @return whether the friendship was not already in the graph.
+     */
+    boolean add(long userId, long friendId) {
+        int user = vertexOrAdd(userId);
+        int friend = vertexOrAdd(friendId);
+        int[] out = out(user);
+        int position = Arrays.binarySearch(out, friend);
+        if (position >= 0) {
+            return false;
+        }
+
+        changedOut.put(user, inserted(out, -position - 1, friend));
+        int[] in = in(friend);
+        changedIn.put(friend, inserted(in, -Arrays.binarySearch(in, user) - 1, user));
+        edgeCount++;
+        return true;
+    }
+
+    /**
+     * Removes a friendship from a writable adjacency.
+     *
+     * @return whether the friendship was in the graph.
+     */
+    boolean remove(long userId, long friendId) {
+        int user = vertex(userId);
+        int friend = vertex(friendId);
+        if (user < 0 || friend < 0) {
+            return false;
+        }
+
+        int[] out = out(user);
+        int position = Arrays.binarySearch(out, friend);
+        if (position < 0) {
+            return false;
+        }
+
+        changedOut.put(user, removed(out, position));
+        int[] in = in(friend);
+        changedIn.put(friend, removed(in, Arrays.binarySearch(in, user)));
+        edgeCount--;
+        return true;
+    }
+
+    /**
+     * @return the user IDs of the friends that two users have in common, in no particular order.
+     */
+    long[] mutualFriends(long userId, long friendId) {
+        int user = vertex(userId);
+        int friend = vertex(friendId);
+        if (user < 0 || friend < 0) {
+            return new long[0];
+        }
+
+        int[] a = friends(user);
+        int[] b = friends(friend);
+        long[] mutual = new long[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                if (a[i] != user && a[i] != friend) {
+                    mutual[count++] = userIds[a[i]];
+                }
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(mutual, count);
+    }
+
+    /**
+     * Ranks the friends of the friends of a user that are not yet their friends by the number of friends they have in
+     * common with the user. Friends of friends with the same weight are ordered by vertex.
+     */
+    Ranking recommendedFriends(long userId) {
+        int user = vertex(userId);
+        if (user < 0) {
+            return new Ranking(new long[0], new int[0]);
+        }
+
+        int[] friends = friends(user);
+        int[][] friendsOfFriends = new int[friends.length][];
+        int total = 0;
+        for (int i = 0; i < friends.length; i++) {
+            friendsOfFriends[i] = friends(friends[i]);
+            total += friendsOfFriends[i].length;
+        }
+
+        // Every friend of a friend occurs once per friend in common, so sorting them lines up the counts
+        int[] candidates = new int[total];
+        total = 0;
+        for (int[] row : friendsOfFriends) {
+            System.arraycopy(row, 0, candidates, total, row.length);
+            total += row.length;
+        }
+        Arrays.sort(candidates);
+
+        // Weights are stored inverted in the high bits, so that an ascending sort puts the heaviest first
+        long[] ranked = new long[total];
+        int count = 0;
+        for (int i = 0, j; i < total; i = j) {
+            j = i + 1;
+            while (j < total && candidates[j] == candidates[i]) {
+                j++;
+            }
+            if (candidates[i] != user && Arrays.binarySearch(friends, candidates[i]) < 0) {
+                ranked[count++] = (long) (Integer.MAX_VALUE - (j - i)) << 32 | candidates[i];
+            }
+        }
+        Arrays.sort(ranked, 0, count);
+
+        long[] users = new long[count];
+        int[] weights = new int[count];
+        for (int i = 0; i < count; i++) {
+            users[i] = userIds[(int) ranked[i]];
+            weights[i] = Integer.MAX_VALUE - (int) (ranked[i] >>> 32);
+        }
+        return new Ranking(users, weights);
+    }
+
+    int vertexCount() {
+        return vertexCount;
+    }
+
+    long edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return the number of users whose rows have changed or that were added since the last compaction.
+     */
+    int changeCount() {
+        return changedOut.size() + changedIn.size() + addedVertices.size();
+    }
+
+    private int vertex(long userId) {
+        int vertex = index.get(userId);
+        if (vertex < 0) {
+            vertex = addedVertices.getOrDefault(userId, -1);
+        }
+        return vertex;
+    }
+
+    private int vertexOrAdd(long userId) {
+        int vertex = vertex(userId);
+        if (vertex >= 0) {
+            return vertex;
+        }
+
+        // Snapshots keep reading the old array, which has the same user IDs for the vertices that they count
+        if (vertexCount == userIds.length) {
+            userIds = Arrays.copyOf(userIds, Math.max(16, vertexCount * 2));
+        }
+        userIds[vertexCount] = userId;
+        addedVertices.put(userId, vertexCount);
+        return vertexCount++;
+    }
+
+    private int[] friends(int vertex) {
+        int[] out = out(vertex);
+        int[] in = in(vertex);
+        int[] union = new int[out.length + in.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < out.length || j < in.length) {
+            if (j == in.length || i < out.length && out[i] < in[j]) {
+                union[count++] = out[i++];
+            } else if (i == out.length || in[j] < out[i]) {
+                union[count++] = in[j++];
+            } else {
+                union[count++] = out[i++];
+                j++;
+            }
+        }
+        return count == union.length ? union : Arrays.copyOf(union, count);
+    }
+
+    private int[] out(int vertex) {
+        return row(vertex, changedOut, outOffsets, outTargets);
+    }
+
+    private int[] in(int vertex) {
+        return row(vertex, changedIn, inOffsets, inTargets);
+    }
+
+    private int[] row(int vertex, Map<Integer, int[]> changed, int[] offsets, int[] targets) {
+        int[] row = changed.get(vertex);
+        if (row != null) {
+            return row;
+        }
+        return vertex < compactedCount ? Arrays.copyOfRange(targets, offsets[vertex], offsets[vertex + 1]) :
+                NO_VERTICES;
+    }
+
+    private static FriendAdjacency compacted(LongIntIndex index, long[] userIds, int vertexCount, int[] source,
+                                             int[] target, int edges) {
+        int[][] out = rows(vertexCount, source, target, edges);
+        int[][] in = rows(vertexCount, target, source, edges);
+        return new FriendAdjacency(index, vertexCount, out[0], out[1], in[0], in[1], new HashMap<>(),
+                new HashMap<>(), new HashMap<>(), userIds, vertexCount, out[1].length);
+    }
+
+    /**
+     * Sorts a list of edges into rows with a counting sort, and then sorts each row and drops duplicate edges.
+     *
+     * @return the offsets and the targets of the rows.
+     */
+    private static int[][] rows(int vertexCount, int[] source, int[] target, int edges) {
+        int[] offsets = new int[vertexCount + 1];
+        for (int i = 0; i < edges; i++) {
+            offsets[source[i] + 1]++;
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            offsets[vertex + 1] += offsets[vertex];
+        }
+
+        int[] targets = new int[edges];
+        int[] next = Arrays.copyOf(offsets, vertexCount);
+        for (int i = 0; i < edges; i++) {
+            targets[next[source[i]]++] = target[i];
+        }
+
+        int size = 0;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            int start = offsets[vertex];
+            int end = offsets[vertex + 1];
+            Arrays.sort(targets, start, end);
+            offsets[vertex] = size;
+            for (int i = start; i < end; i++) {
+                if (size == offsets[vertex] || targets[size - 1] != targets[i]) {
+                    targets[size++] = targets[i];
+                }
+            }
+        }
+        offsets[vertexCount] = size;
+        return new int[][]{offsets, size == edges ? targets : Arrays.copyOf(targets, size)};
+    }
+
+    private static LongIntIndex index(long[] userIds, int vertexCount) {
+        LongIntIndex index = new LongIntIndex(vertexCount);
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            index.putIfAbsent(userIds[vertex], vertex);
+        }
+        return index;
+    }
+
+    private static int[] inserted(int[] row, int position, int vertex) {
+        int[] inserted = new int[row.length + 1];
+        System.arraycopy(row, 0, inserted, 0, position);
+        inserted[position] = vertex;
+        System.arraycopy(row, position, inserted, position + 1, row.length - position);
+        return inserted;
+    }
+
+    private static int[] removed(int[] row, int position) {
+        int[] removed = new int[row.length - 1];
+        System.arraycopy(row, 0, removed, 0, position);
+        System.arraycopy(row, position + 1, removed, position, removed.length - position);
+        return removed;
+    }
+
+    /**
+     * The friends of friends of a user, and the number of friends each has in common with the user, heaviest first.
+     */
+    static final class Ranking {
+
+        final long[] userIds;
+        final int[] weights;
+
+        private Ranking(long[] userIds, int[] weights) {
+            this.userIds = userIds;
+            this.weights = weights;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.example.domain.graph;
+
+import io.example.domain.friend.entity.RankedUser;
+import io.example.domain.user.entity.User;
+
+import java.util.List;
+
+/**
+ * Answers the friend-of-friend queries of the recommendation API. The engine is selected with
+ * {@code recommendation.graph.engine}: {@code neo4j} runs the Cypher queries of the {@code UserRepository}, and
+ * {@code csr} answers from an in-memory copy of the friend graph, for which Neo4j is only the durable copy it is
+ * loaded from.
+ */
+public interface FriendGraph {
+
+    /**
+     * @return the friends that two users have in common.
+     */
+    List<User> mutualFriends(Long userId, Long friendId);
+
+    /**
+     * @return the friends of the friends of a user that are not yet their friends, ranked by the number of friends
+     * they have in common with the user.
+     */
+    List<RankedUser> recommendedFriends(Long userId);
+}
@@ -0,0 +1,43 @@
+package io.example.domain.graph;
+
+import io.example.domain.friend.FriendEvent;
+import io.example.domain.friend.FriendMessage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+
+/**
+ * Message stream listener for Friend events. Applies every friendship that is added or removed to the in-memory
+ * {@link CsrFriendGraph} of this instance, independently of the projection into Neo4j, which shares the topic with the
+ * other instances of the service through its consumer group.
+ */
+@Configuration
+@ConditionalOnProperty(name = "recommendation.graph.engine", havingValue = "csr")
+@EnableBinding(FriendGraphSink.class)
+public class FriendGraphProcessor {
+
+    private final CsrFriendGraph friendGraph;
+
+    public FriendGraphProcessor(CsrFriendGraph friendGraph) {
+        this.friendGraph = friendGraph;
+    }
+
+    @StreamListener(value = FriendGraphSink.INPUT)
+    public void apply(Message<FriendEvent> friendEvent) {
+        FriendMessage friend = friendEvent.getPayload().getSubject();
+        if (friend == null || friend.getUserId() == null || friend.getFriendId() == null) {
+            return;
+        }
+
+        switch (friendEvent.getPayload().getEventType()) {
+            case FRIEND_ADDED:
+                friendGraph.friendAdded(friend.getUserId(), friend.getFriendId());
+                break;
+            case FRIEND_REMOVED:
+                friendGraph.friendRemoved(friend.getUserId(), friend.getFriendId());
+                break;
+        }
+    }
+}
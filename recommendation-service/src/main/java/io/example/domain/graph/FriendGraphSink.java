@@ -0,0 +1,17 @@
+package io.example.domain.graph;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * Custom Spring Cloud Stream {@link Sink} binding for consuming the friend topic without a consumer group, so that the
+ * {@link CsrFriendGraph} of every instance receives the events of every partition.
+ */
+public interface FriendGraphSink {
+
+    String INPUT = "friendgraph";
+
+    @Input(FriendGraphSink.INPUT)
+    SubscribableChannel friendGraph();
+}
@@ -0,0 +1,59 @@
+package io.example.domain.graph;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from user IDs to vertex numbers, held in two primitive arrays. It is filled by a single
+ * thread while an adjacency is built, and only read once the adjacency has been published.
+ */
+final class LongIntIndex {
+
+    private static final int ABSENT = -1;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+
+    LongIntIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(values, ABSENT);
+    }
+
+    /**
+     * @return the vertex of the user ID, or -1 if the user ID has no vertex.
+     */
+    int get(long key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == ABSENT || keys[slot] == key) {
+                return values[slot];
+            }
+        }
+    }
+
+    /**
+     * Adds a user ID, unless it already has a vertex. The index must have been created with an expected size that
+     * leaves room for every user ID that is added.
+     *
+     * @return the vertex of the user ID.
+     */
+    int putIfAbsent(long key, int value) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == ABSENT) {
+                keys[slot] = key;
+                values[slot] = value;
+                return value;
+            }
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,34 @@
+package io.example.domain.graph;
+
+import io.example.domain.friend.entity.RankedUser;
+import io.example.domain.user.UserRepository;
+import io.example.domain.user.entity.User;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Answers the friend-of-friend queries with Cypher queries against the Neo4j projection. It is the engine unless
+ * {@code recommendation.graph.engine} selects another one.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendation.graph.engine", havingValue = "neo4j", matchIfMissing = true)
+public class Neo4jFriendGraph implements FriendGraph {
+
+    private final UserRepository userRepository;
+
+    public Neo4jFriendGraph(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public List<User> mutualFriends(Long userId, Long friendId) {
+        return userRepository.mutualFriends(userId, friendId).toList();
+    }
+
+    @Override
+    public List<RankedUser> recommendedFriends(Long userId) {
+        return userRepository.recommendedFriends(userId, RankedUser.class).toList();
+    }
+}
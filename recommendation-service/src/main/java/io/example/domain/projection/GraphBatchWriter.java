@@ -0,0 +1,73 @@
+package io.example.domain.projection;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes batches of projected users and friendships to Neo4j, with one {@code UNWIND} statement per kind of change.
+ * Users and the endpoints of friendships are matched with {@code MERGE}, so a friendship can be projected before the
+ * events of its users arrive, and the users are filled in when they do. Every statement is idempotent, so a batch can
+ * be retried.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendation.projection.mode", havingValue = "batch")
+public class GraphBatchWriter {
+
+    // A user is only overwritten by the same or a newer version, or by an event without a version
+    private static final String MERGE_USERS = "UNWIND $users AS u\n" +
+            "MERGE (n:User {userId: u.userId})\n" +
+            "WITH n, u\n" +
+            "WHERE n.version IS NULL OR u.version IS NULL OR u.version >= n.version\n" +
+            "SET n.firstName = u.firstName, n.lastName = u.lastName, n.createdAt = u.createdAt,\n" +
+            "    n.lastModified = u.lastModified, n.version = coalesce(u.version, n.version)";
+
+    private static final String MERGE_FRIENDS = "UNWIND $friends AS f\n" +
+            "MERGE (a:User {userId: f.userId})\n" +
+            "MERGE (b:User {userId: f.friendId})\n" +
+            "MERGE (a)-[r:FRIEND]->(b)\n" +
+            "ON CREATE SET r.createdAt = f.createdAt, r.lastUpdated = f.updatedAt\n" +
+            "ON MATCH SET r.lastUpdated = f.updatedAt";
+
+    private static final String DELETE_FRIENDS = "UNWIND $friends AS f\n" +
+            "MATCH (:User {userId: f.userId})-[r:FRIEND]->(:User {userId: f.friendId})\n" +
+            "DELETE r";
+
+    private final Neo4jClient neo4jClient;
+
+    public GraphBatchWriter(Neo4jClient neo4jClient) {
+        this.neo4jClient = neo4jClient;
+    }
+
+    /**
+     * Creates or updates a batch of users.
+     *
+     * @param users are the properties of the users, with at most one entry per user ID.
+     */
+    @Transactional
+    public void writeUsers(List<Map<String, Object>> users) {
+        if (!users.isEmpty()) {
+            neo4jClient.query(MERGE_USERS).bind(users).to("users").run();
+        }
+    }
+
+    /**
+     * Adds and removes a batch of friendships in one transaction.
+     *
+     * @param added   are the properties of the friendships to add, with at most one entry per pair of users.
+     * @param removed are the properties of the friendships to remove, with pairs that are not in {@code added}.
+     */
+    @Transactional
+    public void writeFriends(List<Map<String, Object>> added, List<Map<String, Object>> removed) {
+        if (!added.isEmpty()) {
+            neo4jClient.query(MERGE_FRIENDS).bind(added).to("friends").run();
+        }
+        if (!removed.isEmpty()) {
+            neo4jClient.query(DELETE_FRIENDS).bind(removed).to("friends").run();
+        }
+    }
+}
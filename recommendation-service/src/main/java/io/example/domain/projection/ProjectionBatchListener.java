@@ -0,0 +1,265 @@
+package io.example.domain.projection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.domain.friend.FriendEvent;
+import io.example.domain.friend.FriendEventType;
+import io.example.domain.friend.FriendMessage;
+import io.example.domain.user.UserEvent;
+import io.example.domain.user.entity.User;
+import io.example.event.BinaryEventMessageConverter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.neo4j.driver.exceptions.ClientException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Projects the user and friend topics into Neo4j in batches, as an alternative to the {@code UserProcessor} and
+ * {@code FriendProcessor} that apply one event per transaction. It is selected with
+ * {@code recommendation.projection.mode=batch}, and consumes with the same consumer groups as the stream listeners, so
+ * the two modes can be switched without replaying the topics.
+ * <p>
+ * The events of an aggregate are keyed to one partition, and a batch holds the records of each partition in offset
+ * order. A batch is reduced to the last event of each user and of each friendship, which has the same effect as
+ * applying its events in order, and then written with a few {@code UNWIND} statements by the {@link GraphBatchWriter}.
+ * A batch that cannot be written because of one of its records, rather than an outage, is narrowed down to that record,
+ * which is skipped after its attempts like a record that cannot be decoded.
+ * <p>
+ * With {@code recommendation.projection.replay}, each partition is rewound to its beginning when it is first assigned,
+ * and the topics are projected again over the graph, which rebuilds the projection from the events. The graph is the
+ * snapshot of the replay, and the committed offsets its position, so without the flag the projection resumes where it
+ * left off. Every write is idempotent, so the rewound events leave the graph as the latest events left it.
+ * The {@code projection.batch.size} summary records the number of events of each batch, and the
+ * {@code projection.batch.duration} timer the time it took to write them.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendation.projection.mode", havingValue = "batch")
+public class ProjectionBatchListener implements ConsumerSeekAware {
+
+    private final GraphBatchWriter writer;
+    private final ObjectMapper objectMapper;
+    private final BinaryEventMessageConverter binaryConverter;
+    private final KafkaHeaderMapper headerMapper = new DefaultKafkaHeaderMapper();
+    private final MeterRegistry meterRegistry;
+    private final boolean replay;
+    private final Set<TopicPartition> rewound = ConcurrentHashMap.newKeySet();
+
+    public ProjectionBatchListener(GraphBatchWriter writer, ObjectMapper objectMapper,
+                                   BinaryEventMessageConverter binaryConverter, MeterRegistry meterRegistry,
+                                   @Value("${recommendation.projection.replay:false}") boolean replay) {
+        this.writer = writer;
+        this.objectMapper = objectMapper;
+        this.binaryConverter = binaryConverter;
+        this.meterRegistry = meterRegistry;
+        this.replay = replay;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        if (replay) {
+            // A partition is only rewound once, so a rebalance does not start its replay over
+            callback.seekToBeginning(assignments.keySet().stream()
+                    .filter(rewound::add)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @KafkaListener(id = "user-projection", topics = "${spring.cloud.stream.bindings.user.destination:user}",
+            groupId = "${spring.cloud.stream.bindings.user.group:user-group}",
+            containerFactory = "projectionListenerContainerFactory")
+    public void applyUsers(List<ConsumerRecord<byte[], byte[]>> records) {
+        List<UserEvent> events = new ArrayList<>(records.size());
+        Map<Long, Integer> latest = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            UserEvent event = decode(records, i, UserEvent.class);
+            events.add(event);
+            if (event.getSubject() != null && event.getSubject().getId() != null) {
+                latest.merge(event.getSubject().getId(), i,
+                        (applied, next) -> isStale(events.get(applied), events.get(next)) ? applied : next);
+            }
+        }
+
+        // The changes are keyed by the index of the record of their event
+        Map<Integer, Map<String, Object>> users = new LinkedHashMap<>();
+        for (int index : latest.values()) {
+            UserEvent event = events.get(index);
+            User user = event.getSubject();
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("userId", user.getId());
+            properties.put("firstName", user.getFirstName());
+            properties.put("lastName", user.getLastName());
+            properties.put("createdAt", millis(user.getCreatedAt()));
+            properties.put("lastModified", millis(user.getLastModified()));
+            properties.put("version", event.getVersion());
+            users.put(index, properties);
+        }
+
+        timer("user").record(() -> write(records, users,
+                () -> writer.writeUsers(new ArrayList<>(users.values())),
+                properties -> writer.writeUsers(List.of(properties))));
+        summary("user").record(records.size());
+    }
+
+    @KafkaListener(id = "friend-projection", topics = "${spring.cloud.stream.bindings.friend.destination:friend}",
+            groupId = "${spring.cloud.stream.bindings.friend.group:friend-group}",
+            containerFactory = "projectionListenerContainerFactory")
+    public void applyFriends(List<ConsumerRecord<byte[], byte[]>> records) {
+        Map<List<Long>, Integer> latest = new LinkedHashMap<>();
+        Map<Integer, FriendEvent> events = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            FriendEvent event = decode(records, i, FriendEvent.class);
+            FriendMessage friend = event.getSubject();
+            if (friend != null && friend.getUserId() != null && friend.getFriendId() != null) {
+                List<Long> pair = List.of(friend.getUserId(), friend.getFriendId());
+                // Remove the pair first, so that the map keeps the order of the last event of each friendship
+                latest.remove(pair);
+                latest.put(pair, i);
+                events.put(i, event);
+            }
+        }
+
+        // The changes are keyed by the index of the record of their event
+        Map<Integer, FriendEvent> friends = new LinkedHashMap<>();
+        List<Map<String, Object>> added = new ArrayList<>();
+        List<Map<String, Object>> removed = new ArrayList<>();
+        for (int index : latest.values()) {
+            FriendEvent event = events.get(index);
+            friends.put(index, event);
+            (isRemoved(event) ? removed : added).add(properties(event.getSubject()));
+        }
+
+        timer("friend").record(() -> write(records, friends,
+                () -> writer.writeFriends(added, removed),
+                event -> writer.writeFriends(isRemoved(event) ? List.of() : List.of(properties(event.getSubject())),
+                        isRemoved(event) ? List.of(properties(event.getSubject())) : List.of())));
+        summary("friend").record(records.size());
+    }
+
+    /**
+     * Writes the changes of a batch. A failure that can pass, such as Neo4j being unavailable, is rethrown, and the
+     * whole batch is retried until it succeeds. A failure that cannot, such as a constraint violation, would fail every
+     * retry and stall the partitions of the batch, so the changes are written one at a time, in offset order, to find
+     * the record that cannot be written. It is reported with a {@link BatchListenerFailedException}, so the error
+     * handler commits the records before it and skips it once its attempts are exhausted.
+     */
+    private <T> void write(List<ConsumerRecord<byte[], byte[]>> records, Map<Integer, T> changes, Runnable writeAll,
+                           Consumer<T> writeOne) {
+        try {
+            writeAll.run();
+        } catch (RuntimeException ex) {
+            if (!isNonTransient(ex)) {
+                throw ex;
+            }
+
+            for (Map.Entry<Integer, T> change : new TreeMap<>(changes).entrySet()) {
+                try {
+                    writeOne.accept(change.getValue());
+                } catch (RuntimeException failure) {
+                    if (!isNonTransient(failure)) {
+                        throw failure;
+                    }
+
+                    ConsumerRecord<byte[], byte[]> record = records.get(change.getKey());
+                    throw new BatchListenerFailedException(String.format(
+                            "Failed to write the record at offset %d of %s-%d", record.offset(), record.topic(),
+                            record.partition()), failure, change.getKey());
+                }
+            }
+        }
+    }
+
+    private <T> T decode(List<ConsumerRecord<byte[], byte[]>> records, int index, Class<T> eventClass) {
+        ConsumerRecord<byte[], byte[]> record = records.get(index);
+        try {
+            return BinaryEventMessageConverter.MIME_TYPE.isCompatibleWith(contentType(record)) ?
+                    binaryConverter.decode(record.value(), eventClass) :
+                    objectMapper.readValue(record.value(), eventClass);
+        } catch (Exception ex) {
+            // Lets the error handler commit the records before this one, and skip it once its attempts are exhausted
+            throw new BatchListenerFailedException(String.format("Failed to decode the record at offset %d of %s-%d",
+                    record.offset(), record.topic(), record.partition()), ex, index);
+        }
+    }
+
+    private MimeType contentType(ConsumerRecord<byte[], byte[]> record) {
+        Map<String, Object> headers = new HashMap<>();
+        headerMapper.toHeaders(record.headers(), headers);
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (contentType instanceof byte[]) {
+            contentType = new String((byte[]) contentType, StandardCharsets.UTF_8);
+        }
+
+        // Headers that were written without their JSON type are left quoted by the header mapper
+        return contentType == null ? MimeType.valueOf("application/json") :
+                MimeType.valueOf(contentType.toString().replace("\"", ""));
+    }
+
+    private Timer timer(String topic) {
+        return Timer.builder("projection.batch.duration")
+                .description("The time it took to write a batch of events to Neo4j")
+                .tag("topic", topic)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary summary(String topic) {
+        return DistributionSummary.builder("projection.batch.size")
+                .description("The number of events in a batch that was written to Neo4j")
+                .tag("topic", topic)
+                .register(meterRegistry);
+    }
+
+    private static boolean isStale(UserEvent applied, UserEvent next) {
+        // Events without a version were published before users were versioned, and are applied in offset order
+        return applied.getVersion() != null && next.getVersion() != null && next.getVersion() < applied.getVersion();
+    }
+
+    private static boolean isRemoved(FriendEvent event) {
+        return event.getEventType() == FriendEventType.FRIEND_REMOVED;
+    }
+
+    private static Map<String, Object> properties(FriendMessage friend) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("userId", friend.getUserId());
+        properties.put("friendId", friend.getFriendId());
+        properties.put("createdAt", millis(friend.getCreatedAt()));
+        properties.put("updatedAt", millis(friend.getUpdatedAt()));
+        return properties;
+    }
+
+    private static boolean isNonTransient(RuntimeException ex) {
+        // An unavailable database is translated to a DataAccessResourceFailureException, which is non-transient in the
+        // hierarchy of Spring, but is retried like the transient failures until Neo4j is back
+        return ex instanceof NonTransientDataAccessException && !(ex instanceof DataAccessResourceFailureException) ||
+                ex instanceof ClientException;
+    }
+
+    private static Long millis(Date date) {
+        return date == null ? null : date.getTime();
+    }
+}
@@ -1,6 +1,7 @@
 package io.example.domain.user;
 
 import io.example.domain.friend.entity.RankedUser;
+import io.example.domain.graph.FriendGraph;
 import io.example.domain.user.entity.User;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
@@ -9,19 +10,19 @@ import reactor.core.publisher.Flux;
 @RequestMapping("/v1")
 public class UserController {
 
-    private final UserRepository userRepository;
+    private final FriendGraph friendGraph;
 
-    public UserController(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    public UserController(FriendGraph friendGraph) {
+        this.friendGraph = friendGraph;
     }
 
     @GetMapping(path = "/users/{userId}/commands/findMutualFriends")
     public Flux<User> getMutualFriends(@PathVariable Long userId, @RequestParam Long friendId) {
-        return Flux.fromIterable(userRepository.mutualFriends(userId, friendId));
+        return Flux.fromIterable(friendGraph.mutualFriends(userId, friendId));
     }
 
     @GetMapping(path = "/users/{userId}/commands/recommendFriends")
     public Flux<RankedUser> recommendFriends(@PathVariable Long userId) {
-        return Flux.fromIterable(userRepository.recommendedFriends(userId, RankedUser.class));
+        return Flux.fromIterable(friendGraph.recommendedFriends(userId));
     }
 }
@@ -12,6 +12,7 @@ public class UserEvent {
 
     private User subject;
     private UserEventType eventType;
+    private Long version;
 
     public UserEvent() {
     }
@@ -37,11 +38,24 @@ public class UserEvent {
         this.eventType = eventType;
     }
 
+    /**
+     * @return the version of the user after this event, or null if the event was published before users were
+     * versioned.
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "UserEvent{" +
                 "subject=" + subject +
                 ", eventType=" + eventType +
+                ", version=" + version +
                 '}';
     }
 }
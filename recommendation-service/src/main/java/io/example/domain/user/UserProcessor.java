@@ -1,6 +1,7 @@
 package io.example.domain.user;
 
 import io.example.domain.user.entity.User;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.context.annotation.Configuration;
@@ -13,10 +14,20 @@ import java.util.logging.Logger;
  * Message stream listener for {@link User} events. Maps types of events
  * to a graph operation that replicates a connected view of domain data
  * across microservices.
+ * <p>
+ * Each user event carries the version of the user after the event, and
+ * the projection stores the version of the last event it applied. An
+ * event whose version is not newer than the stored one is a redelivery
+ * or arrived out of order, and is skipped.
+ * <p>
+ * Applies one event per transaction. With {@code recommendation.projection.mode=batch}
+ * the {@link io.example.domain.projection.ProjectionBatchListener} consumes the topic
+ * instead.
  *
  * @author Kenny Bastani
  */
 @Configuration
+@ConditionalOnProperty(name = "recommendation.projection.mode", havingValue = "record", matchIfMissing = true)
 @EnableBinding(UserSink.class)
 public class UserProcessor {
 
@@ -33,19 +44,33 @@ public class UserProcessor {
 
         log.info("Event received: " + userEvent.getPayload().toString());
 
+        Long version = userEvent.getPayload().getVersion();
+
         switch (userEvent.getPayload().getEventType()) {
             case USER_CREATED:
-                User newUser = userRepository.save(userEvent.getPayload().getSubject());
+                User createUser = userEvent.getPayload().getSubject();
+                if (userRepository.findUserByUserId(createUser.getId()) != null) {
+                    log.info(String.format("Skipped a redelivered creation of user: %s", createUser.getId()));
+                    break;
+                }
+                createUser.setVersion(version);
+                User newUser = userRepository.save(createUser);
                 log.info(String.format("Created user: %s", newUser));
                 break;
             case USER_UPDATED:
                 User updateUser = userEvent.getPayload().getSubject();
                 User findUser = userRepository.findUserByUserId(updateUser.getId());
                 if(findUser != null) {
+                    if (isStale(findUser, version)) {
+                        log.info(String.format("Skipped version %d of user %s, which is at version %d", version,
+                                findUser.getId(), findUser.getVersion()));
+                        break;
+                    }
                     findUser.setCreatedAt(updateUser.getCreatedAt());
                     findUser.setLastModified(updateUser.getLastModified());
                     findUser.setFirstName(updateUser.getFirstName());
                     findUser.setLastName(updateUser.getLastName());
+                    findUser.setVersion(version != null ? version : findUser.getVersion());
                     findUser = userRepository.save(findUser);
                     log.info(String.format("Updated user: %s", findUser.toString()));
                 }
@@ -54,4 +79,9 @@ public class UserProcessor {
                 break;
         }
     }
+
+    private static boolean isStale(User user, Long version) {
+        // Events without a version were published before users were versioned, and are always applied
+        return version != null && user.getVersion() != null && version <= user.getVersion();
+    }
 }
@@ -7,6 +7,9 @@ import org.springframework.data.neo4j.repository.query.Query;
 import org.springframework.data.util.Streamable;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Repository for managing {@link User} data and friend connections.
  *
@@ -17,6 +20,8 @@ public interface UserRepository extends Neo4jRepository<User, Long> {
 
     User findUserByUserId(Long userId);
 
+    List<User> findAllByUserIdIn(Collection<Long> userIds);
+
     @Query("MATCH (userA:User)-[r:FRIEND]->(userB:User)" +
             "WHERE userA.userId={0} AND userB.userId={1} " +
             "DELETE r")
@@ -31,6 +31,8 @@ public class User {
     @DateLong
     private Date lastModified;
 
+    private Long version;
+
     public User() {
         userId = Math.abs(new Random().nextLong());
     }
@@ -95,6 +97,18 @@ public class User {
         this.lastModified = lastModified;
     }
 
+    /**
+     * @return the version of the last user event that was applied to this projection, or null if none of the
+     * applied events were versioned.
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         try {
@@ -110,6 +124,7 @@ public class User {
                 ", lastName='" + lastName + '\'' +
                 ", createdAt=" + createdAt +
                 ", updatedAt=" + lastModified +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,29 @@
+// Keeps the first node of each user ID, and moves the friendships of its duplicates onto it, so that the unique
+// constraint of V2 can be created on a graph that was projected without one
+MATCH (u:User)
+WITH u.userId AS userId, collect(u) AS nodes
+WHERE userId IS NOT NULL AND size(nodes) > 1
+WITH head(nodes) AS keep, tail(nodes) AS duplicates
+UNWIND duplicates AS duplicate
+MATCH (duplicate)-[r:FRIEND]->(other:User)
+WHERE other <> keep
+MERGE (keep)-[moved:FRIEND]->(other)
+ON CREATE SET moved.createdAt = r.createdAt, moved.lastUpdated = r.lastUpdated
+DELETE r;
+
+MATCH (u:User)
+WITH u.userId AS userId, collect(u) AS nodes
+WHERE userId IS NOT NULL AND size(nodes) > 1
+WITH head(nodes) AS keep, tail(nodes) AS duplicates
+UNWIND duplicates AS duplicate
+MATCH (other:User)-[r:FRIEND]->(duplicate)
+WHERE other <> keep
+MERGE (other)-[moved:FRIEND]->(keep)
+ON CREATE SET moved.createdAt = r.createdAt, moved.lastUpdated = r.lastUpdated
+DELETE r;
+
+MATCH (u:User)
+WITH u.userId AS userId, collect(u) AS nodes
+WHERE userId IS NOT NULL AND size(nodes) > 1
+UNWIND tail(nodes) AS duplicate
+DETACH DELETE duplicate;
@@ -0,0 +1,2 @@
+// Backs the lookups of users by user ID with an index, and makes duplicate user nodes impossible
+CREATE CONSTRAINT ON (u:User) ASSERT u.userId IS UNIQUE;
@@ -0,0 +1,128 @@
+package io.example.domain.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FriendAdjacencyTest {
+
+    @Test
+    public void ofNumbersEveryUserAndDropsDuplicateFriendships() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {1, 2}, {2, 3}});
+
+        assertEquals(3, adjacency.vertexCount());
+        assertEquals(2, adjacency.edgeCount());
+    }
+
+    @Test
+    public void addReturnsWhetherTheFriendshipIsNew() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}});
+
+        assertTrue(adjacency.add(1, 3));
+        assertFalse(adjacency.add(1, 3));
+        assertFalse(adjacency.add(1, 2));
+        assertEquals(3, adjacency.vertexCount());
+        assertEquals(2, adjacency.edgeCount());
+    }
+
+    @Test
+    public void removeReturnsWhetherTheFriendshipExisted() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {2, 3}});
+
+        assertTrue(adjacency.remove(1, 2));
+        assertFalse(adjacency.remove(1, 2));
+        // Friendships are directed, so the reverse pair is a different friendship
+        assertFalse(adjacency.remove(3, 2));
+        assertFalse(adjacency.remove(1, 99));
+        assertEquals(1, adjacency.edgeCount());
+        assertArrayEquals(new long[0], adjacency.mutualFriends(1, 3));
+    }
+
+    @Test
+    public void mutualFriendsFollowsFriendshipsInEitherDirection() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {3, 2}, {1, 4}, {4, 3}, {1, 5}});
+
+        long[] mutual = adjacency.mutualFriends(1, 3);
+        Arrays.sort(mutual);
+
+        assertArrayEquals(new long[]{2, 4}, mutual);
+    }
+
+    @Test
+    public void recommendedFriendsRanksFriendsOfFriendsByFriendsInCommon() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {1, 3}, {2, 4}, {3, 4}, {2, 5}, {5, 1}});
+
+        FriendAdjacency.Ranking ranking = adjacency.recommendedFriends(1);
+
+        // User 5 is a friend of user 1 through the incoming friendship, so it is not recommended
+        assertArrayEquals(new long[]{4}, ranking.userIds);
+        assertArrayEquals(new int[]{2}, ranking.weights);
+    }
+
+    @Test
+    public void recommendedFriendsOfAnUnknownUserIsEmpty() {
+        FriendAdjacency.Ranking ranking = adjacency(new long[][]{{1, 2}}).recommendedFriends(99);
+
+        assertArrayEquals(new long[0], ranking.userIds);
+    }
+
+    @Test
+    public void recommendedFriendsSeesTheChangesSinceTheLastCompaction() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {2, 3}});
+        adjacency.add(1, 4);
+        adjacency.add(4, 5);
+        adjacency.add(2, 5);
+        adjacency.remove(2, 3);
+
+        FriendAdjacency.Ranking ranking = adjacency.recommendedFriends(1);
+
+        assertArrayEquals(new long[]{5}, ranking.userIds);
+        assertArrayEquals(new int[]{2}, ranking.weights);
+    }
+
+    @Test
+    public void compactedFoldsTheChangesIntoTheRows() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {2, 3}});
+        adjacency.add(1, 4);
+        adjacency.add(4, 3);
+        adjacency.remove(1, 2);
+
+        FriendAdjacency compacted = adjacency.compacted();
+
+        assertEquals(0, compacted.changeCount());
+        assertEquals(4, compacted.vertexCount());
+        assertEquals(3, compacted.edgeCount());
+        assertArrayEquals(adjacency.recommendedFriends(1).userIds, compacted.recommendedFriends(1).userIds);
+        assertArrayEquals(new long[]{3}, compacted.recommendedFriends(1).userIds);
+        assertTrue(compacted.remove(4, 3));
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterWrites() {
+        FriendAdjacency adjacency = adjacency(new long[][]{{1, 2}, {2, 3}});
+        FriendAdjacency snapshot = adjacency.snapshot();
+
+        adjacency.add(1, 3);
+        adjacency.add(3, 4);
+
+        assertEquals(2, snapshot.edgeCount());
+        assertEquals(3, snapshot.vertexCount());
+        assertArrayEquals(new long[]{3}, snapshot.recommendedFriends(1).userIds);
+        assertArrayEquals(new long[]{4}, adjacency.recommendedFriends(1).userIds);
+    }
+
+    private static FriendAdjacency adjacency(long[][] friendships) {
+        long[] from = new long[friendships.length];
+        long[] to = new long[friendships.length];
+        for (int i = 0; i < friendships.length; i++) {
+            from[i] = friendships[i][0];
+            to[i] = friendships[i][1];
+        }
+        return FriendAdjacency.of(from, to, friendships.length);
+    }
+}
@@ -0,0 +1,52 @@
+package io.example.domain.graph;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LongIntIndexTest {
+
+    @Test
+    public void getReturnsMinusOneForAnAbsentKey() {
+        LongIntIndex index = new LongIntIndex(4);
+        index.putIfAbsent(7L, 0);
+
+        assertEquals(-1, index.get(8L));
+    }
+
+    @Test
+    public void putIfAbsentKeepsTheFirstValueOfAKey() {
+        LongIntIndex index = new LongIntIndex(4);
+
+        assertEquals(3, index.putIfAbsent(42L, 3));
+        assertEquals(3, index.putIfAbsent(42L, 5));
+        assertEquals(3, index.get(42L));
+    }
+
+    @Test
+    public void indexHoldsZeroAndNegativeKeys() {
+        LongIntIndex index = new LongIntIndex(4);
+        index.putIfAbsent(0L, 1);
+        index.putIfAbsent(-1L, 2);
+        index.putIfAbsent(Long.MIN_VALUE, 3);
+
+        assertEquals(1, index.get(0L));
+        assertEquals(2, index.get(-1L));
+        assertEquals(3, index.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void indexHoldsItsExpectedSize() {
+        int size = 10_000;
+        LongIntIndex index = new LongIntIndex(size);
+        // Keys with a common stride collide in a table that is not hashed
+        for (int i = 0; i < size; i++) {
+            index.putIfAbsent(i * 1024L, i);
+        }
+
+        for (int i = 0; i < size; i++) {
+            assertEquals(i, index.get(i * 1024L));
+        }
+        assertEquals(-1, index.get(size * 1024L));
+    }
+}
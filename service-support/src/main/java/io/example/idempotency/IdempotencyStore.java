@@ -0,0 +1,272 @@
+package io.example.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.example.shard.Shard;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static io.example.transaction.Transactions.afterCommit;
+
+/**
+ * Stores the responses of commands that were sent with an {@code Idempotency-Key} header, so that a retried command
+ * is answered with its original response instead of being executed again. A command runs in a transaction on the
+ * shard of its user, or on the primary shard if it does not belong to an existing user, and its response is recorded
+ * in that transaction, so it is stored if, and only if, the command committed. Failed commands are not recorded and
+ * can be retried.
+ * <p>
+ * Responses are kept in Postgres for {@code idempotency.ttl}, and the most recent ones are also kept in a bounded
+ * in-memory cache, which answers most retries without a database round trip. Expired responses are purged from every
+ * shard every {@code idempotency.purge-interval}. A key is unique per shard, like the primary key of the table, so the
+ * cache is keyed by the shard and the key.
+ */
+@Component
+public class IdempotencyStore implements SmartLifecycle {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Logger logger = Loggers.getLogger(IdempotencyStore.class);
+    private final ShardRouter shards;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, StoredResponse> responses;
+    private final Counter cacheReplays;
+    private final Counter databaseReplays;
+    private final Duration ttl;
+    private final Duration purgeInterval;
+    private volatile Disposable purge;
+
+    public IdempotencyStore(ShardRouter shards, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                            @Value("${idempotency.cache.maximum-size:10000}") long maximumSize,
+                            @Value("${idempotency.ttl:24h}") Duration ttl,
+                            @Value("${idempotency.purge-interval:10m}") Duration purgeInterval) {
+        this.shards = shards;
+        this.objectMapper = objectMapper;
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.cacheReplays = replayCounter(meterRegistry, "cache");
+        this.databaseReplays = replayCounter(meterRegistry, "database");
+        this.ttl = ttl;
+        this.purgeInterval = purgeInterval;
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, "idempotency");
+    }
+
+    /**
+     * Executes a command in a transaction on the shard of a user, at most once per idempotency key. A key that has
+     * already been used for the same request is answered with the recorded response. The command is responsible for
+     * calling {@link #record(Long, String, String, Object)}.
+     *
+     * @param userId       is the ID of the user that the command belongs to, which determines the shard.
+     * @param key          is the value of the {@code Idempotency-Key} header, or null to always execute the command.
+     * @param request      identifies the command and its arguments, so that a key cannot be reused for another request.
+     * @param responseType is the type of the response of the command, or {@link Void} for a command without one.
+     * @param command      supplies the pipeline of the command.
+     * @return a {@link Mono} that emits the response of the command, either recorded or new.
+     */
+    public <T> Mono<T> execute(Long userId, String key, String request, Class<T> responseType,
+                               Supplier<Mono<T>> command) {
+        return execute(shards.forUser(userId), key, request, responseType, command);
+    }
+
+    /**
+     * Executes a command that does not belong to an existing user, such as the creation of a user, in a transaction on
+     * the primary shard, at most once per idempotency key. The command is responsible for calling
+     * {@link #record(String, String, Object)}.
+     *
+     * @param key          is the value of the {@code Idempotency-Key} header, or null to always execute the command.
+     * @param request      identifies the command and its arguments, so that a key cannot be reused for another request.
+     * @param responseType is the type of the response of the command, or {@link Void} for a command without one.
+     * @param command      supplies the pipeline of the command.
+     * @return a {@link Mono} that emits the response of the command, either recorded or new.
+     */
+    public <T> Mono<T> execute(String key, String request, Class<T> responseType, Supplier<Mono<T>> command) {
+        return execute(shards.getPrimary(), key, request, responseType, command);
+    }
+
+    private <T> Mono<T> execute(Shard shard, String key, String request, Class<T> responseType,
+                                Supplier<Mono<T>> command) {
+        if (key == null) {
+            return shard.transactional(Mono.defer(command));
+        }
+
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The %s header must be between 1 and %d characters", HEADER, MAX_KEY_LENGTH)));
+        }
+
+        return replay(shard, key, request, responseType)
+                .switchIfEmpty(Mono.defer(() -> shard.transactional(Mono.defer(command))
+                        .map(Optional::of)
+                        .defaultIfEmpty(Optional.empty())
+                        // A concurrent request with the same key fails this one if it committed first
+                        .onErrorResume(ex -> replay(shard, key, request, responseType)
+                                .switchIfEmpty(Mono.error(ex)))))
+                .flatMap(response -> response.map(Mono::just).orElseGet(Mono::empty));
+    }
+
+    /**
+     * Records the response of a command in the current transaction. The response is added to the in-memory cache once
+     * the transaction commits.
+     *
+     * @param userId   is the ID of the user that the command belongs to, which determines the shard.
+     * @param key      is the value of the {@code Idempotency-Key} header, or null if the command was sent without one.
+     * @param request  identifies the command and its arguments.
+     * @param response is the response of the command, or null for a command without one.
+     * @return a {@link Mono<Void>} that completes once the response has been written.
+     */
+    public Mono<Void> record(Long userId, String key, String request, Object response) {
+        return record(shards.forUser(userId), key, request, response);
+    }
+
+    /**
+     * Records the response of a command that was executed with {@link #execute(String, String, Class, Supplier)} in
+     * the current transaction.
+     *
+     * @param key      is the value of the {@code Idempotency-Key} header, or null if the command was sent without one.
+     * @param request  identifies the command and its arguments.
+     * @param response is the response of the command, or null for a command without one.
+     * @return a {@link Mono<Void>} that completes once the response has been written.
+     */
+    public Mono<Void> record(String key, String request, Object response) {
+        return record(shards.getPrimary(), key, request, response);
+    }
+
+    private Mono<Void> record(Shard shard, String key, String request, Object response) {
+        if (key == null) {
+            return Mono.empty();
+        }
+
+        return Mono.fromCallable(() -> new StoredResponse(request,
+                        response == null ? null : objectMapper.writeValueAsBytes(response)))
+                .flatMap(stored -> {
+                    var insert = shard.getTemplate().getDatabaseClient()
+                            .sql("INSERT INTO idempotent_request (idempotency_key, request, response) " +
+                                    "VALUES (:key, :request, :response)")
+                            .bind("key", key)
+                            .bind("request", request);
+                    insert = stored.response == null ? insert.bindNull("response", byte[].class) :
+                            insert.bind("response", stored.response);
+
+                    // A key that was recorded concurrently violates the primary key and rolls back this command
+                    return insert.fetch().rowsUpdated()
+                            .then(afterCommit(() -> responses.put(cacheKey(shard, key), stored)));
+                });
+    }
+
+    @Override
+    public void start() {
+        purge = Flux.interval(purgeInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> purge().onErrorResume(ex -> {
+                    logger.warn("Failed to purge the expired idempotency keys", ex);
+                    return Mono.empty();
+                }), 1)
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        if (purge != null) {
+            purge.dispose();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return purge != null && !purge.isDisposed();
+    }
+
+    /**
+     * Deletes the responses that are older than the TTL from every shard.
+     *
+     * @return a {@link Mono<Void>} that completes once every shard has been purged.
+     */
+    public Mono<Void> purge() {
+        return shards.scatter(shard -> shard.getTemplate().getDatabaseClient()
+                        .sql("DELETE FROM idempotent_request WHERE created_at < NOW() - :ttl * INTERVAL '1 second'")
+                        .bind("ttl", ttl.toSeconds())
+                        .fetch()
+                        .rowsUpdated())
+                .then();
+    }
+
+    private <T> Mono<Optional<T>> replay(Shard shard, String key, String request, Class<T> responseType) {
+        return find(shard, key).handle((stored, sink) -> {
+            if (!stored.request.equals(request)) {
+                sink.error(new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                        String.format("The %s has already been used for a different request", HEADER)));
+                return;
+            }
+
+            try {
+                sink.next(Optional.ofNullable(stored.response == null || responseType == Void.class ? null :
+                        objectMapper.readValue(stored.response, responseType)));
+            } catch (Exception ex) {
+                sink.error(ex);
+            }
+        });
+    }
+
+    private Mono<StoredResponse> find(Shard shard, String key) {
+        StoredResponse cached = responses.getIfPresent(cacheKey(shard, key));
+        if (cached != null) {
+            cacheReplays.increment();
+            return Mono.just(cached);
+        }
+
+        return shard.getTemplate().getDatabaseClient()
+                .sql("SELECT request, response FROM idempotent_request WHERE idempotency_key = :key " +
+                        "AND created_at >= NOW() - :ttl * INTERVAL '1 second'")
+                .bind("key", key)
+                .bind("ttl", ttl.toSeconds())
+                .map(row -> new StoredResponse(row.get("request", String.class), row.get("response", byte[].class)))
+                .one()
+                .doOnNext(stored -> {
+                    databaseReplays.increment();
+                    responses.put(cacheKey(shard, key), stored);
+                });
+    }
+
+    private static String cacheKey(Shard shard, String key) {
+        return shard.getIndex() + ":" + key;
+    }
+
+    private static Counter replayCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("idempotency.replays")
+                .description("The number of commands that were answered with a recorded response")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+    private static class StoredResponse {
+
+        private final String request;
+        private final byte[] response;
+
+        private StoredResponse(String request, byte[] response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.example.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Records the latency of commands, and of each phase of a command, as Micrometer timers. A sample is only recorded
+ * once the enclosing transaction completes, so that every timer is tagged with the outcome of the transaction:
+ * {@code committed} or {@code rolled_back}. Without a transaction each statement commits as it runs, so a command
+ * is tagged {@code committed} when it succeeds and {@code rolled_back} when it fails.
+ * <p>
+ * The {@code command.duration} timer measures a whole command up to the end of its transaction, which includes the
+ * commit. The {@code command.phase.duration} timer measures each phase within a command.
+ */
+@Component
+public class CommandMetrics {
+
+    public static final String COMMITTED = "committed";
+    public static final String ROLLED_BACK = "rolled_back";
+    public static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry meterRegistry;
+
+    public CommandMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Times a whole command, from subscription until its transaction completes.
+     *
+     * @param command   is the name of the command, such as {@code friend.create}.
+     * @param operation supplies the pipeline of the command.
+     * @return the pipeline of the command, which records its latency when the transaction completes.
+     */
+    public <T> Mono<T> command(String command, Supplier<Mono<T>> operation) {
+        return timed(operation, true, outcome -> Timer.builder("command.duration")
+                .description("The latency of a command, including the commit of its transaction")
+                .tag("command", command)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+    /**
+     * Times a phase of a command, from subscription until the phase terminates.
+     *
+     * @param command   is the name of the command, such as {@code friend.create}.
+     * @param phase     is the name of the phase, such as {@code insert}.
+     * @param operation supplies the pipeline of the phase.
+     * @return the pipeline of the phase, which records its latency when the transaction completes.
+     */
+    public <T> Mono<T> phase(String command, String phase, Supplier<Mono<T>> operation) {
+        return timed(operation, false, outcome -> Timer.builder("command.phase.duration")
+                .description("The latency of a phase of a command")
+                .tag("command", command)
+                .tag("phase", phase)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+    private <T> Mono<T> timed(Supplier<Mono<T>> operation, boolean untilCompletion, Function<String, Timer> timer) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return operation.get()
+                    .materialize()
+                    .delayUntil(signal -> {
+                        long end = System.nanoTime();
+                        return afterCompletion(signal.isOnError(), outcome -> timer.apply(outcome)
+                                .record((untilCompletion ? System.nanoTime() : end) - start, TimeUnit.NANOSECONDS));
+                    })
+                    .<T>dematerialize();
+        });
+    }
+
+    private Mono<Void> afterCompletion(boolean failed, Consumer<String> recorder) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .filter(TransactionSynchronizationManager::isSynchronizationActive)
+                .doOnNext(manager -> manager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public Mono<Void> afterCompletion(int status) {
+                        return Mono.fromRunnable(() -> recorder.accept(status == STATUS_COMMITTED ? COMMITTED :
+                                status == STATUS_ROLLED_BACK ? ROLLED_BACK : UNKNOWN));
+                    }
+                }))
+                .onErrorResume(NoTransactionException.class, ex -> Mono.empty())
+                .switchIfEmpty(Mono.fromRunnable(() -> recorder.accept(failed ? ROLLED_BACK : COMMITTED)))
+                .then();
+    }
+}
@@ -0,0 +1,71 @@
+package io.example.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Wrapped;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ConnectionFactory} that records how long it takes to acquire a connection from the factory it wraps, which
+ * includes the time spent waiting for a pooled connection to become available. Since it implements {@link Wrapped},
+ * the actuator still finds the underlying connection pool and binds its gauges.
+ */
+public class TimedConnectionFactory implements ConnectionFactory, Wrapped<ConnectionFactory>, Disposable {
+
+	private final ConnectionFactory delegate;
+	private final Timer acquired;
+	private final Timer failed;
+
+	public TimedConnectionFactory(ConnectionFactory delegate, MeterRegistry registry, String name) {
+		this.delegate = delegate;
+		this.acquired = acquireTimer(registry, name, "success");
+		this.failed = acquireTimer(registry, name, "failure");
+	}
+
+	@Override
+	public Publisher<? extends Connection> create() {
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return Mono.<Connection>from(delegate.create())
+					.doOnSuccess(connection -> acquired.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+					.doOnError(ex -> failed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+		});
+	}
+
+	@Override
+	public ConnectionFactoryMetadata getMetadata() {
+		return delegate.getMetadata();
+	}
+
+	@Override
+	public ConnectionFactory unwrap() {
+		return delegate;
+	}
+
+	@Override
+	public void dispose() {
+		if (delegate instanceof Disposable) {
+			((Disposable) delegate).dispose();
+		}
+	}
+
+	@Override
+	public boolean isDisposed() {
+		return delegate instanceof Disposable && ((Disposable) delegate).isDisposed();
+	}
+
+	private static Timer acquireTimer(MeterRegistry registry, String name, String outcome) {
+		return Timer.builder("r2dbc.pool.acquire")
+				.description("Time taken to acquire a connection from the pool")
+				.tag("name", name)
+				.tag("outcome", outcome)
+				.register(registry);
+	}
+}
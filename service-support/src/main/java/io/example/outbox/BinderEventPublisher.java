@@ -0,0 +1,47 @@
+package io.example.outbox;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.messaging.Source;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+
+/**
+ * Publishes domain events through the output channel of the Spring Cloud Stream binding. A send blocks until the
+ * broker has acknowledged the message, so every send occupies a thread of the bounded elastic scheduler. Selected
+ * with {@code outbox.relay.producer=binder}.
+ */
+@Component
+@ConditionalOnProperty(name = "outbox.relay.producer", havingValue = "binder")
+public class BinderEventPublisher implements EventPublisher {
+
+    private final Source messageBroker;
+    private final long sendTimeout;
+
+    public BinderEventPublisher(Source messageBroker,
+                                @Value("${outbox.relay.send-timeout:30s}") Duration sendTimeout) {
+        this.messageBroker = messageBroker;
+        this.sendTimeout = sendTimeout.toMillis();
+    }
+
+    @Override
+    public Mono<Void> publish(OutboxEvent event) {
+        return Mono.fromRunnable(() -> {
+            Message<byte[]> message = MessageBuilder.withPayload(event.getPayload())
+                    .setHeader(MessageHeaders.CONTENT_TYPE, event.getContentType())
+                    .setHeader(KafkaHeaders.MESSAGE_KEY, EventPublisher.messageKey(event))
+                    .build();
+            if (!messageBroker.output().send(message, sendTimeout)) {
+                throw new MessageDeliveryException(message, "Timed out sending a domain event to the message broker");
+            }
+        }).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+}
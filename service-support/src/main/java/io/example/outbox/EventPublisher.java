@@ -0,0 +1,31 @@
+package io.example.outbox;
+
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Publishes the domain events of the outbox to the message broker. The {@link OutboxRelay} publishes the events of an
+ * aggregate one after another, and only deletes an event from the outbox once its publication has completed.
+ * <p>
+ * Every message is keyed by the ID of its aggregate, so the Kafka partitioner sends all of the events of an aggregate
+ * to the same partition, where they are consumed in order.
+ */
+public interface EventPublisher {
+
+    /**
+     * Publishes an outbox event to the topic of the output binding.
+     *
+     * @param event is the outbox event to publish.
+     * @return a {@link Mono<Void>} that completes once the broker has acknowledged the event, or fails if it has not.
+     */
+    Mono<Void> publish(OutboxEvent event);
+
+    /**
+     * @param event is an outbox event.
+     * @return the Kafka message key of the event, which is the decimal aggregate ID in UTF-8.
+     */
+    static byte[] messageKey(OutboxEvent event) {
+        return Long.toString(event.getAggregateId()).getBytes(StandardCharsets.UTF_8);
+    }
+}
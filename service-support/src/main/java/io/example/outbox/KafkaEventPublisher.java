@@ -0,0 +1,96 @@
+package io.example.outbox;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+import reactor.kafka.sender.SenderRecord;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes domain events with a non-blocking reactive Kafka producer. Sends complete when the broker acknowledges
+ * them, without holding a thread while they are in flight, and the producer batches the records of concurrent sends by
+ * partition, bounded by {@code outbox.relay.kafka.linger} and {@code outbox.relay.kafka.batch-size}, and compresses
+ * each batch with {@code outbox.relay.kafka.compression-type}.
+ * <p>
+ * The producer is idempotent and waits for all in-sync replicas, so a retried batch is neither duplicated nor
+ * reordered within its partition. The content type header is written the way the Kafka binder writes it, so the
+ * consumers of the topic cannot tell the two producers apart. This is the default producer, and the binder is selected
+ * with {@code outbox.relay.producer=binder}.
+ */
+@Component
+@ConditionalOnProperty(name = "outbox.relay.producer", havingValue = "kafka", matchIfMissing = true)
+public class KafkaEventPublisher implements EventPublisher, DisposableBean {
+
+    private final KafkaSender<byte[], byte[]> sender;
+    private final String topic;
+    private final KafkaHeaderMapper headerMapper = new DefaultKafkaHeaderMapper();
+
+    @Autowired
+    public KafkaEventPublisher(@Value("${spring.cloud.stream.kafka.binder.brokers:localhost}") String[] brokers,
+                               @Value("${spring.cloud.stream.kafka.binder.defaultBrokerPort:9092}")
+                               String defaultBrokerPort,
+                               @Value("${spring.cloud.stream.bindings.output.destination}") String topic,
+                               @Value("${outbox.relay.kafka.linger:5ms}") Duration linger,
+                               @Value("${outbox.relay.kafka.batch-size:65536}") int batchSize,
+                               @Value("${outbox.relay.kafka.compression-type:lz4}") String compressionType,
+                               @Value("${outbox.relay.kafka.max-in-flight:1024}") int maxInFlight) {
+        this(KafkaSender.create(SenderOptions.<byte[], byte[]>create(
+                producerProperties(brokers, defaultBrokerPort, linger, batchSize, compressionType)).maxInFlight(maxInFlight)), topic);
+    }
+
+    public KafkaEventPublisher(KafkaSender<byte[], byte[]> sender, String topic) {
+        this.sender = sender;
+        this.topic = topic;
+    }
+
+    @Override
+    public Mono<Void> publish(OutboxEvent event) {
+        return sender.send(Mono.fromCallable(() -> SenderRecord.create(record(event), event.getId()))).then();
+    }
+
+    @Override
+    public void destroy() {
+        sender.close();
+    }
+
+    private ProducerRecord<byte[], byte[]> record(OutboxEvent event) {
+        ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(topic, EventPublisher.messageKey(event),
+                event.getPayload());
+        headerMapper.fromHeaders(new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, event.getContentType())),
+                record.headers());
+        return record;
+    }
+
+    private static Map<String, Object> producerProperties(String[] brokers, String defaultBrokerPort, Duration linger,
+                                                          int batchSize, String compressionType) {
+        Map<String, Object> properties = new HashMap<>();
+        // Brokers without a port connect to the default broker port of the binder, as the binder's own producers do
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, Arrays.stream(brokers)
+                .map(broker -> broker.contains(":") ? broker : broker + ":" + defaultBrokerPort)
+                .collect(Collectors.joining(",")));
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        properties.put(ProducerConfig.ACKS_CONFIG, "all");
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, (int) linger.toMillis());
+        properties.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        return properties;
+    }
+}
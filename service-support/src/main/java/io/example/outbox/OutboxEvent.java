@@ -0,0 +1,124 @@
+package io.example.outbox;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A serialized domain event that has been committed to the outbox table in the same transaction as the state change
+ * that produced it. Rows are removed by the {@link OutboxRelay} once they have been published to the message broker.
+ */
+@Table("outbox")
+public class OutboxEvent {
+
+	@Id
+	private Long id;
+
+	@Column(value = "aggregate_id")
+	private Long aggregateId;
+
+	@Column(value = "event_type")
+	private String eventType;
+
+	@Column(value = "content_type")
+	private String contentType;
+
+	@Column(value = "payload")
+	private byte[] payload;
+
+	@Column(value = "created_at")
+	private Timestamp createdAt;
+
+	public OutboxEvent() {
+	}
+
+	public OutboxEvent(Long aggregateId, String eventType, String contentType, byte[] payload) {
+		this.aggregateId = aggregateId;
+		this.eventType = eventType;
+		this.contentType = contentType;
+		this.payload = payload;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Long getAggregateId() {
+		return aggregateId;
+	}
+
+	public void setAggregateId(Long aggregateId) {
+		this.aggregateId = aggregateId;
+	}
+
+	public String getEventType() {
+		return eventType;
+	}
+
+	public void setEventType(String eventType) {
+		this.eventType = eventType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public void setPayload(byte[] payload) {
+		this.payload = payload;
+	}
+
+	public Timestamp getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Timestamp createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	@Override
+	public String toString() {
+		return "OutboxEvent{" +
+				"id=" + id +
+				", aggregateId=" + aggregateId +
+				", eventType='" + eventType + '\'' +
+				", contentType='" + contentType + '\'' +
+				", payload=" + (payload == null ? 0 : payload.length) + " bytes" +
+				", createdAt=" + createdAt +
+				'}';
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		OutboxEvent that = (OutboxEvent) o;
+		return Objects.equals(id, that.id) &&
+				Objects.equals(aggregateId, that.aggregateId) &&
+				Objects.equals(eventType, that.eventType) &&
+				Objects.equals(contentType, that.contentType) &&
+				Arrays.equals(payload, that.payload) &&
+				Objects.equals(createdAt, that.createdAt);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Objects.hash(id, aggregateId, eventType, contentType, createdAt);
+		return 31 * result + Arrays.hashCode(payload);
+	}
+}
@@ -0,0 +1,238 @@
+package io.example.outbox;
+
+import io.example.shard.Shard;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link OutboxRelay} drains committed {@link OutboxEvent} rows in batches and publishes them to the message
+ * broker. Each batch is read in insertion order and grouped by aggregate ID. Aggregates are published concurrently,
+ * but the events of a single aggregate are sent one after another, and a failed send holds back the remaining events
+ * of that aggregate until the next attempt. Only the rows that were acknowledged are deleted.
+ * <p>
+ * A batch is claimed in a short transaction, which leases its rows until {@code outbox.relay.lease} from now and
+ * commits before anything is sent, so no connection is held while the broker is slow. A claim skips the aggregates
+ * that still have leased rows, and claims are serialized by a transaction-scoped Postgres advisory lock, so the events
+ * of an aggregate are only ever published by one relay, in order, even when the service is scaled out. A batch stops
+ * publishing after half of its lease. The acknowledged rows are then deleted, and the leases of the others are
+ * released, so they are claimed again by the next batch. The rows of a relay that stopped are claimed again once their
+ * lease expires.
+ * <p>
+ * Every shard has its own outbox, and the shards are drained in parallel. Since all the events of an aggregate are
+ * appended on the same shard, draining the shards independently keeps the per-aggregate ordering.
+ * <p>
+ * Events are published by the {@link EventPublisher} of {@code outbox.relay.producer}, which is the non-blocking
+ * {@link KafkaEventPublisher} by default. Each send is recorded by the {@code outbox.relay.publish} timer with an
+ * outcome of {@code published} or {@code broker_failure}, and the {@code outbox.relay.lag} timer records how long
+ * published events waited in the outbox.
+ */
+@Component
+public class OutboxRelay implements SmartLifecycle {
+
+    private static final long RELAY_LOCK_KEY = 0x6f7574626f78L;
+
+    private static final String CLAIM = "UPDATE outbox SET claimed_until = NOW() + :lease * INTERVAL '1 millisecond' " +
+            "WHERE id IN (SELECT id FROM outbox o WHERE NOT EXISTS (SELECT 1 FROM outbox c " +
+            "WHERE c.aggregate_id = o.aggregate_id AND c.claimed_until > NOW()) ORDER BY id LIMIT :limit) " +
+            "RETURNING id, aggregate_id, event_type, content_type, payload, created_at";
+
+    private final Logger logger = Loggers.getLogger(OutboxRelay.class);
+    private final ShardRouter shards;
+    private final EventPublisher publisher;
+    private final Timer published;
+    private final Timer brokerFailure;
+    private final Timer lag;
+    private final int batchSize;
+    private final int concurrency;
+    private final Duration linger;
+    private final Duration sendTimeout;
+    private final Duration lease;
+    private volatile Disposable relay;
+
+    public OutboxRelay(ShardRouter shards, EventPublisher publisher, MeterRegistry meterRegistry,
+                       @Value("${outbox.relay.batch-size:100}") int batchSize,
+                       @Value("${outbox.relay.concurrency:8}") int concurrency,
+                       @Value("${outbox.relay.linger:250ms}") Duration linger,
+                       @Value("${outbox.relay.send-timeout:30s}") Duration sendTimeout,
+                       @Value("${outbox.relay.lease:2m}") Duration lease) {
+        this.shards = shards;
+        this.publisher = publisher;
+        this.published = publishTimer(meterRegistry, "published");
+        this.brokerFailure = publishTimer(meterRegistry, "broker_failure");
+        this.lag = Timer.builder("outbox.relay.lag")
+                .description("The time between appending a domain event to the outbox and publishing it")
+                .register(meterRegistry);
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.linger = linger;
+        this.sendTimeout = sendTimeout;
+        this.lease = lease;
+    }
+
+    @Override
+    public void start() {
+        relay = Flux.interval(linger)
+                .onBackpressureDrop()
+                .concatMap(tick -> drain().onErrorResume(ex -> {
+                    logger.error("The outbox relay failed to publish a batch of domain events", ex);
+                    return Mono.empty();
+                }), 1)
+                .subscribe();
+    }
+
+    @Override
+    public void stop() {
+        if (relay != null) {
+            relay.dispose();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return relay != null && !relay.isDisposed();
+    }
+
+    /**
+     * Drains the outbox of every shard in parallel, relaying batches until each outbox returns less than a full batch
+     * of published events.
+     *
+     * @return a {@link Mono<Void>} that completes once every outbox has been drained.
+     */
+    public Mono<Void> drain() {
+        return Flux.fromIterable(shards.getShards())
+                .flatMap(shard -> drain(shard).onErrorResume(ex -> {
+                    // A shard that is unavailable does not hold back the outboxes of the other shards
+                    logger.error(String.format("The outbox relay failed to drain %s", shard), ex);
+                    return Mono.empty();
+                }))
+                .then();
+    }
+
+    private Mono<Void> drain(Shard shard) {
+        return Mono.defer(() -> relayBatch(shard))
+                .repeat()
+                .takeWhile(published -> published == batchSize)
+                .then();
+    }
+
+    private Mono<Integer> relayBatch(Shard shard) {
+        return claim(shard).flatMap(batch -> batch.isEmpty() ? Mono.just(0) :
+                publish(batch).flatMap(published -> complete(shard, batch, published)
+                        .thenReturn(published.size())));
+    }
+
+    /**
+     * Leases the next batch of events in a transaction that commits before the events are published. A relay that does
+     * not get the advisory lock claims nothing, since another relay is claiming the same outbox.
+     */
+    private Mono<List<OutboxEvent>> claim(Shard shard) {
+        R2dbcEntityTemplate template = shard.getTemplate();
+
+        return shard.transactional(tryLock(template).flatMap(locked -> !locked ? Mono.just(List.<OutboxEvent>of()) :
+                template.getDatabaseClient()
+                        .sql(CLAIM)
+                        .bind("lease", lease.toMillis())
+                        .bind("limit", batchSize)
+                        .map((row, metadata) -> template.getConverter().read(OutboxEvent.class, row, metadata))
+                        .all()
+                        .sort(Comparator.comparing(OutboxEvent::getId))
+                        .collectList()));
+    }
+
+    private Mono<List<Long>> publish(List<OutboxEvent> batch) {
+        Map<Long, List<OutboxEvent>> aggregates = batch.stream()
+                .collect(Collectors.groupingBy(OutboxEvent::getAggregateId, LinkedHashMap::new,
+                        Collectors.toList()));
+
+        // Stop publishing well within the lease, so that no other relay can claim the events while they are sent
+        return Flux.fromIterable(aggregates.values())
+                .flatMap(this::publishInOrder, concurrency)
+                .take(lease.dividedBy(2))
+                .collectList();
+    }
+
+    /**
+     * Deletes the events that were published, and releases the leases of the others so that they are retried by the
+     * next batch.
+     */
+    private Mono<Void> complete(Shard shard, List<OutboxEvent> batch, List<Long> published) {
+        DatabaseClient databaseClient = shard.getTemplate().getDatabaseClient();
+        Set<Long> deleted = Set.copyOf(published);
+        List<Long> released = batch.stream()
+                .map(OutboxEvent::getId)
+                .filter(id -> !deleted.contains(id))
+                .collect(Collectors.toList());
+
+        Mono<Void> delete = published.isEmpty() ? Mono.empty() : databaseClient
+                .sql("DELETE FROM outbox WHERE id = ANY(:ids)")
+                .bind("ids", published.toArray(new Long[0]))
+                .then();
+        Mono<Void> release = released.isEmpty() ? Mono.empty() : databaseClient
+                .sql("UPDATE outbox SET claimed_until = NULL WHERE id = ANY(:ids)")
+                .bind("ids", released.toArray(new Long[0]))
+                .then();
+        return shard.transactional(delete.then(release));
+    }
+
+    private Flux<Long> publishInOrder(List<OutboxEvent> events) {
+        return Flux.fromIterable(events)
+                .concatMap(event -> send(event).thenReturn(event.getId()))
+                .onErrorResume(ex -> {
+                    // The remaining events of this aggregate stay in the outbox and are retried in order
+                    logger.warn(String.format("Publishing to the message broker has failed for aggregate %s",
+                            events.get(0).getAggregateId()), ex);
+                    return Flux.empty();
+                });
+    }
+
+    private Mono<Void> send(OutboxEvent event) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return publisher.publish(event)
+                    .timeout(sendTimeout)
+                    .doOnError(ex -> brokerFailure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doOnSuccess(result -> {
+                        published.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        if (event.getCreatedAt() != null) {
+                            lag.record(Duration.between(event.getCreatedAt().toInstant(), Instant.now()));
+                        }
+                    });
+        });
+    }
+
+    private static Timer publishTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("outbox.relay.publish")
+                .description("The latency of publishing a domain event to the message broker")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Mono<Boolean> tryLock(R2dbcEntityTemplate template) {
+        return template.getDatabaseClient()
+                .sql("SELECT pg_try_advisory_xact_lock(:key)")
+                .bind("key", RELAY_LOCK_KEY)
+                .map((row, metadata) -> row.get(0, Boolean.class))
+                .one();
+    }
+}
@@ -0,0 +1,161 @@
+package io.example.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.shard.Shard;
+import io.example.shard.ShardRouter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link OutboxService} appends domain events to the outbox table. Appending must happen inside the transaction
+ * that changes the state of the aggregate, so that the event is committed if, and only if, the state change is
+ * committed. Publishing to the message broker is left to the {@link OutboxRelay}, which keeps broker latency out of
+ * the write path.
+ * <p>
+ * The outbox is sharded along with the data of the service. The aggregate ID of an event is the ID of the user whose
+ * data changed, so each event is appended on the shard, and in the transaction, of the change it describes.
+ * <p>
+ * Events are serialized with the codec of the {@code contentType} of the output binding: JSON, or the binary event
+ * format of {@link BinaryEventMessageConverter} for the event classes that it has registered. The content type is
+ * stored with each event, so events that were appended before the binding changed are still relayed with the content
+ * type they were written in.
+ * <p>
+ * If {@code outbox.event-store} names an event store table, a {@link VersionedEvent} is also appended to it, an
+ * append-only log of every event of every aggregate, keyed by the aggregate ID and version. Unlike the outbox, which is
+ * emptied as events are published, the store keeps the full history of each aggregate.
+ */
+@Service
+public class OutboxService {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final ShardRouter shards;
+    private final ObjectMapper objectMapper;
+    private final BinaryEventMessageConverter binaryConverter;
+    private final boolean binary;
+    private final String eventStore;
+
+    public OutboxService(ShardRouter shards, ObjectMapper objectMapper, BinaryEventMessageConverter binaryConverter,
+                         @Value("${spring.cloud.stream.bindings.output.content-type:application/json}")
+                         String contentType,
+                         @Value("${outbox.event-store:}") String eventStore) {
+        this.shards = shards;
+        this.objectMapper = objectMapper;
+        this.binaryConverter = binaryConverter;
+        this.binary = BinaryEventMessageConverter.MIME_TYPE.equals(MimeType.valueOf(contentType));
+        this.eventStore = eventStore.isEmpty() ? null : eventStore;
+    }
+
+    /**
+     * Serializes a domain event and appends it to the outbox table.
+     *
+     * @param aggregateId is the ID of the aggregate the event belongs to, which determines the shard and the relay
+     *                    ordering.
+     * @param eventType   is the type of the domain event.
+     * @param event       is the domain event that will be serialized as the message payload.
+     * @return a {@link Mono<Void>} that completes once the event has been written to the outbox.
+     */
+    public Mono<Void> append(Long aggregateId, Enum<?> eventType, Object event) {
+        R2dbcEntityTemplate template = shards.forUser(aggregateId).getTemplate();
+        return Mono.fromCallable(() -> insert(template, eventType, List.of(event), e -> aggregateId))
+                .flatMap(insert -> insert.fetch().rowsUpdated())
+                .then();
+    }
+
+    /**
+     * Serializes a batch of domain events and appends them to the outbox table with multi-row inserts. The events are
+     * relayed in the order of the supplied list, and each event is appended on the shard of its aggregate.
+     *
+     * @param eventType   is the type of the domain events.
+     * @param events      are the domain events that will be serialized as message payloads.
+     * @param aggregateId is a function that returns the ID of the aggregate that an event belongs to.
+     * @return a {@link Mono<Void>} that completes once all of the events have been written to the outbox.
+     */
+    public <T> Mono<Void> appendAll(Enum<?> eventType, List<T> events, Function<T, Long> aggregateId) {
+        Map<Shard, List<T>> partitions = events.stream()
+                .collect(Collectors.groupingBy(event -> shards.forUser(aggregateId.apply(event)), LinkedHashMap::new,
+                        Collectors.toList()));
+
+        return Flux.fromIterable(partitions.entrySet())
+                .concatMap(partition -> appendAll(partition.getKey().getTemplate(), eventType, partition.getValue(),
+                        aggregateId))
+                .then();
+    }
+
+    private <T> Mono<Void> appendAll(R2dbcEntityTemplate template, Enum<?> eventType, List<T> events,
+                                     Function<T, Long> aggregateId) {
+        return Flux.fromIterable(events)
+                .buffer(BATCH_SIZE)
+                .concatMap(batch -> Mono.fromCallable(() -> insert(template, eventType, batch, aggregateId))
+                        .flatMap(insert -> insert.fetch().rowsUpdated()))
+                .then();
+    }
+
+    /**
+     * Builds the insert of a batch of events. Versioned events are also appended to the event store, by the same
+     * statement, so the store and the outbox cannot disagree. The store has a unique key on the aggregate ID and
+     * version, so an event that reuses a version fails its transaction.
+     */
+    private <T> DatabaseClient.GenericExecuteSpec insert(R2dbcEntityTemplate template, Enum<?> eventType,
+                                                        List<T> events, Function<T, Long> aggregateId)
+            throws JsonProcessingException {
+        boolean versioned = eventStore != null && events.stream().allMatch(event -> version(event) != null);
+
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < events.size(); i++) {
+            values.add(String.format(versioned ?
+                    "(:aggregateId%1$d, :version%1$d, :eventType%1$d, :contentType%1$d, :payload%1$d)" :
+                    "(:aggregateId%1$d, :eventType%1$d, :contentType%1$d, :payload%1$d)", i));
+        }
+
+        DatabaseClient.GenericExecuteSpec insert = template.getDatabaseClient().sql(versioned ?
+                "WITH stored AS (INSERT INTO " + eventStore + " (aggregate_id, version, event_type, content_type, " +
+                        "payload) VALUES " + values + " RETURNING id, aggregate_id, event_type, content_type, payload) " +
+                        "INSERT INTO outbox (aggregate_id, event_type, content_type, payload) " +
+                        "SELECT aggregate_id, event_type, content_type, payload FROM stored ORDER BY id" :
+                "INSERT INTO outbox (aggregate_id, event_type, content_type, payload) VALUES " + values);
+        for (int i = 0; i < events.size(); i++) {
+            T event = events.get(i);
+            insert = insert.bind("aggregateId" + i, aggregateId.apply(event))
+                    .bind("eventType" + i, eventType.name())
+                    .bind("contentType" + i, contentType(event))
+                    .bind("payload" + i, serialize(event));
+            if (versioned) {
+                insert = insert.bind("version" + i, version(event));
+            }
+        }
+
+        return insert;
+    }
+
+    private String contentType(Object event) {
+        return isBinary(event) ? BinaryEventMessageConverter.CONTENT_TYPE : MediaType.APPLICATION_JSON_VALUE;
+    }
+
+    private byte[] serialize(Object event) throws JsonProcessingException {
+        return isBinary(event) ? binaryConverter.encode(event) : objectMapper.writeValueAsBytes(event);
+    }
+
+    private boolean isBinary(Object event) {
+        return binary && binaryConverter.canEncode(event.getClass());
+    }
+
+    private static Long version(Object event) {
+        return event instanceof VersionedEvent ? ((VersionedEvent) event).getVersion() : null;
+    }
+}
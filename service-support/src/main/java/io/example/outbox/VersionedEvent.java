@@ -0,0 +1,14 @@
+package io.example.outbox;
+
+/**
+ * A domain event that carries the version of its aggregate. The {@link OutboxService} appends versioned events to the
+ * event store of {@code outbox.event-store}, if one is configured.
+ */
+public interface VersionedEvent {
+
+    /**
+     * @return the version of the aggregate after this event, which increases by one with every event of the
+     * aggregate, or null if the aggregate is not versioned.
+     */
+    Long getVersion();
+}
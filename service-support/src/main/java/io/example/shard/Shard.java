@@ -0,0 +1,67 @@
+package io.example.shard;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * One of the Postgres databases that the data of a service is partitioned across. A shard holds the data of the users
+ * that hash to it, such as their friendships, together with the outbox events of those users, so a command on a single
+ * user is a local transaction on a single shard.
+ */
+public class Shard {
+
+    private final int index;
+    private final ConnectionFactory connectionFactory;
+    private final R2dbcEntityTemplate template;
+    private final TransactionalOperator transactionalOperator;
+
+    public Shard(int index, ConnectionFactory connectionFactory) {
+        this.index = index;
+        this.connectionFactory = connectionFactory;
+        this.template = new R2dbcEntityTemplate(connectionFactory);
+        this.transactionalOperator = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public R2dbcEntityTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Runs the supplied pipeline in a transaction on this shard.
+     *
+     * @param mono is the pipeline to run in the transaction.
+     * @return a {@link Mono} that emits the result of the pipeline once the transaction has committed.
+     */
+    public <T> Mono<T> transactional(Mono<T> mono) {
+        return transactionalOperator.transactional(mono);
+    }
+
+    /**
+     * Runs the supplied pipeline in a transaction on this shard.
+     *
+     * @param flux is the pipeline to run in the transaction.
+     * @return a {@link Flux} that emits the results of the pipeline, and completes once the transaction has committed.
+     */
+    public <T> Flux<T> transactional(Flux<T> flux) {
+        return transactionalOperator.transactional(flux);
+    }
+
+    @Override
+    public String toString() {
+        return "Shard{" +
+                "index=" + index +
+                '}';
+    }
+}
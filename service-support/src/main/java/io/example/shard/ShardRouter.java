@@ -0,0 +1,98 @@
+package io.example.shard;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.util.Assert;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Routes the data of a service to one of the configured {@link Shard}s by hashing the user ID. Everything that belongs
+ * to a user, such as their friendships and the outbox events about them, lives on the shard of that user, so per-user
+ * reads and commands only ever touch one shard. Queries that are not keyed by a user are scattered to every shard in
+ * parallel. A service that is not partitioned routes everything to its primary database, as the only shard.
+ * <p>
+ * The shard of a user depends on the number of shards, so existing rows must be rebalanced before shards are added or
+ * removed.
+ */
+public class ShardRouter {
+
+    private final List<Shard> shards;
+    private final List<ConnectionFactory> owned;
+
+    /**
+     * Creates a router over the primary database and any number of additional shards.
+     *
+     * @param primary     is the connection factory of shard 0, which is managed by the application context.
+     * @param secondaries are the connection factories of shards 1..N-1, which are disposed with this router.
+     */
+    public ShardRouter(ConnectionFactory primary, List<ConnectionFactory> secondaries) {
+        Assert.notNull(primary, "The primary connection factory must not be null");
+        List<Shard> shards = new ArrayList<>(secondaries.size() + 1);
+        shards.add(new Shard(0, primary));
+        for (ConnectionFactory secondary : secondaries) {
+            shards.add(new Shard(shards.size(), secondary));
+        }
+        this.shards = Collections.unmodifiableList(shards);
+        this.owned = List.copyOf(secondaries);
+    }
+
+    /**
+     * Gets the shard that holds the data and outbox events of a user.
+     *
+     * @param userId is the ID of the user.
+     * @return the {@link Shard} of the user.
+     */
+    public Shard forUser(Long userId) {
+        Assert.notNull(userId, "User ID must not be null");
+        return shards.get(shardIndex(userId, shards.size()));
+    }
+
+    /**
+     * @return shard 0, which is the primary database of the service.
+     */
+    public Shard getPrimary() {
+        return shards.get(0);
+    }
+
+    /**
+     * Runs a query on every shard in parallel and merges the results as they arrive.
+     *
+     * @param query is a function that creates the query for a shard.
+     * @return a {@link Flux} that emits the results of all the shards, in no particular order.
+     */
+    public <T> Flux<T> scatter(Function<Shard, Publisher<T>> query) {
+        if (shards.size() == 1) {
+            return Flux.from(query.apply(shards.get(0)));
+        }
+        return Flux.merge(shards.stream().map(query).collect(Collectors.toList()));
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    public void dispose() {
+        owned.stream()
+                .filter(Disposable.class::isInstance)
+                .map(Disposable.class::cast)
+                .forEach(Disposable::dispose);
+    }
+
+    static int shardIndex(long userId, int shardCount) {
+        // The 64-bit finalizer of MurmurHash3 spreads sequential user IDs evenly, and must never change
+        long hash = userId;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) Math.floorMod(hash, (long) shardCount);
+    }
+}
@@ -0,0 +1,42 @@
+package io.example.transaction;
+
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+/**
+ * Helpers for the reactive transactions of the commands.
+ */
+public final class Transactions {
+
+    private Transactions() {
+    }
+
+    /**
+     * Runs an update of in-memory state once the current transaction commits, so that the state never reflects a
+     * change that was rolled back. Without a synchronized transaction each statement commits as it runs, so the update
+     * runs right away.
+     *
+     * @param update is the update to run.
+     * @return a {@link Mono<Void>} that completes once the update has run or has been scheduled.
+     */
+    public static Mono<Void> afterCommit(Runnable update) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .flatMap(manager -> {
+                    if (!manager.isSynchronizationActive()) {
+                        return Mono.<Void>fromRunnable(update);
+                    }
+
+                    manager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public Mono<Void> afterCommit() {
+                            return Mono.fromRunnable(update);
+                        }
+                    });
+                    return Mono.<Void>empty();
+                })
+                .onErrorResume(NoTransactionException.class, ex -> Mono.<Void>fromRunnable(update))
+                .then();
+    }
+}
@@ -0,0 +1,127 @@
+package io.example.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.r2dbc.StubConnectionFactory;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static io.example.r2dbc.StubConnectionFactory.row;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdempotencyStoreTest {
+
+    private final List<Map<String, Object>> stored = new ArrayList<>();
+    private final AtomicInteger executions = new AtomicInteger();
+    private ShardRouter shards;
+    private IdempotencyStore store;
+
+    @BeforeEach
+    public void setUp() {
+        StubConnectionFactory primary = new StubConnectionFactory()
+                .when("SELECT request", () -> stored)
+                .whenUpdate("INSERT INTO idempotent_request", 1);
+        StubConnectionFactory secondary = new StubConnectionFactory()
+                .when("SELECT request", List::of)
+                .whenUpdate("INSERT INTO idempotent_request", 1);
+        shards = new ShardRouter(primary, List.of(secondary));
+        store = new IdempotencyStore(shards, new ObjectMapper(), new SimpleMeterRegistry(), 100,
+                Duration.ofHours(24), Duration.ofMinutes(10));
+    }
+
+    @Test
+    public void executeRejectsAnEmptyKey() {
+        assertStatus(HttpStatus.BAD_REQUEST, () -> store.execute("", "create", String.class, this::command).block());
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    public void executeRejectsAKeyLongerThan255Characters() {
+        String key = "k".repeat(256);
+
+        assertStatus(HttpStatus.BAD_REQUEST, () -> store.execute(key, "create", String.class, this::command).block());
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    public void executeRunsTheCommandWithoutAKey() {
+        assertEquals("created", store.execute(null, "create", String.class, this::command).block());
+        assertEquals("created", store.execute(null, "create", String.class, this::command).block());
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void executeReplaysTheStoredResponse() {
+        stored.add(row("request", "create", "response", "\"stored\"".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("stored", store.execute("key", "create", String.class, this::command).block());
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    public void executeReplaysACommandWithoutAResponse() {
+        stored.add(row("request", "delete", "response", null));
+
+        assertNull(store.execute("key", "delete", Void.class, () -> {
+            executions.incrementAndGet();
+            return Mono.empty();
+        }).block());
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    public void executeRejectsAKeyThatWasUsedForAnotherRequest() {
+        stored.add(row("request", "create", "response", "\"stored\"".getBytes(StandardCharsets.UTF_8)));
+
+        assertStatus(HttpStatus.UNPROCESSABLE_ENTITY,
+                () -> store.execute("key", "update", String.class, this::command).block());
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    public void executeReplaysARecordedResponseFromTheCache() {
+        assertEquals("created", store.execute("key", "create", String.class, this::command).block());
+        // The database no longer answers, so the second response can only come from the cache
+        assertEquals("created", store.execute("key", "create", String.class, this::command).block());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void executeKeepsTheKeysOfEachShardApart() {
+        long userId = LongStream.rangeClosed(1, 100)
+                .filter(id -> shards.forUser(id).getIndex() == 1)
+                .findFirst()
+                .orElseThrow();
+
+        assertEquals("created", store.execute("key", "create", String.class, this::command).block());
+        assertEquals("created", store.execute(userId, "key", "create", String.class, () -> {
+            executions.incrementAndGet();
+            return store.record(userId, "key", "create", "created").thenReturn("created");
+        }).block());
+        assertEquals(2, executions.get());
+    }
+
+    private Mono<String> command() {
+        executions.incrementAndGet();
+        return store.record("key", "create", "created").thenReturn("created");
+    }
+
+    private static void assertStatus(HttpStatus status, Executable executable) {
+        assertEquals(status, assertThrows(ResponseStatusException.class, executable).getStatus());
+    }
+}
@@ -0,0 +1,83 @@
+package io.example.shard;
+
+import io.example.r2dbc.StubConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardRouterTest {
+
+    @Test
+    public void shardIndexNeverChanges() {
+        // Rows are placed by these indexes, so a change to the hash strands existing data on the wrong shard
+        assertEquals(0, ShardRouter.shardIndex(0L, 4));
+        assertEquals(0, ShardRouter.shardIndex(1L, 4));
+        assertEquals(3, ShardRouter.shardIndex(2L, 4));
+        assertEquals(1, ShardRouter.shardIndex(1000L, 4));
+        assertEquals(5, ShardRouter.shardIndex(1L, 7));
+        assertEquals(1, ShardRouter.shardIndex(42L, 7));
+        assertEquals(1, ShardRouter.shardIndex(Long.MAX_VALUE, 7));
+    }
+
+    @Test
+    public void shardIndexIsInRange() {
+        for (long userId : new long[]{Long.MIN_VALUE, -1L, 0L, 1L, Long.MAX_VALUE}) {
+            for (int shardCount = 1; shardCount <= 16; shardCount++) {
+                int index = ShardRouter.shardIndex(userId, shardCount);
+                assertTrue(index >= 0 && index < shardCount, userId + " maps to " + index + " of " + shardCount);
+            }
+        }
+    }
+
+    @Test
+    public void shardIndexSpreadsSequentialUserIdsEvenly() {
+        int shardCount = 4;
+        int users = 100_000;
+        int[] counts = new int[shardCount];
+        for (long userId = 1; userId <= users; userId++) {
+            counts[ShardRouter.shardIndex(userId, shardCount)]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(Math.abs(count - users / shardCount) < users / shardCount / 20, "Uneven shard: " + count);
+        }
+    }
+
+    @Test
+    public void singleShardTakesEveryUser() {
+        ConnectionFactory primary = new StubConnectionFactory();
+        ShardRouter router = new ShardRouter(primary, List.of());
+
+        assertEquals(0, ShardRouter.shardIndex(123L, 1));
+        assertSame(router.getPrimary(), router.forUser(123L));
+        assertSame(primary, router.getPrimary().getConnectionFactory());
+    }
+
+    @Test
+    public void forUserRoutesToTheShardOfTheUser() {
+        ConnectionFactory primary = new StubConnectionFactory();
+        ConnectionFactory secondary = new StubConnectionFactory();
+        ShardRouter router = new ShardRouter(primary, List.of(secondary));
+
+        assertEquals(2, router.getShards().size());
+        for (long userId = 1; userId <= 100; userId++) {
+            Shard shard = router.forUser(userId);
+            assertEquals(ShardRouter.shardIndex(userId, 2), shard.getIndex());
+            assertSame(router.getShards().get(shard.getIndex()), shard);
+        }
+        assertSame(secondary, router.getShards().get(1).getConnectionFactory());
+    }
+
+    @Test
+    public void forUserRejectsANullUserId() {
+        ShardRouter router = new ShardRouter(new StubConnectionFactory(), List.of());
+
+        assertThrows(IllegalArgumentException.class, () -> router.forUser(null));
+    }
+}
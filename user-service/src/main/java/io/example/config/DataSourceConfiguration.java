@@ -1,5 +1,10 @@
 package io.example.config;
 
+import io.example.metrics.TimedConnectionFactory;
+import io.example.shard.ShardRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionFactory;
 import io.r2dbc.spi.ConnectionFactory;
@@ -14,9 +19,15 @@ import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
 import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.transaction.ReactiveTransactionManager;
+import reactor.util.Logger;
+import reactor.util.Loggers;
 
 import javax.sql.DataSource;
 import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.List;
 
 /**
  * This class configures reactive database access using R2DBC with Postgres. Since R2DBC does not allow using JPA
@@ -42,10 +53,29 @@ public class DataSourceConfiguration extends AbstractR2dbcConfiguration {
 	@Value("${spring.application.name}")
 	private String applicationName;
 
+	@Value("${postgres.pool.initial-size:10}")
+	private Integer poolInitialSize;
+
+	@Value("${postgres.pool.min-idle:10}")
+	private Integer poolMinIdle;
+
+	@Value("${postgres.pool.max-size:20}")
+	private Integer poolMaxSize;
+
+	@Value("${postgres.pool.max-idle-time:30m}")
+	private Duration poolMaxIdleTime;
+
+	@Value("${postgres.pool.max-acquire-time:5s}")
+	private Duration poolMaxAcquireTime;
+
+	private final Logger logger = Loggers.getLogger(DataSourceConfiguration.class);
+
 	private DataSourceProperties dataSourceProperties;
+	private MeterRegistry meterRegistry;
 
-	DataSourceConfiguration(DataSourceProperties dataSourceProperties) {
+	DataSourceConfiguration(DataSourceProperties dataSourceProperties, MeterRegistry meterRegistry) {
 		this.dataSourceProperties = dataSourceProperties;
+		this.meterRegistry = meterRegistry;
 	}
 
 	@Bean
@@ -53,9 +83,47 @@ public class DataSourceConfiguration extends AbstractR2dbcConfiguration {
 		return new R2dbcEntityTemplate(connectionFactory);
 	}
 
+	/**
+	 * The reactive transaction manager referenced by the {@code @Transactional("transactionManager")} controllers.
+	 * Declaring it here keeps the JDBC {@link DataSource}, which is only used by Liquibase, from contributing a
+	 * blocking transaction manager under the same name.
+	 */
 	@Bean
+	public ReactiveTransactionManager transactionManager(ConnectionFactory connectionFactory) {
+		return new R2dbcTransactionManager(connectionFactory);
+	}
+
+	/**
+	 * A pool of Postgres connections, so that reactive queries reuse open connections instead of paying for a TCP and
+	 * authentication handshake each time. The pool is warmed up to its initial size at startup, and the actuator
+	 * binds the {@code r2dbc.pool.*} gauges for it. The {@code r2dbc.pool.acquire} timer records how long callers wait
+	 * for a connection.
+	 */
+	@Bean(destroyMethod = "dispose")
 	public ConnectionFactory connectionFactory() {
-		return getPostgresqlConnectionFactory();
+		ConnectionPool pool = new ConnectionPool(ConnectionPoolConfiguration.builder(getPostgresqlConnectionFactory())
+				.name(applicationName)
+				.initialSize(poolInitialSize)
+				.minIdle(poolMinIdle)
+				.maxSize(poolMaxSize)
+				.maxIdleTime(poolMaxIdleTime)
+				.maxAcquireTime(poolMaxAcquireTime)
+				.build());
+
+		pool.warmup().subscribe(
+				warmed -> logger.info(String.format("Warmed up %d Postgres connections", warmed)),
+				ex -> logger.warn("Failed to warm up the Postgres connection pool", ex));
+
+		return new TimedConnectionFactory(pool, meterRegistry, "connectionFactory");
+	}
+
+	/**
+	 * The users are not partitioned, so the outbox and the idempotency store route everything to the
+	 * {@link #connectionFactory()}, as the only shard.
+	 */
+	@Bean
+	public ShardRouter shardRouter(ConnectionFactory connectionFactory) {
+		return new ShardRouter(connectionFactory, List.of());
 	}
 
 	@NotNull
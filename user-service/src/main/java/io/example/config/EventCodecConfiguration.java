@@ -0,0 +1,48 @@
+package io.example.config;
+
+import io.example.domain.EventType;
+import io.example.domain.User;
+import io.example.domain.UserEvent;
+import io.example.event.BinaryEventMessageConverter;
+import io.example.event.UserEventCodec;
+import io.example.event.UserEventRecord;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Registers the domain events of this service with the binary event format. Spring Cloud Stream uses the converter
+ * for the messages of any binding, or any single message, with a content type of
+ * {@value BinaryEventMessageConverter#CONTENT_TYPE}, such as the {@link UserEvent}s that the outbox relays to the
+ * user topic.
+ */
+@Configuration
+public class EventCodecConfiguration {
+
+	@Bean
+	public BinaryEventMessageConverter binaryEventMessageConverter() {
+		return new BinaryEventMessageConverter()
+				.register(UserEvent.class, UserEventCodec.INSTANCE,
+						event -> new UserEventRecord(event.getEventType().name(), event.getSubject().getId(),
+								event.getSubject().getFirstName(), event.getSubject().getLastName(),
+								millis(event.getSubject().getCreatedAt()),
+								millis(event.getSubject().getLastModified()), event.getVersion()),
+						record -> {
+							User user = new User(record.getUserId(), record.getFirstName(), record.getLastName());
+							user.setCreatedAt(timestamp(record.getCreatedAt()));
+							user.setLastModified(timestamp(record.getLastModified()));
+							user.setVersion(record.getVersion());
+							return new UserEvent(user, EventType.valueOf(record.getEventType()));
+						});
+	}
+
+	private static Long millis(Date date) {
+		return date == null ? null : date.getTime();
+	}
+
+	private static Timestamp timestamp(Long millis) {
+		return millis == null ? null : new Timestamp(millis);
+	}
+}
@@ -1,5 +1,7 @@
 package io.example.domain;
 
+import io.example.outbox.VersionedEvent;
+
 import java.io.Serializable;
 
 /**
@@ -9,11 +11,12 @@ import java.io.Serializable;
  * @param <ID> is the type of identity for the domain event.
  * @author Kenny Bastani
  */
-public abstract class DomainEvent<T, ID> implements Serializable {
+public abstract class DomainEvent<T, ID> implements Serializable, VersionedEvent {
 
     private ID id;
     private Long createdAt;
     private Long lastModified;
+    private Long version;
 
     public DomainEvent() {
     }
@@ -42,6 +45,15 @@ public abstract class DomainEvent<T, ID> implements Serializable {
         this.lastModified = lastModified;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public abstract T getSubject();
 
     public abstract void setSubject(T subject);
@@ -56,6 +68,7 @@ public abstract class DomainEvent<T, ID> implements Serializable {
                 "id=" + id +
                 ", createdAt=" + createdAt +
                 ", lastModified=" + lastModified +
+                ", version=" + version +
                 '}';
     }
 }
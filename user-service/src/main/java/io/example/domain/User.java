@@ -31,6 +31,9 @@ public class User {
 	@Column(value = "updated_at")
 	private Timestamp updatedAt;
 
+	@Column(value = "version")
+	private Long version;
+
 	public User() {
 	}
 
@@ -71,6 +74,14 @@ public class User {
 		this.updatedAt = lastModified;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	public String getFirstName() {
 		return firstName;
 	}
@@ -95,6 +106,7 @@ public class User {
 				", lastName='" + lastName + '\'' +
 				", createdAt=" + createdAt +
 				", updatedAt=" + updatedAt +
+				", version=" + version +
 				'}';
 	}
 
@@ -107,12 +119,13 @@ public class User {
 				Objects.equals(firstName, user.firstName) &&
 				Objects.equals(lastName, user.lastName) &&
 				Objects.equals(createdAt, user.createdAt) &&
-				Objects.equals(updatedAt, user.updatedAt);
+				Objects.equals(updatedAt, user.updatedAt) &&
+				Objects.equals(version, user.version);
 	}
 
 	@Override
 	public int hashCode() {
 
-		return Objects.hash(id, firstName, lastName, createdAt, updatedAt);
+		return Objects.hash(id, firstName, lastName, createdAt, updatedAt, version);
 	}
 }
@@ -1,17 +1,28 @@
 package io.example.domain;
 
-import org.springframework.cloud.stream.messaging.Source;
+import io.example.idempotency.IdempotencyStore;
+import io.example.outbox.OutboxService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.Logger;
 import reactor.util.Loggers;
 
+import java.sql.Timestamp;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 /**
  * This is the main REST API for the {@link User} service.
  *
@@ -19,78 +30,161 @@ import reactor.util.Loggers;
  */
 @RestController
 @RequestMapping("/v1")
-@Transactional("transactionManager")
 public class UserController {
 
 	private final Logger logger = Loggers.getLogger(UserController.class);
-	private final Source messageBroker;
+	private final OutboxService outboxService;
 	private final UserService userService;
+	private final IdempotencyStore idempotencyStore;
+	private final UserVersions userVersions;
+	private final UserNameIndex userNameIndex;
+	private final int lookupMaxSize;
 
-	public UserController(Source messageBroker, UserService userService) {
-		this.messageBroker = messageBroker;
+	public UserController(OutboxService outboxService, UserService userService, IdempotencyStore idempotencyStore,
+			UserVersions userVersions, UserNameIndex userNameIndex,
+			@Value("${user.lookup.max-size:1000}") int lookupMaxSize) {
+		this.outboxService = outboxService;
 		this.userService = userService;
+		this.idempotencyStore = idempotencyStore;
+		this.userVersions = userVersions;
+		this.userNameIndex = userNameIndex;
+		this.lookupMaxSize = lookupMaxSize;
 	}
 
+	/**
+	 * Gets a user, with an {@code ETag} and a {@code Last-Modified} header that are derived from its version. A
+	 * conditional read with the {@code If-None-Match} of the version in {@link UserVersions} is answered with
+	 * {@code 304 Not Modified} without reading the user. Other conditional reads of an unchanged user are answered
+	 * with {@code 304 Not Modified} after the read, without serializing the user.
+	 */
 	@GetMapping(path = "/users/{userId}", produces = MediaType.APPLICATION_JSON_VALUE)
-	@ResponseStatus(code = HttpStatus.OK)
-	public Mono<User> getUser(@PathVariable("userId") Long userId) {
-		return userService.find(userId);
+	public Mono<ResponseEntity<User>> getUser(@PathVariable("userId") Long userId,
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		Timestamp version = userVersions.get(userId);
+		if (version != null && UserVersions.matches(ifNoneMatch, version)) {
+			return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.eTag(UserVersions.etag(version))
+					.lastModified(version.toInstant())
+					.build());
+		}
+
+		// The response entity handler answers 304 if the version that was read matches the request
+		return userService.find(userId)
+				.doOnNext(userVersions::observe)
+				.map(user -> ResponseEntity.ok()
+						.eTag(UserVersions.etag(user.getLastModified()))
+						.lastModified(user.getLastModified().toInstant())
+						.body(user));
+	}
+
+	/**
+	 * Gets the users with the supplied IDs, with one query. IDs that do not belong to a user are left out of the
+	 * result. Large sets of IDs can be sent in the body of {@link #lookupUsers} instead of the query string.
+	 */
+	@GetMapping(path = "/users", params = "ids",
+			produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+	public Flux<User> getUsers(@RequestParam("ids") List<Long> ids) {
+		return findAll(ids);
+	}
+
+	/**
+	 * Finds the users whose first or last names start with every word of the query, for typeahead. The search is
+	 * answered from the in-memory {@link UserNameIndex}, so the users in the result only have their ID, names and
+	 * version.
+	 */
+	@GetMapping(path = "/users/search", produces = MediaType.APPLICATION_JSON_VALUE)
+	public Flux<User> searchUsers(@RequestParam("q") String query,
+			@RequestParam(name = "limit", defaultValue = "10") int limit) {
+		return userNameIndex.search(query, limit);
+	}
+
+	/**
+	 * Gets the users with the IDs in the body, with one query. IDs that do not belong to a user are left out of the
+	 * result.
+	 */
+	@PostMapping(path = "/users/lookup", consumes = MediaType.APPLICATION_JSON_VALUE,
+			produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+	public Flux<User> lookupUsers(@RequestBody List<Long> ids) {
+		return findAll(ids);
 	}
 
+	private Flux<User> findAll(List<Long> ids) {
+		Set<Long> distinct = ids.stream()
+				.filter(Objects::nonNull)
+				.collect(Collectors.toCollection(LinkedHashSet::new));
+		if (distinct.size() > lookupMaxSize) {
+			return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					String.format("No more than %d users can be looked up at once", lookupMaxSize)));
+		}
+
+		return userService.findAll(distinct).doOnNext(userVersions::observe);
+	}
+
+	/**
+	 * Creates a user. A retry that repeats the {@code Idempotency-Key} of a committed request is answered with the
+	 * user that was created for it, without writing to the database or the outbox again.
+	 */
 	@PostMapping(path = "/users", consumes = MediaType.APPLICATION_JSON_VALUE)
 	@ResponseStatus(code = HttpStatus.CREATED)
-	public Mono<User> createUser(@RequestBody Mono<User> user) {
+	public Mono<User> createUser(@RequestBody Mono<User> user,
+			@RequestHeader(name = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
 		// Take the producer mono and flat map it to a sequence of steps to create a new user
 		return user.flatMap(u -> {
-			// Execute a dual-write to the local database and the shared Kafka cluster using an atomic commit
-			return userService.create(u, entity -> {
-				// If the database operation fails, a domain event should not be sent to the message broker
-				logger.info(String.format("Database request is pending transaction commit to broker: %s",
+			var request = String.format("createUser:%s:%s", u.getFirstName(), u.getLastName());
+
+			// Write the user and its domain event to the local database in a single transaction
+			return idempotencyStore.execute(idempotencyKey, request, User.class, () -> userService.create(u, entity -> {
+				logger.info(String.format("Database request is pending transaction commit to outbox: %s",
 						entity.toString()));
-				try {
-					UserEvent event = new UserEvent(entity, EventType.USER_CREATED);
-					// Set the entity payload after it has been updated in the database, but before being committed
-					event.setSubject(entity);
-					// Attempt to perform a reactive dual-write to message broker by sending a domain event
-					messageBroker.output().send(MessageBuilder.withPayload(event).build(), 30000L);
-					// The application dual-write was a success and the database transaction can commit
-				} catch (Exception ex) {
-					logger.error(String.format("A dual-write transaction to the message broker has failed: %s",
-							entity.toString()), ex);
-					// This error will cause the database transaction to be rolled back
-					throw new HttpClientErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
-							"A transactional error occurred");
-				}
-			});
+				UserEvent event = new UserEvent(entity, EventType.USER_CREATED);
+				// If the outbox write fails, the exception will cause the database transaction to be rolled back
+				return outboxService.append(entity.getId(), event.getEventType(), event)
+						.then(idempotencyStore.record(idempotencyKey, request, entity));
+			}));
 		});
 	}
 
+	/**
+	 * Imports a stream of new users, sent as a JSON array or as newline-delimited JSON. The body is decoded as it
+	 * arrives and written in batches with multi-row inserts, and the {@code USER_CREATED} events of each batch are
+	 * appended to the outbox in the same transaction with one multi-row insert. The body is read no faster than the
+	 * batches are committed.
+	 */
+	@PostMapping(path = "/users/import",
+			consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE},
+			produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseStatus(code = HttpStatus.CREATED)
+	public Mono<UserImportResult> importUsers(@RequestBody Flux<User> users) {
+		return userService.importAll(users, created -> {
+			logger.info(String.format("Database request is pending transaction commit to outbox: %d users",
+					created.size()));
+			List<UserEvent> events = created.stream()
+					.map(entity -> new UserEvent(entity, EventType.USER_CREATED))
+					.collect(Collectors.toList());
+			// If the outbox write fails, the exception will cause the database transaction to be rolled back
+			return outboxService.appendAll(EventType.USER_CREATED, events, event -> event.getSubject().getId());
+		});
+	}
 
+	/**
+	 * Updates a user. A payload with the {@code version} of the user that the client read is only applied if the user
+	 * is still at that version, and is answered with {@code 409 Conflict} otherwise; the client can then read the
+	 * user again and retry. A payload without a version overwrites the user unconditionally.
+	 */
 	@PutMapping(path = "/users/{userId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+	@Transactional("transactionManager")
 	public Mono<User> updateUser(@PathVariable("userId") Long userId, @RequestBody User user) {
 		Assert.state(user != null, "User payload must not equal null");
 		Assert.state(userId != null, "The userId must not equal null");
 		Assert.state(user.getId().equals(userId), "The userId supplied in the URI path does not match the payload");
 
-		// Execute a dual-write to the local database and the shared Kafka cluster using an atomic commit
+		// Write the update and its domain event to the local database in a single transaction
 		return userService.update(user, entity -> {
-			// If the database operation fails, a domain event should not be sent to the message broker
-			logger.info(String.format("Database request is pending transaction commit to broker: %s",
+			logger.info(String.format("Database request is pending transaction commit to outbox: %s",
 					entity.toString()));
-			try {
-				UserEvent event = new UserEvent(entity, EventType.USER_UPDATED);
-				// Set the entity payload after it has been updated in the database, but before being committed
-				event.setSubject(entity);
-				// Attempt to perform a reactive dual-write to message broker by sending a domain event
-				messageBroker.output().send(MessageBuilder.withPayload(event).build(), 30000L);
-				// The application dual-write was a success and the database transaction can commit
-			} catch (Exception ex) {
-				logger.error(String.format("A dual-write transaction to the message broker has failed: %s",
-						entity.toString()), ex);
-				// This error will cause the database transaction to be rolled back
-				throw new HttpClientErrorException(HttpStatus.INTERNAL_SERVER_ERROR,
-						"A transactional error occurred");
-			}
+			UserEvent event = new UserEvent(entity, EventType.USER_UPDATED);
+			// If the outbox write fails, the exception will cause the database transaction to be rolled back
+			return outboxService.append(entity.getId(), event.getEventType(), event);
 		});
 	}
 }
@@ -1,25 +1,26 @@
 package io.example.domain;
 
-import java.util.UUID;
-
 /**
- * An event that encapsulates a state transition for the {@link User} domain object.
+ * An event that encapsulates a state transition for the {@link User} domain object. Its ID is the user ID and the
+ * version of the user after the event, which the {@code user_event} store keeps unique.
  *
  * @link Kenny Bastani
  */
-public class UserEvent extends DomainEvent<User, Integer> {
+public class UserEvent extends DomainEvent<User, String> {
 
     private User subject;
     private EventType eventType;
 
     public UserEvent() {
-        this.setId(UUID.randomUUID().hashCode());
     }
 
     public UserEvent(User subject, EventType eventType) {
-        this();
         this.subject = subject;
         this.eventType = eventType;
+        this.setVersion(subject.getVersion());
+        if (subject.getId() != null && subject.getVersion() != null) {
+            this.setId(subject.getId() + ":" + subject.getVersion());
+        }
     }
 
     public UserEvent(EventType userCreated) {
@@ -51,6 +52,7 @@ public class UserEvent extends DomainEvent<User, Integer> {
         return "UserEvent{" +
                 "subject=" + subject +
                 ", eventType=" + eventType +
+                ", version=" + getVersion() +
                 '}';
     }
 }
@@ -0,0 +1,65 @@
+package io.example.domain;
+
+import java.util.Objects;
+
+/**
+ * The outcome of a bulk user import: the number of users that were created, and the number that were rejected because
+ * they were missing a first or last name.
+ *
+ * @see UserController#importUsers(reactor.core.publisher.Flux)
+ */
+public class UserImportResult {
+
+	private long imported;
+	private long rejected;
+
+	public UserImportResult() {
+	}
+
+	public UserImportResult(long imported, long rejected) {
+		this.imported = imported;
+		this.rejected = rejected;
+	}
+
+	public UserImportResult add(UserImportResult other) {
+		return new UserImportResult(imported + other.imported, rejected + other.rejected);
+	}
+
+	public long getImported() {
+		return imported;
+	}
+
+	public void setImported(long imported) {
+		this.imported = imported;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public void setRejected(long rejected) {
+		this.rejected = rejected;
+	}
+
+	@Override
+	public String toString() {
+		return "UserImportResult{" +
+				"imported=" + imported +
+				", rejected=" + rejected +
+				'}';
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		UserImportResult that = (UserImportResult) o;
+		return imported == that.imported &&
+				rejected == that.rejected;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(imported, rejected);
+	}
+}
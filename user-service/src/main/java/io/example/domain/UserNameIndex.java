@@ -0,0 +1,411 @@
+package io.example.domain;
+
+import io.example.transaction.Transactions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory prefix index over the first and last names of every user, which answers typeahead searches without a
+ * database round trip. Names are split into words, folded to lower case without accents, and stored in a trie whose
+ * nodes keep their children and user IDs in sorted primitive arrays. Each node counts the names below it, so a search
+ * only walks the subtree of its most selective prefix.
+ * <p>
+ * The index is loaded from the {@code users} table when the service starts. {@link UserService} indexes the users
+ * that it creates or updates once their transaction commits, and the {@link UserVersionProcessor} indexes the users
+ * that were changed by the other instances of the service. A user is only ever replaced by a newer version of itself,
+ * so the order in which the sources apply a user does not matter. Searches during the initial load see the users that
+ * have been loaded so far.
+ */
+@Component
+public class UserNameIndex implements SmartLifecycle {
+
+    private static final Pattern WORDS = Pattern.compile("\\s+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final int MAX_TERM_LENGTH = 64;
+
+    private final Logger logger = Loggers.getLogger(UserNameIndex.class);
+    private final R2dbcEntityTemplate template;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final int maxLimit;
+    private volatile Disposable load;
+    private volatile boolean running;
+
+    public UserNameIndex(R2dbcEntityTemplate template, MeterRegistry meterRegistry,
+                         @Value("${user.search.max-limit:100}") int maxLimit) {
+        this.template = template;
+        this.maxLimit = maxLimit;
+        Gauge.builder("user.search.index.size", this, UserNameIndex::size)
+                .description("The number of users in the name index")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        load = template.getDatabaseClient()
+                .sql("SELECT id, first_name, last_name, version FROM users")
+                .map(row -> {
+                    User user = new User(row.get("id", Long.class), row.get("first_name", String.class),
+                            row.get("last_name", String.class));
+                    user.setVersion(row.get("version", Long.class));
+                    return user;
+                })
+                .all()
+                .doOnNext(this::index)
+                .count()
+                .subscribe(count -> logger.info(String.format("Loaded the names of %d users into the index", count)),
+                        ex -> logger.error("Failed to load the user name index", ex));
+    }
+
+    @Override
+    public void stop() {
+        if (load != null) {
+            load.dispose();
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Finds the users whose names start with every word of a query. For example, {@code "ja do"} finds Jane Doe and
+     * Jack Dorsey, but not Jane Smith.
+     *
+     * @param query is one or more name prefixes, separated by whitespace.
+     * @param limit is the maximum number of users to return, up to {@code user.search.max-limit}.
+     * @return a {@link Flux<User>} that emits the ID, names and version of the matching users, ordered by their name
+     * that matches the most selective prefix.
+     */
+    public Flux<User> search(String query, int limit) {
+        if (limit < 1 || limit > maxLimit) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("The limit must be between 1 and %d", maxLimit)));
+        }
+
+        List<String> prefixes = words(query);
+        if (prefixes.isEmpty()) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The search query must contain at least one letter"));
+        }
+
+        return Flux.defer(() -> Flux.fromIterable(find(prefixes, limit)));
+    }
+
+    /**
+     * Indexes the names of a user, unless a newer version of the user has already been indexed.
+     *
+     * @param user is the user with its ID, names and version.
+     */
+    public void index(User user) {
+        if (user.getId() == null || user.getFirstName() == null || user.getLastName() == null) {
+            return;
+        }
+
+        Entry entry = new Entry(user.getFirstName(), user.getLastName(), user.getVersion());
+        lock.writeLock().lock();
+        try {
+            Entry indexed = entries.get(user.getId());
+            if (indexed != null) {
+                if (indexed.isNewerThan(entry)) {
+                    return;
+                }
+                for (String term : indexed.terms) {
+                    remove(term, user.getId());
+                }
+            }
+
+            for (String term : entry.terms) {
+                add(term, user.getId());
+            }
+            entries.put(user.getId(), entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the names of created or updated users once the current transaction commits.
+     *
+     * @param users are the users that were written in the current transaction.
+     * @return a {@link Mono<Void>} that completes once the update of the index has been scheduled.
+     */
+    public Mono<Void> saved(Collection<User> users) {
+        Runnable update = () -> users.forEach(this::index);
+        return Transactions.afterCommit(update);
+    }
+
+    /**
+     * @return the number of users in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<User> find(List<String> prefixes, int limit) {
+        Set<Long> found = new LinkedHashSet<>();
+        List<User> users = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // Every match has a name under the node of each prefix, so the node with the fewest names is walked
+            Node selective = null;
+            for (String prefix : prefixes) {
+                Node node = node(prefix);
+                if (node == null) {
+                    return users;
+                }
+                if (selective == null || node.count < selective.count) {
+                    selective = node;
+                }
+            }
+            collect(selective, prefixes, found, limit);
+
+            for (Long id : found) {
+                Entry entry = entries.get(id);
+                User user = new User(id, entry.firstName, entry.lastName);
+                user.setVersion(entry.version);
+                users.add(user);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return users;
+    }
+
+    private boolean collect(Node node, List<String> prefixes, Set<Long> found, int limit) {
+        for (int i = 0; i < node.size; i++) {
+            long id = node.ids[i];
+            if (!found.contains(id) && entries.get(id).matches(prefixes)) {
+                found.add(id);
+                if (found.size() >= limit) {
+                    return true;
+                }
+            }
+        }
+
+        for (Node child : node.children) {
+            if (collect(child, prefixes, found, limit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node node(String prefix) {
+        Node node = root;
+        for (int i = 0; i < Math.min(prefix.length(), MAX_TERM_LENGTH) && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    private void add(String term, long id) {
+        int length = Math.min(term.length(), MAX_TERM_LENGTH);
+        Node[] path = new Node[length + 1];
+        path[0] = root;
+        for (int i = 0; i < length; i++) {
+            path[i + 1] = path[i].addChild(term.charAt(i));
+        }
+
+        // Terms that are cut to the same length can end at the same node, where the user is only counted once
+        if (path[length].addId(id)) {
+            for (Node node : path) {
+                node.count++;
+            }
+        }
+    }
+
+    private void remove(String term, long id) {
+        remove(root, term, 0, id);
+    }
+
+    private static boolean remove(Node node, String term, int depth, long id) {
+        boolean removed = false;
+        if (depth == Math.min(term.length(), MAX_TERM_LENGTH)) {
+            removed = node.removeId(id);
+        } else {
+            char label = term.charAt(depth);
+            Node child = node.child(label);
+            if (child != null) {
+                removed = remove(child, term, depth + 1, id);
+                // Prune the branches that no longer lead to a user
+                if (child.isEmpty()) {
+                    node.removeChild(label);
+                }
+            }
+        }
+
+        if (removed) {
+            node.count--;
+        }
+        return removed;
+    }
+
+    private static List<String> words(String value) {
+        String folded = MARKS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT)
+                .trim();
+        List<String> words = new ArrayList<>();
+        for (String word : WORDS.split(folded)) {
+            if (!word.isEmpty() && !words.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static class Entry {
+
+        private final String firstName;
+        private final String lastName;
+        private final Long version;
+        private final List<String> terms;
+
+        private Entry(String firstName, String lastName, Long version) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.version = version;
+            this.terms = words(firstName + " " + lastName);
+        }
+
+        private boolean isNewerThan(Entry other) {
+            return version != null && other.version != null && version > other.version;
+        }
+
+        private boolean matches(List<String> prefixes) {
+            for (String prefix : prefixes) {
+                if (terms.stream().noneMatch(term -> term.startsWith(prefix))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A node of the trie. The labels of the children are kept sorted, so a child is found with a binary search, and
+     * the IDs of the users with a name that ends at the node are kept sorted, so a search returns them in ID order. The
+     * count is the number of names that end at the node or below it.
+     */
+    private static class Node {
+
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final long[] NO_IDS = new long[0];
+
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        private long[] ids = NO_IDS;
+        private int size;
+        private int count;
+
+        private Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node addChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            index = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            newLabels[index] = label;
+            newChildren[index] = new Node();
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[index];
+        }
+
+        private void removeChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index < 0) {
+                return;
+            }
+
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            labels = newLabels.length == 0 ? NO_LABELS : newLabels;
+            children = newChildren.length == 0 ? NO_CHILDREN : newChildren;
+        }
+
+        private boolean addId(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return false;
+            }
+
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(2, size * 2));
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+            return true;
+        }
+
+        private boolean removeId(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            if (size == 0) {
+                ids = NO_IDS;
+            }
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return size == 0 && labels.length == 0;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package io.example.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.example.event.BinaryEventMessageConverter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebuilds the {@code users} table from the append-only {@code user_event} store. The replay starts from the latest
+ * snapshot: the snapshot of every user is restored into the {@code users} table, and only the events after the
+ * position of the snapshot are replayed.
+ * <p>
+ * Events are read in pages of {@code user.replay.batch-size} in the order they were stored. Each page is partitioned
+ * into lanes by user ID, so the events of a user always land in the same lane and are applied in order, and the lanes
+ * are decoded and applied in parallel on a fork-join pool of {@code user.replay.parallelism} threads. The users that a
+ * page changed are then written with multi-row upserts. An upsert never replaces a newer version of a user, so a
+ * replay can be repeated, or interrupted and started again, and never undoes a live update.
+ * <p>
+ * Every {@code user.replay.snapshot-interval} events, and at the end of the replay, the users that changed since the
+ * previous snapshot are written to the {@code user_snapshot} table, together with the position of the replay, in one
+ * transaction. The {@code user.replay.events} counter and the {@code user.replay.position} gauge report the progress
+ * of a replay, which is also logged with its rate every {@code user.replay.progress-interval}.
+ * <p>
+ * The position of a replay is the ID of the last event that it read. An event whose transaction was still open when
+ * its page was read can commit behind that position, so a rebuild is meant to run while no commands are accepted,
+ * such as with {@code user.replay.on-startup} on an instance that is not yet receiving traffic.
+ */
+@Component
+public class UserReplay implements ApplicationRunner {
+
+    private static final String CHECKPOINT = "users";
+    private static final int UPSERT_BATCH_SIZE = 1000;
+
+    private final Logger logger = Loggers.getLogger(UserReplay.class);
+    private final R2dbcEntityTemplate template;
+    private final TransactionalOperator transactionalOperator;
+    private final ObjectMapper objectMapper;
+    private final BinaryEventMessageConverter binaryConverter;
+    private final Counter replayedEvents;
+    private final AtomicLong replayedPosition = new AtomicLong();
+    private final boolean onStartup;
+    private final int batchSize;
+    private final int parallelism;
+    private final long snapshotInterval;
+    private final Duration progressInterval;
+
+    public UserReplay(R2dbcEntityTemplate template, ReactiveTransactionManager transactionManager,
+                      ObjectMapper objectMapper, BinaryEventMessageConverter binaryConverter,
+                      MeterRegistry meterRegistry,
+                      @Value("${user.replay.on-startup:false}") boolean onStartup,
+                      @Value("${user.replay.batch-size:5000}") int batchSize,
+                      @Value("${user.replay.parallelism:0}") int parallelism,
+                      @Value("${user.replay.snapshot-interval:100000}") long snapshotInterval,
+                      @Value("${user.replay.progress-interval:10s}") Duration progressInterval) {
+        this.template = template;
+        this.transactionalOperator = TransactionalOperator.create(transactionManager);
+        this.objectMapper = objectMapper;
+        this.binaryConverter = binaryConverter;
+        this.replayedEvents = Counter.builder("user.replay.events")
+                .description("The number of events that were replayed from the user event store")
+                .register(meterRegistry);
+        Gauge.builder("user.replay.position", replayedPosition, AtomicLong::get)
+                .description("The position in the user event store that the last replay has reached")
+                .register(meterRegistry);
+        this.onStartup = onStartup;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.snapshotInterval = snapshotInterval;
+        this.progressInterval = progressInterval;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (onStartup) {
+            logger.info(String.format("Rebuilt the users table from the user event store: %s", rebuild().block()));
+        }
+    }
+
+    /**
+     * Restores the latest snapshot into the {@code users} table, and replays the events that were stored after it.
+     *
+     * @return a {@link Mono<UserReplayResult>} that emits the outcome of the replay once the final snapshot has been
+     * written.
+     */
+    public Mono<UserReplayResult> rebuild() {
+        return restoreSnapshot()
+                .flatMap(from -> Mono.using(() -> new ForkJoinPool(parallelism),
+                        pool -> replay(from, Schedulers.fromExecutorService(pool, "user-replay")),
+                        ForkJoinPool::shutdown))
+                .delayUntil(result -> template.getDatabaseClient()
+                        // Users were inserted with the IDs of their events, which the ID sequence has not handed out
+                        .sql("SELECT setval(pg_get_serial_sequence('users', 'id'), COALESCE(MAX(id), 1), " +
+                                "MAX(id) IS NOT NULL) FROM users")
+                        .then());
+    }
+
+    private Mono<Long> restoreSnapshot() {
+        return transactionalOperator.transactional(template.getDatabaseClient()
+                        .sql("SELECT position FROM snapshot_checkpoint WHERE name = :name")
+                        .bind("name", CHECKPOINT)
+                        .map(row -> row.get("position", Long.class))
+                        .one()
+                        .defaultIfEmpty(0L)
+                        .delayUntil(from -> from == 0 ? Mono.empty() : template.getDatabaseClient()
+                                .sql("INSERT INTO users (id, first_name, last_name, created_at, updated_at, version) " +
+                                        "SELECT id, first_name, last_name, created_at, updated_at, version " +
+                                        "FROM user_snapshot " + onConflict("users"))
+                                .fetch()
+                                .rowsUpdated()))
+                .doOnNext(from -> logger.info(String.format("Replaying the user event store from position %d",
+                        from)));
+    }
+
+    private Mono<UserReplayResult> replay(long from, Scheduler scheduler) {
+        Replay replay = new Replay(from);
+
+        return readPage(from)
+                .expand(page -> page.size() < batchSize ? Mono.empty() :
+                        readPage(page.get(page.size() - 1).id))
+                .filter(page -> !page.isEmpty())
+                // The next page is read while the current one is applied
+                .concatMap(page -> apply(page, scheduler)
+                        .flatMap(users -> upsert("users", users).thenReturn(users))
+                        .flatMap(users -> {
+                            replay.applied(page, users);
+                            replayedEvents.increment(page.size());
+                            replayedPosition.set(replay.position);
+                            report(replay);
+                            return replay.eventsSinceSnapshot >= snapshotInterval ? snapshot(replay) : Mono.empty();
+                        }), 1)
+                .then(Mono.defer(() -> snapshot(replay)))
+                .then(Mono.fromCallable(replay::result));
+    }
+
+    private Mono<List<StoredEvent>> readPage(long position) {
+        return template.getDatabaseClient()
+                .sql("SELECT id, aggregate_id, version, content_type, payload FROM user_event " +
+                        "WHERE id > :position ORDER BY id LIMIT :limit")
+                .bind("position", position)
+                .bind("limit", batchSize)
+                .map(row -> new StoredEvent(row.get("id", Long.class), row.get("aggregate_id", Long.class),
+                        row.get("version", Long.class), row.get("content_type", String.class),
+                        row.get("payload", byte[].class)))
+                .all()
+                .collectList();
+    }
+
+    /**
+     * Applies a page of events on the fork-join pool, one lane of users per task.
+     *
+     * @return a {@link Mono} that emits the latest state of every user that the page changed.
+     */
+    private Mono<List<User>> apply(List<StoredEvent> page, Scheduler scheduler) {
+        List<List<StoredEvent>> lanes = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            lanes.add(new ArrayList<>());
+        }
+        for (StoredEvent event : page) {
+            lanes.get(Math.floorMod(event.aggregateId, parallelism)).add(event);
+        }
+
+        return Flux.fromIterable(lanes)
+                .filter(lane -> !lane.isEmpty())
+                .parallel(parallelism)
+                .runOn(scheduler, 1)
+                .map(this::applyLane)
+                .sequential()
+                .flatMapIterable(Map::values)
+                .collectList();
+    }
+
+    private Map<Long, User> applyLane(List<StoredEvent> lane) {
+        Map<Long, User> users = new HashMap<>();
+        for (StoredEvent event : lane) {
+            // Every user event carries the whole state of the user after the event
+            User user = decode(event).getSubject();
+            user.setId(event.aggregateId);
+            user.setVersion(event.version);
+            users.merge(event.aggregateId, user, UserReplay::newer);
+        }
+        return users;
+    }
+
+    private UserEvent decode(StoredEvent event) {
+        try {
+            return BinaryEventMessageConverter.CONTENT_TYPE.equals(event.contentType) ?
+                    binaryConverter.decode(event.payload, UserEvent.class) :
+                    objectMapper.readValue(event.payload, UserEvent.class);
+        } catch (Exception ex) {
+            throw Exceptions.propagate(ex);
+        }
+    }
+
+    private Mono<Void> snapshot(Replay replay) {
+        if (replay.unsnapshotted.isEmpty()) {
+            return Mono.empty();
+        }
+
+        List<User> users = new ArrayList<>(replay.unsnapshotted.values());
+        long position = replay.position;
+        return transactionalOperator.transactional(upsert("user_snapshot", users)
+                        .then(template.getDatabaseClient()
+                                .sql("INSERT INTO snapshot_checkpoint (name, position) VALUES (:name, :position) " +
+                                        "ON CONFLICT (name) DO UPDATE SET position = EXCLUDED.position, " +
+                                        "created_at = NOW()")
+                                .bind("name", CHECKPOINT)
+                                .bind("position", position)
+                                .then()))
+                .doOnSuccess(done -> {
+                    replay.unsnapshotted.clear();
+                    replay.eventsSinceSnapshot = 0;
+                    logger.info(String.format("Wrote a snapshot of %d users at position %d", users.size(),
+                            position));
+                });
+    }
+
+    private Mono<Void> upsert(String table, List<User> users) {
+        return Flux.fromIterable(users)
+                .buffer(UPSERT_BATCH_SIZE)
+                .concatMap(batch -> {
+                    StringJoiner values = new StringJoiner(", ");
+                    for (int i = 0; i < batch.size(); i++) {
+                        values.add(String.format("(:id%1$d, :firstName%1$d, :lastName%1$d, " +
+                                "COALESCE(:createdAt%1$d, NOW()), COALESCE(:updatedAt%1$d, NOW()), :version%1$d)", i));
+                    }
+
+                    DatabaseClient.GenericExecuteSpec upsert = template.getDatabaseClient()
+                            .sql("INSERT INTO " + table + " (id, first_name, last_name, created_at, updated_at, " +
+                                    "version) VALUES " + values + " " + onConflict(table));
+                    for (int i = 0; i < batch.size(); i++) {
+                        User user = batch.get(i);
+                        upsert = upsert.bind("id" + i, user.getId())
+                                .bind("firstName" + i, user.getFirstName())
+                                .bind("lastName" + i, user.getLastName())
+                                .bind("version" + i, user.getVersion());
+                        upsert = user.getCreatedAt() == null ? upsert.bindNull("createdAt" + i, LocalDateTime.class) :
+                                upsert.bind("createdAt" + i, user.getCreatedAt().toLocalDateTime());
+                        upsert = user.getLastModified() == null ?
+                                upsert.bindNull("updatedAt" + i, LocalDateTime.class) :
+                                upsert.bind("updatedAt" + i, user.getLastModified().toLocalDateTime());
+                    }
+
+                    return upsert.fetch().rowsUpdated();
+                })
+                .then();
+    }
+
+    private void report(Replay replay) {
+        long now = System.nanoTime();
+        if (now - replay.reportedAt >= progressInterval.toNanos()) {
+            replay.reportedAt = now;
+            logger.info(String.format("Replayed %d events of the user event store up to position %d (%.0f events/s)",
+                    replay.events, replay.position, replay.eventsPerSecond()));
+        }
+    }
+
+    private static String onConflict(String table) {
+        // An older version never replaces a newer one, which makes every write of a replay idempotent
+        return "ON CONFLICT (id) DO UPDATE SET first_name = EXCLUDED.first_name, last_name = EXCLUDED.last_name, " +
+                "created_at = EXCLUDED.created_at, updated_at = EXCLUDED.updated_at, version = EXCLUDED.version " +
+                "WHERE " + table + ".version < EXCLUDED.version";
+    }
+
+    private static User newer(User applied, User next) {
+        return next.getVersion() > applied.getVersion() ? next : applied;
+    }
+
+    private static class StoredEvent {
+
+        private final long id;
+        private final long aggregateId;
+        private final long version;
+        private final String contentType;
+        private final byte[] payload;
+
+        private StoredEvent(long id, long aggregateId, long version, String contentType, byte[] payload) {
+            this.id = id;
+            this.aggregateId = aggregateId;
+            this.version = version;
+            this.contentType = contentType;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * The progress of a replay, which is only accessed by one page at a time.
+     */
+    private static class Replay {
+
+        private final long fromPosition;
+        private final long startedAt = System.nanoTime();
+        private final Map<Long, User> unsnapshotted = new HashMap<>();
+        private long position;
+        private long events;
+        private long users;
+        private long eventsSinceSnapshot;
+        private long reportedAt = startedAt;
+
+        private Replay(long fromPosition) {
+            this.fromPosition = fromPosition;
+            this.position = fromPosition;
+        }
+
+        private void applied(List<StoredEvent> page, List<User> changed) {
+            position = page.get(page.size() - 1).id;
+            events += page.size();
+            users += changed.size();
+            eventsSinceSnapshot += page.size();
+            for (User user : changed) {
+                unsnapshotted.merge(user.getId(), user, UserReplay::newer);
+            }
+        }
+
+        private double eventsPerSecond() {
+            long elapsed = System.nanoTime() - startedAt;
+            return elapsed == 0 ? 0 : events * 1e9 / elapsed;
+        }
+
+        private UserReplayResult result() {
+            return new UserReplayResult(fromPosition, position, events, users, eventsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.example.domain;
+
+import java.util.Objects;
+
+/**
+ * The outcome of a rebuild of the {@code users} table by the {@link UserReplay}: the position in the
+ * {@code user_event} store that the replay started from, which is the position of the latest snapshot, the position
+ * that it reached, the number of events that were replayed and users that were written, and the replay rate.
+ */
+public class UserReplayResult {
+
+	private long fromPosition;
+	private long position;
+	private long events;
+	private long users;
+	private double eventsPerSecond;
+
+	public UserReplayResult() {
+	}
+
+	public UserReplayResult(long fromPosition, long position, long events, long users, double eventsPerSecond) {
+		this.fromPosition = fromPosition;
+		this.position = position;
+		this.events = events;
+		this.users = users;
+		this.eventsPerSecond = eventsPerSecond;
+	}
+
+	public long getFromPosition() {
+		return fromPosition;
+	}
+
+	public void setFromPosition(long fromPosition) {
+		this.fromPosition = fromPosition;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	public void setPosition(long position) {
+		this.position = position;
+	}
+
+	public long getEvents() {
+		return events;
+	}
+
+	public void setEvents(long events) {
+		this.events = events;
+	}
+
+	public long getUsers() {
+		return users;
+	}
+
+	public void setUsers(long users) {
+		this.users = users;
+	}
+
+	public double getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	public void setEventsPerSecond(double eventsPerSecond) {
+		this.eventsPerSecond = eventsPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		return "UserReplayResult{" +
+				"fromPosition=" + fromPosition +
+				", position=" + position +
+				", events=" + events +
+				", users=" + users +
+				", eventsPerSecond=" + eventsPerSecond +
+				'}';
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		UserReplayResult that = (UserReplayResult) o;
+		return fromPosition == that.fromPosition &&
+				position == that.position &&
+				events == that.events &&
+				users == that.users &&
+				Double.compare(that.eventsPerSecond, eventsPerSecond) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(fromPosition, position, events, users, eventsPerSecond);
+	}
+}
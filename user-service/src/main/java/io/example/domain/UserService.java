@@ -1,17 +1,27 @@
 package io.example.domain;
 
-import io.r2dbc.spi.ConnectionFactory;
+import io.example.metrics.CommandMetrics;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
-import org.springframework.data.relational.core.query.CriteriaDefinition;
 import org.springframework.data.relational.core.query.Query;
-import org.springframework.data.relational.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.time.Duration;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.springframework.data.relational.core.query.Criteria.where;
 
@@ -27,10 +37,26 @@ import static org.springframework.data.relational.core.query.Criteria.where;
 @Service
 public class UserService {
 
+    private static final String CREATE = "user.create";
+    private static final String UPDATE = "user.update";
+    private static final String IMPORT = "user.import";
+
     private final R2dbcEntityTemplate template;
+    private final TransactionalOperator transactionalOperator;
+    private final CommandMetrics commandMetrics;
+    private final UserVersions userVersions;
+    private final UserNameIndex userNameIndex;
+    private final int importBatchSize;
 
-    public UserService(R2dbcEntityTemplate template) {
+    public UserService(R2dbcEntityTemplate template, ReactiveTransactionManager transactionManager,
+                       CommandMetrics commandMetrics, UserVersions userVersions, UserNameIndex userNameIndex,
+                       @Value("${user.import.batch-size:1000}") int importBatchSize) {
         this.template = template;
+        this.transactionalOperator = TransactionalOperator.create(transactionManager);
+        this.commandMetrics = commandMetrics;
+        this.userVersions = userVersions;
+        this.userNameIndex = userNameIndex;
+        this.importBatchSize = importBatchSize;
     }
 
     /**
@@ -38,17 +64,74 @@ public class UserService {
      * event to a third-party system, such as Apache Kafka, before finalizing the commit.
      *
      * @param user     is the {@link User} entity to create.
-     * @param callback is a {@link Consumer<User>} that will allow you to throw an exception to rollback the TX.
+     * @param callback is a {@code Function<User, Publisher<Void>>} that will allow you to throw an exception to rollback the TX.
      * @return a {@link Mono<User>} that emits the result of the transaction in the form of the committed {@link User}.
      */
-    public Mono<User> create(User user, Consumer<User> callback) {
-
-        return template.insert(user)
-                .map(User::getId)
-                .flatMap(id -> template.select(User.class)
-                        .matching(Query.query(where("id").is(id)))
-                        .first()
-                        .single()).delayUntil(u -> Mono.fromRunnable(() -> callback.accept(u)));
+    public Mono<User> create(User user, Function<User, Publisher<Void>> callback) {
+
+        return commandMetrics.command(CREATE, () -> commandMetrics.phase(CREATE, "insert", () -> template
+                        .getDatabaseClient()
+                        .sql("INSERT INTO users (first_name, last_name) VALUES (:firstName, :lastName) RETURNING *")
+                        .bind("firstName", user.getFirstName())
+                        .bind("lastName", user.getLastName())
+                        .map((row, metadata) -> template.getConverter().read(User.class, row, metadata))
+                        .one()
+                        .single())
+                .delayUntil(created -> commandMetrics.phase(CREATE, "callback",
+                        () -> Mono.from(callback.apply(created))))
+                .delayUntil(created -> userNameIndex.saved(List.of(created))));
+    }
+
+    /**
+     * Imports a stream of new {@link User}s with multi-row inserts. The stream is consumed in batches of
+     * {@code user.import.batch-size} users, and each batch is committed in its own transaction together with the
+     * writes of the callback. The next batch is only requested from the stream once the previous one has committed, so
+     * a slow database slows down the consumption of the stream instead of buffering it in memory.
+     * <p>
+     * Users without a first or last name are rejected and skipped. If a batch fails, the batches before it stay
+     * committed.
+     *
+     * @param users    is the stream of {@link User} entities to create.
+     * @param callback is a {@code Function<List<User>, Publisher<Void>>} that is called with each batch of created
+     *                 users, and that can throw an exception to roll back the batch.
+     * @return a {@link Mono<UserImportResult>} that emits the number of imported and rejected users.
+     */
+    public Mono<UserImportResult> importAll(Flux<User> users, Function<List<User>, Publisher<Void>> callback) {
+        return users.buffer(importBatchSize)
+                .concatMap(batch -> {
+                    List<User> valid = batch.stream()
+                            .filter(user -> StringUtils.hasText(user.getFirstName()) &&
+                                    StringUtils.hasText(user.getLastName()))
+                            .collect(Collectors.toList());
+                    long rejected = batch.size() - valid.size();
+                    if (valid.isEmpty()) {
+                        return Mono.just(new UserImportResult(0, rejected));
+                    }
+
+                    return transactionalOperator.transactional(commandMetrics.command(IMPORT, () -> commandMetrics
+                                    .phase(IMPORT, "insert", () -> insertAll(valid).collectList())
+                                    .delayUntil(created -> commandMetrics.phase(IMPORT, "callback",
+                                            () -> Mono.from(callback.apply(created))))
+                                    .delayUntil(userNameIndex::saved)))
+                            .map(created -> new UserImportResult(created.size(), rejected));
+                }, 1)
+                .reduce(new UserImportResult(0, 0), UserImportResult::add);
+    }
+
+    private Flux<User> insertAll(List<User> users) {
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < users.size(); i++) {
+            values.add(String.format("(:firstName%1$d, :lastName%1$d)", i));
+        }
+
+        DatabaseClient.GenericExecuteSpec insert = template.getDatabaseClient()
+                .sql("INSERT INTO users (first_name, last_name) VALUES " + values + " RETURNING *");
+        for (int i = 0; i < users.size(); i++) {
+            insert = insert.bind("firstName" + i, users.get(i).getFirstName())
+                    .bind("lastName" + i, users.get(i).getLastName());
+        }
+
+        return insert.map((row, metadata) -> template.getConverter().read(User.class, row, metadata)).all();
     }
 
     /**
@@ -65,24 +148,75 @@ public class UserService {
     }
 
     /**
-     * Updates an existing {@link User} entity by its unique ID.
+     * Uses a non-transactional database client to find the {@link User}s with the supplied IDs in one query. IDs that
+     * do not belong to a user are left out of the result.
+     *
+     * @param ids are the IDs of the {@link User}s that should be found.
+     * @return a {@link Flux<User>} that emits the users that were found, in no particular order.
+     */
+    public Flux<User> findAll(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Flux.empty();
+        }
+
+        return template.getDatabaseClient()
+                .sql("SELECT * FROM users WHERE id = ANY(:ids)")
+                .bind("ids", ids.toArray(new Long[0]))
+                .map((row, metadata) -> template.getConverter().read(User.class, row, metadata))
+                .all();
+    }
+
+    /**
+     * Updates an existing {@link User} entity by its unique ID, and increments its version. The new version of the
+     * user is recorded in the {@link UserVersions} once the transaction commits.
+     * <p>
+     * If the supplied user has a version, the update is a compare-and-set: it only applies if the user is still at
+     * that version, and fails with {@code 409 Conflict} if the user has been updated since, so concurrent updates
+     * cannot overwrite each other without taking a lock.
      *
      * @param user     is {@link User} model that contains the updates to be applied to the existing entity.
-     * @param callback is a {@link Consumer<User>} that allows you to either commit or rollback the transaction.
+     * @param callback is a {@code Function<User, Publisher<Void>>} that allows you to either commit or rollback the transaction.
      * @return a {@link Mono<User>} that emits the result of the update transaction.
      */
-    public Mono<User> update(User user, Consumer<User> callback) {
+    public Mono<User> update(User user, Function<User, Publisher<Void>> callback) {
         Assert.notNull(user.getId(), "User ID must not be null");
 
-        AtomicReference<Long> userId = new AtomicReference<>();
-        userId.set(user.getId());
+        return commandMetrics.command(UPDATE, () -> commandMetrics.phase(UPDATE, "update", () -> {
+                    DatabaseClient.GenericExecuteSpec update = template.getDatabaseClient()
+                            // The row lock of the update serializes the versions of concurrent updates
+                            .sql("UPDATE users SET first_name = :firstName, last_name = :lastName, " +
+                                    "updated_at = NOW(), version = version + 1 WHERE id = :id" +
+                                    (user.getVersion() != null ? " AND version = :version" : "") + " RETURNING *")
+                            .bind("id", user.getId())
+                            .bind("firstName", user.getFirstName())
+                            .bind("lastName", user.getLastName());
+                    if (user.getVersion() != null) {
+                        update = update.bind("version", user.getVersion());
+                    }
 
-        return template.update(User.class)
-                .matching(Query.query(where("id").is(user.getId())))
-                .apply(Update.update("first_name", user.getFirstName())
-                        .set("last_name", user.getLastName()))
-                .then(template.selectOne(Query.query(where("id").is(user.getId())), User.class).single())
-                .delayUntil(u -> Mono.fromRunnable(() -> callback.accept(u)))
-                .single();
+                    return update.map((row, metadata) -> template.getConverter().read(User.class, row, metadata))
+                            .one()
+                            .switchIfEmpty(Mono.defer(() -> conflict(user)))
+                            .single();
+                })
+                .delayUntil(updated -> commandMetrics.phase(UPDATE, "callback",
+                        () -> Mono.from(callback.apply(updated))))
+                .delayUntil(userVersions::updated)
+                .delayUntil(updated -> userNameIndex.saved(List.of(updated))));
+    }
+
+    /**
+     * Fails with {@code 409 Conflict} if a user that a compare-and-set did not update exists at another version. A user
+     * that does not exist completes empty.
+     */
+    private Mono<User> conflict(User user) {
+        return template.getDatabaseClient()
+                .sql("SELECT version FROM users WHERE id = :id")
+                .bind("id", user.getId())
+                .map(row -> row.get("version", Long.class))
+                .one()
+                .flatMap(current -> Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                        String.format("User %d is at version %d, not version %d", user.getId(), current,
+                                user.getVersion()))));
     }
 }
@@ -0,0 +1,33 @@
+package io.example.domain;
+
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+
+/**
+ * Message stream listener for {@link User} events. Applies the versions and names of the users that were created or
+ * updated by any instance of the service to the local {@link UserVersions} and {@link UserNameIndex}.
+ */
+@Configuration
+@EnableBinding(UserVersionSink.class)
+public class UserVersionProcessor {
+
+    private final UserVersions userVersions;
+    private final UserNameIndex userNameIndex;
+
+    public UserVersionProcessor(UserVersions userVersions, UserNameIndex userNameIndex) {
+        this.userVersions = userVersions;
+        this.userNameIndex = userNameIndex;
+    }
+
+    @StreamListener(value = UserVersionSink.INPUT)
+    public void apply(Message<UserEvent> userEvent) {
+        User user = userEvent.getPayload().getSubject();
+
+        if (user != null) {
+            userVersions.observe(user);
+            userNameIndex.index(user);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.example.domain;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * Custom Spring Cloud Stream {@link Sink} binding for consuming this service's own {@link User} events, which keeps
+ * the {@link UserVersions} of every instance current.
+ */
+public interface UserVersionSink {
+    String INPUT = "versions";
+
+    @Input(UserVersionSink.INPUT)
+    SubscribableChannel versions();
+}
@@ -0,0 +1,103 @@
+package io.example.domain;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.example.transaction.Transactions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory map from user ID to the {@code updated_at} version of the user, which lets
+ * {@link UserController#getUser} answer a conditional read of an unchanged user with {@code 304 Not Modified}
+ * without a database round trip. The ETag of a user is its version in microseconds since the epoch.
+ * <p>
+ * A version is only ever replaced by a newer one. {@link UserService#update} evicts the version of a user before its
+ * transaction commits, and records the new version after the commit, so the map never holds a version that is older
+ * than the committed one on this instance. The {@link UserVersionProcessor} applies the versions of the updates that
+ * were made by the other instances of the service from the user topic.
+ */
+@Component
+public class UserVersions {
+
+    private final Cache<Long, Timestamp> versions;
+
+    public UserVersions(MeterRegistry meterRegistry,
+                        @Value("${user.versions.maximum-size:100000}") long maximumSize) {
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, versions, "user.versions");
+    }
+
+    /**
+     * @param userId is the ID of a user.
+     * @return the known version of the user, or null if the version of the user is not known.
+     */
+    public Timestamp get(Long userId) {
+        return versions.getIfPresent(userId);
+    }
+
+    /**
+     * Records the version of a user that was read or received, unless a newer version is already known.
+     *
+     * @param user is the user with its {@code updated_at} version.
+     */
+    public void observe(User user) {
+        if (user.getId() != null && user.getLastModified() != null) {
+            versions.asMap().merge(user.getId(), user.getLastModified(),
+                    (known, observed) -> observed.after(known) ? observed : known);
+        }
+    }
+
+    /**
+     * Evicts the version of an updated user now, and records its new version once the current transaction commits.
+     *
+     * @param user is the updated user, with its new {@code updated_at} version.
+     * @return a {@link Mono<Void>} that completes once the version has been evicted.
+     */
+    public Mono<Void> updated(User user) {
+        versions.invalidate(user.getId());
+        return Transactions.afterCommit(() -> observe(user));
+    }
+
+    /**
+     * @param version is the {@code updated_at} version of a user.
+     * @return the strong ETag of the version.
+     */
+    public static String etag(Timestamp version) {
+        Instant instant = version.toInstant();
+        return "\"" + (TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) + instant.getNano() / 1000) + "\"";
+    }
+
+    /**
+     * @param ifNoneMatch is the value of an {@code If-None-Match} header, or null.
+     * @param version     is the current version of a user.
+     * @return true if the header matches the ETag of the version.
+     */
+    public static boolean matches(String ifNoneMatch, Timestamp version) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        String etag = etag(version);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match uses the weak comparison, which ignores the weak indicator
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package io.example.domain;
+
+import io.example.r2dbc.StubConnectionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.example.r2dbc.StubConnectionFactory.row;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserNameIndexTest {
+
+    private UserNameIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        StubConnectionFactory database = new StubConnectionFactory()
+                .when("SELECT id, first_name", () -> List.of(
+                        row("id", 1L, "first_name", "Jane", "last_name", "Doe", "version", 0L),
+                        row("id", 2L, "first_name", "Jack", "last_name", "Dorsey", "version", 0L),
+                        row("id", 3L, "first_name", "Jane", "last_name", "Smith", "version", 0L)));
+        index = new UserNameIndex(new R2dbcEntityTemplate(database), new SimpleMeterRegistry(), 100);
+    }
+
+    @Test
+    public void searchMatchesEveryPrefixOfTheQuery() {
+        index.start();
+
+        assertEquals(List.of(1L, 2L), ids("ja do", 10));
+        assertEquals(List.of(1L, 3L), ids("jane", 10));
+        assertEquals(List.of(3L), ids("SMI ja", 10));
+        assertEquals(List.of(), ids("jane dorsey", 10));
+        assertEquals(List.of(), ids("x", 10));
+    }
+
+    @Test
+    public void searchFoldsCaseAndAccents() {
+        index.index(user(4L, "Zoë", "Ångström", 0L));
+
+        assertEquals(List.of(4L), ids("zoe ang", 10));
+        assertEquals(List.of(4L), ids("ZOË", 10));
+    }
+
+    @Test
+    public void searchStopsAtTheLimit() {
+        index.start();
+
+        assertEquals(1, ids("ja", 1).size());
+    }
+
+    @Test
+    public void searchRejectsALimitOutOfRange() {
+        assertStatus(() -> index.search("jane", 0).collectList().block());
+        assertStatus(() -> index.search("jane", 101).collectList().block());
+    }
+
+    @Test
+    public void searchRejectsAQueryWithoutWords() {
+        assertStatus(() -> index.search("   ", 10).collectList().block());
+    }
+
+    @Test
+    public void indexReplacesTheNamesOfAUser() {
+        index.index(user(1L, "Jane", "Doe", 1L));
+        index.index(user(1L, "Janet", "Roe", 2L));
+
+        assertEquals(List.of(1L), ids("janet roe", 10));
+        assertEquals(List.of(), ids("doe", 10));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void indexIgnoresAnOlderVersionOfAUser() {
+        index.index(user(1L, "Janet", "Roe", 2L));
+        index.index(user(1L, "Jane", "Doe", 1L));
+
+        assertEquals(List.of(1L), ids("roe", 10));
+        assertEquals(List.of(), ids("doe", 10));
+    }
+
+    @Test
+    public void isRunningUntilStopped() {
+        assertFalse(index.isRunning());
+
+        index.start();
+        assertTrue(index.isRunning());
+        assertEquals(3, index.size());
+
+        index.stop();
+        assertFalse(index.isRunning());
+    }
+
+    private List<Long> ids(String query, int limit) {
+        return index.search(query, limit)
+                .map(User::getId)
+                .collect(Collectors.toList())
+                .block();
+    }
+
+    private static User user(Long id, String firstName, String lastName, Long version) {
+        User user = new User(id, firstName, lastName);
+        user.setVersion(version);
+        return user;
+    }
+
+    private static void assertStatus(Executable executable) {
+        assertEquals(HttpStatus.BAD_REQUEST, assertThrows(ResponseStatusException.class, executable).getStatus());
+    }
+}
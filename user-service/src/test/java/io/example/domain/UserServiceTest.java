@@ -0,0 +1,80 @@
+package io.example.domain;
+
+import io.example.metrics.CommandMetrics;
+import io.example.r2dbc.StubConnectionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.example.r2dbc.StubConnectionFactory.row;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserServiceTest {
+
+    private final List<Map<String, Object>> updated = new ArrayList<>();
+    private final List<Map<String, Object>> versions = new ArrayList<>();
+    private final List<User> published = new ArrayList<>();
+    private UserNameIndex userNameIndex;
+    private UserService userService;
+
+    @BeforeEach
+    public void setUp() {
+        StubConnectionFactory database = new StubConnectionFactory()
+                .when("UPDATE users", () -> updated)
+                .when("SELECT version", () -> versions);
+        R2dbcEntityTemplate template = new R2dbcEntityTemplate(database);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        userNameIndex = new UserNameIndex(template, meterRegistry, 100);
+
+        userService = new UserService(template, new R2dbcTransactionManager(database),
+                new CommandMetrics(meterRegistry), new UserVersions(meterRegistry, 100), userNameIndex, 1000);
+    }
+
+    @Test
+    public void updateRejectsAStaleVersion() {
+        // The compare-and-set matches no row, and the user is at another version
+        versions.add(row("version", 4L));
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> userService.update(user(3L), this::publish).block());
+
+        assertEquals(HttpStatus.CONFLICT, ex.getStatus());
+        assertEquals("User 1 is at version 4, not version 3", ex.getReason());
+        assertTrue(published.isEmpty());
+        assertEquals(0, userNameIndex.size());
+    }
+
+    @Test
+    public void updateReturnsTheNextVersion() {
+        updated.add(row("id", 1L, "first_name", "Janet", "last_name", "Roe", "created_at", null,
+                "updated_at", new Timestamp(1_600_000_000_000L), "version", 4L));
+
+        User result = userService.update(user(3L), this::publish).block();
+
+        assertEquals(4L, result.getVersion());
+        assertEquals(List.of(result), published);
+        assertEquals(List.of(1L), userNameIndex.search("janet", 10).map(User::getId).collectList().block());
+    }
+
+    private Mono<Void> publish(User user) {
+        return Mono.fromRunnable(() -> published.add(user));
+    }
+
+    private static User user(Long version) {
+        User user = new User(1L, "Janet", "Roe");
+        user.setVersion(version);
+        return user;
+    }
+}